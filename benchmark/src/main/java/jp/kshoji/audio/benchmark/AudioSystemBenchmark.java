@@ -0,0 +1,84 @@
+package jp.kshoji.audio.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.audio.util.AudioSystem;
+
+/**
+ * Call overhead of the {@link AudioSystem} wrapper, compared with the direct call and the uncached reflection.<br />
+ * The wrapper is measured with the reflective binding and the direct call binding, see {@link AudioSystem#setDirectCallEnabled(boolean)}.
+ * <pre>
+ * ./gradlew :benchmark:jmh -Pjmh.include=AudioSystemBenchmark
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms256m", "-Xmx256m"})
+@State(Scope.Thread)
+public class AudioSystemBenchmark {
+    @Param({"false", "true"})
+    private boolean directCall;
+
+    private int config;
+
+    @Setup
+    public void setup() {
+        AudioSystem.warmUp();
+        AudioSystem.setDirectCallEnabled(directCall);
+    }
+
+    @Benchmark
+    public void setForceUse() {
+        config ^= 1;
+        AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, config);
+    }
+
+    @Benchmark
+    public int getForceUse() {
+        return AudioSystem.getForceUse(AudioSystem.FOR_MEDIA);
+    }
+
+    @Benchmark
+    public void setDeviceConnectionState() {
+        config ^= 1;
+        AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_WIRED_HEADPHONE, config, "card=0;device=0", "headset");
+    }
+
+    /**
+     * Baseline: the plain static call
+     */
+    @Benchmark
+    public void setForceUseDirect() {
+        config ^= 1;
+        android.media.AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, config);
+    }
+
+    /**
+     * Baseline: looking up the method on every call
+     *
+     * @throws Exception the reflection failed
+     */
+    @Benchmark
+    public void setForceUseUncachedReflection() throws Exception {
+        config ^= 1;
+        Method method = Class.forName("android.media.AudioSystem").getMethod("setForceUse", Integer.TYPE, Integer.TYPE);
+        method.invoke(null, AudioSystem.FOR_MEDIA, config);
+    }
+}
@@ -0,0 +1,116 @@
+package jp.kshoji.audio.benchmark;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link Context} for the benchmarks, does not dispatch any broadcasts except the sticky ones, and has no files directory unless set
+ *
+ * @author K.Shoji
+ */
+final class BenchmarkContext extends Context {
+    /**
+     * Runs the routing tasks on the calling thread
+     */
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Looper looper;
+    private final AudioManager audioManager = new AudioManager();
+    private final List<Intent> stickyIntents = new ArrayList<>();
+    private File filesDir;
+
+    /**
+     * Constructor, the posted callbacks are never run
+     */
+    BenchmarkContext() {
+        this(new Looper());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param looper the main looper, e.g. the manual looper to run the posted callbacks
+     */
+    BenchmarkContext(Looper looper) {
+        this.looper = looper;
+    }
+
+    /**
+     * Adds the sticky broadcast, returned by {@link #registerReceiver(BroadcastReceiver, IntentFilter)}
+     *
+     * @param intent the broadcast, replaces the previous one of the same action
+     */
+    void addStickyIntent(Intent intent) {
+        for (int i = 0; i < stickyIntents.size(); i++) {
+            if (stickyIntents.get(i).getAction().equals(intent.getAction())) {
+                stickyIntents.set(i, intent);
+                return;
+            }
+        }
+        stickyIntents.add(intent);
+    }
+
+    /**
+     * Sets the files directory, to persist the snapshot
+     *
+     * @param filesDir the directory, null to not persist
+     */
+    void setFilesDir(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public Looper getMainLooper() {
+        return looper;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return Context.AUDIO_SERVICE.equals(name) ? audioManager : null;
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        for (Intent intent : stickyIntents) {
+            for (int i = 0; i < filter.countActions(); i++) {
+                if (filter.getAction(i).equals(intent.getAction())) {
+                    return intent;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public File getNoBackupFilesDir() {
+        return filesDir;
+    }
+}
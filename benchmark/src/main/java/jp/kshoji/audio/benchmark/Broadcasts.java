@@ -0,0 +1,74 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+
+/**
+ * Creates the connection broadcasts sent by the system
+ *
+ * @author K.Shoji
+ */
+final class Broadcasts {
+
+    private Broadcasts() {
+    }
+
+    static Intent headsetPlug(int index, boolean connected) {
+        return new Intent(Intent.ACTION_HEADSET_PLUG)
+                .putExtra("state", connected ? 1 : 0)
+                .putExtra("address", "card=" + index + ";device=0")
+                .putExtra("portName", "headset" + index)
+                .putExtra("microphone", index % 2);
+    }
+
+    static Intent usbAudioPlug(int index, boolean connected) {
+        return new Intent(AudioRouter.INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG)
+                .putExtra("state", connected ? 1 : 0)
+                .putExtra("address", "card=" + (index + 1) + ";device=0")
+                .putExtra("name", "usb_audio");
+    }
+
+    static Intent bluetoothA2dp(int index, boolean connected) {
+        return new Intent(AudioRouter.BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED)
+                .putExtra("android.bluetooth.profile.extra.STATE", connected ? 2 : 0)
+                .putExtra("android.bluetooth.device.extra.DEVICE", bluetoothDevice(index));
+    }
+
+    /**
+     * Creates the Bluetooth device of {@link #bluetoothA2dp(int, boolean)}, the headphones on the even indices and the loudspeakers on the odd indices
+     *
+     * @param index the index
+     * @return the device
+     */
+    static BluetoothDevice bluetoothDevice(int index) {
+        int deviceClass = index % 2 == 0 ? BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES : BluetoothClass.Device.AUDIO_VIDEO_LOUDSPEAKER;
+        return new BluetoothDevice(String.format("00:11:22:33:44:%02X", index), "A2DP " + index, new BluetoothClass(deviceClass));
+    }
+
+    /**
+     * Creates the connect broadcasts of the devices, the device kinds are used in rotation
+     *
+     * @param count number of the devices
+     * @return the broadcasts
+     */
+    static Intent[] connectDevices(int count) {
+        Intent[] intents = new Intent[count];
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    intents[i] = headsetPlug(i, true);
+                    break;
+                case 1:
+                    intents[i] = bluetoothA2dp(i, true);
+                    break;
+                default:
+                    intents[i] = usbAudioPlug(i, true);
+                    break;
+            }
+        }
+        return intents;
+    }
+}
@@ -0,0 +1,304 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.receiver.AudioRouterState;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.ConnectedDevice;
+import jp.kshoji.audio.util.AudioSystem;
+
+/**
+ * Drives {@link AudioRouter} from the concurrent threads, on the dedicated routing thread, against {@link AudioPolicySimulator}.<br />
+ * Each broadcast thread toggles its own device, the route mode threads change the route mode, and the reader threads read {@link AudioRouter#getState()} all the time.
+ * The readers check the published states are consistent, and the final state must have all the last connection states of the devices, no updates are lost.
+ * The connected Bluetooth A2DP devices are reported by the stand-in profile proxy, to be synchronized when A2DP is subscribed again.
+ * The bounded runs are asserted by ConcurrentStressTest.
+ * <pre>
+ * ./gradlew :benchmark:concurrentStress -Pevents=100000 -Pseed=1
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class ConcurrentStressDriver {
+    private static final int HEADSETS = 4;
+    private static final int USB_AUDIOS = 2;
+    private static final int BLUETOOTH_DEVICES = 4;
+    private static final int DEVICES = HEADSETS + USB_AUDIOS + BLUETOOTH_DEVICES;
+    private static final int ROUTE_MODE_THREADS = 2;
+    private static final int READER_THREADS = 2;
+
+    private final BenchmarkContext context = new BenchmarkContext();
+    private final AudioPolicySimulator simulator = new AudioPolicySimulator();
+    private final BluetoothAdapter bluetoothAdapter = new BluetoothAdapter();
+    private final AudioRouter audioRouter;
+
+    // [device][0: disconnected, 1: connected], the device index is the broadcast thread index
+    private final Intent[][] intents = new Intent[DEVICES][2];
+    private final String[] addresses = new String[DEVICES];
+    // null for the wired devices and USB Audio
+    private final BluetoothDevice[] bluetoothDevices = new BluetoothDevice[DEVICES];
+    private final boolean[] connected = new boolean[DEVICES];
+
+    private final AtomicBoolean writing = new AtomicBoolean(true);
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicReference<String> violation = new AtomicReference<>();
+
+    ConcurrentStressDriver() {
+        for (int i = 0; i < 2; i++) {
+            boolean connected = i == 1;
+            for (int index = 0; index < HEADSETS; index++) {
+                intents[index][i] = Broadcasts.headsetPlug(index, connected);
+            }
+            for (int index = 0; index < USB_AUDIOS; index++) {
+                intents[HEADSETS + index][i] = Broadcasts.usbAudioPlug(index, connected);
+            }
+            for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+                intents[HEADSETS + USB_AUDIOS + index][i] = Broadcasts.bluetoothA2dp(index, connected);
+            }
+        }
+
+        // the same addresses as Broadcasts
+        for (int device = 0; device < HEADSETS + USB_AUDIOS; device++) {
+            addresses[device] = intents[device][1].getStringExtra("address");
+        }
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            addresses[HEADSETS + USB_AUDIOS + index] = String.format("00:11:22:33:44:%02X", index);
+            bluetoothDevices[HEADSETS + USB_AUDIOS + index] = Broadcasts.bluetoothDevice(index);
+        }
+
+        BluetoothAdapter.setDefaultAdapter(bluetoothAdapter);
+        audioRouter = new AudioRouter.Builder(context)
+                .setAudioBackend(simulator)
+                .build();
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        final int events = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        ConcurrentStressDriver driver = new ConcurrentStressDriver();
+        long start = System.nanoTime();
+        String violation = driver.stress(events, seed);
+        long elapsedNanos = System.nanoTime() - start;
+        driver.terminate();
+        if (violation != null) {
+            throw new IllegalStateException("seed " + seed + ": " + violation);
+        }
+
+        long totalEvents = (long) events * (DEVICES + ROUTE_MODE_THREADS);
+        System.out.println("seed: " + seed + ", events: " + totalEvents + ", state version: " + driver.audioRouter.getState().getVersion());
+        System.out.println("backend calls: " + driver.simulator.getCallCount() + ", skipped: " + driver.audioRouter.getSkippedCallCount());
+        System.out.printf("%.0f ms, %.0f events/s, %.0f reads/s%n", elapsedNanos / 1e6, totalEvents * 1e9 / elapsedNanos,
+                driver.reads.get() * 1e9 / elapsedNanos);
+    }
+
+    /**
+     * Runs the threads, and checks the published states and the final state
+     *
+     * @param events the number of the events per writer thread
+     * @param seed the seed of the writer threads
+     * @return the first violation, null if no violations
+     */
+    String stress(int events, long seed) throws InterruptedException, ExecutionException {
+        audioRouter.getReadyFuture().get();
+        run(events, seed);
+
+        String violation = this.violation.get();
+        if (violation == null) {
+            violation = checkFinalState();
+        }
+        return violation;
+    }
+
+    /**
+     * Terminates the router
+     */
+    void terminate() {
+        audioRouter.terminate();
+        BluetoothAdapter.setDefaultAdapter(null);
+    }
+
+    /**
+     * Runs the threads, and waits until all the events have been routed
+     *
+     * @param events the number of the events per writer thread
+     * @param seed the seed of the writer threads
+     */
+    private void run(final int events, long seed) throws InterruptedException, ExecutionException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] writers = new Thread[DEVICES + ROUTE_MODE_THREADS];
+        for (int i = 0; i < writers.length; i++) {
+            final int index = i;
+            final Random random = new Random(seed + i);
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(startLatch);
+                    if (index < DEVICES) {
+                        for (int event = 0; event < events; event++) {
+                            boolean connected = random.nextBoolean();
+                            if (bluetoothDevices[index] != null) {
+                                bluetoothAdapter.setA2dpConnectionState(bluetoothDevices[index], connected);
+                            }
+                            audioRouter.onReceive(context, intents[index][connected ? 1 : 0]);
+                            // read by the main thread after join
+                            ConcurrentStressDriver.this.connected[index] = connected;
+                        }
+                    } else {
+                        AudioRouteMode[] routeModes = AudioRouteMode.values();
+                        for (int event = 0; event < events; event++) {
+                            // waits for the request, to interleave the route modes with the broadcasts
+                            Future<Void> future = audioRouter.setRouteModeAsync(routeModes[random.nextInt(routeModes.length)]);
+                            try {
+                                future.get();
+                            } catch (CancellationException ignored) {
+                                // superseded by the other thread
+                            } catch (InterruptedException | ExecutionException e) {
+                                violation.compareAndSet(null, "route mode failed: " + e);
+                                return;
+                            }
+                        }
+                    }
+                }
+            }, "writer-" + i);
+            writers[i].start();
+        }
+
+        Thread[] readers = new Thread[READER_THREADS];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(startLatch);
+                    long count = 0;
+                    long version = -1;
+                    while (writing.get()) {
+                        AudioRouterState state = audioRouter.getState();
+                        String violation = checkState(state, version);
+                        if (violation != null) {
+                            ConcurrentStressDriver.this.violation.compareAndSet(null, violation);
+                            break;
+                        }
+                        version = state.getVersion();
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                }
+            }, "reader-" + i);
+            readers[i].start();
+        }
+
+        startLatch.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // the routing thread is serial, all the events have been routed when this completes
+        audioRouter.setRouteModeAsync(AudioRouteMode.AUTO).get();
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+    }
+
+    /**
+     * Checks the published state is consistent
+     *
+     * @param state the state
+     * @param previousVersion the version read last time
+     * @return the violation, null if no violations
+     */
+    private static String checkState(AudioRouterState state, long previousVersion) {
+        if (state.getVersion() < previousVersion) {
+            return "version went back from " + previousVersion + " to " + state.getVersion();
+        }
+        if (state.getEffectiveRouteMode() == AudioRouteMode.AUTO) {
+            return "effective route mode is AUTO";
+        }
+        if (state.getConnectedDevices().size() > DEVICES) {
+            return "too many devices: " + state.getConnectedDevices();
+        }
+        for (ConnectedDevice device : state.getConnectedDevices()) {
+            if (device.getDevices() == 0) {
+                return "disconnected device is published: " + device;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the final state has the last connection states, and the route has been applied
+     *
+     * @return the violation, null if no violations
+     */
+    private String checkFinalState() {
+        AudioRouterState state = audioRouter.getState();
+        Set<String> expected = new HashSet<>();
+        for (int device = 0; device < DEVICES; device++) {
+            if (connected[device]) {
+                expected.add(addresses[device]);
+            }
+        }
+        Set<String> actual = new HashSet<>();
+        for (ConnectedDevice device : state.getConnectedDevices()) {
+            actual.add(device.getAddress());
+        }
+        if (!expected.equals(actual)) {
+            return "connected devices are " + actual + ", expected " + expected;
+        }
+
+        if (state.getRouteMode() != AudioRouteMode.AUTO) {
+            return "route mode is " + state.getRouteMode();
+        }
+        int forceUse = state.getForceUse(AudioSystem.FOR_MEDIA);
+        if (forceUse != simulator.getForceUseConfig(AudioSystem.FOR_MEDIA)) {
+            return "FOR_MEDIA is published as " + forceUse + ", but applied " + simulator.getForceUseConfig(AudioSystem.FOR_MEDIA);
+        }
+
+        // the default policy prefers USB Audio, Bluetooth A2DP, wired headset, then speaker
+        AudioRouteMode expectedMode = AudioRouteMode.SPEAKER;
+        if (any(HEADSETS + USB_AUDIOS, DEVICES)) {
+            expectedMode = AudioRouteMode.BLUETOOTH_A2DP;
+        } else if (any(0, HEADSETS)) {
+            expectedMode = AudioRouteMode.WIRED_HEADPHONE;
+        }
+        if (any(HEADSETS, HEADSETS + USB_AUDIOS)) {
+            expectedMode = AudioRouteMode.USB_AUDIO;
+        }
+        if (state.getEffectiveRouteMode() != expectedMode) {
+            return "effective route mode is " + state.getEffectiveRouteMode() + ", expected " + expectedMode;
+        }
+        return null;
+    }
+
+    private boolean any(int from, int to) {
+        for (int device = from; device < to; device++) {
+            if (connected[device]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
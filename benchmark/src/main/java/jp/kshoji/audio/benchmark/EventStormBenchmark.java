@@ -0,0 +1,74 @@
+package jp.kshoji.audio.benchmark;
+
+import android.content.Intent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+
+/**
+ * Throughput of the connection broadcasts: the plug / unplug storm of the wired, USB and A2DP devices
+ *
+ * @author K.Shoji
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms256m", "-Xmx256m"})
+@State(Scope.Thread)
+public class EventStormBenchmark {
+    private static final int EVENTS = 60;
+
+    @Param({"WIRED_HEADPHONE", "BLUETOOTH_A2DP"})
+    public AudioRouteMode routeMode;
+
+    private BenchmarkContext context;
+    private AudioRouter audioRouter;
+    private Intent[] storm;
+
+    @Setup
+    public void setup() {
+        context = new BenchmarkContext();
+        audioRouter = new AudioRouter(context, routeMode, BenchmarkContext.DIRECT_EXECUTOR);
+
+        // each device connects and disconnects, 10 times
+        storm = new Intent[EVENTS];
+        for (int i = 0; i < EVENTS; i += 6) {
+            storm[i] = Broadcasts.headsetPlug(0, true);
+            storm[i + 1] = Broadcasts.bluetoothA2dp(0, true);
+            storm[i + 2] = Broadcasts.usbAudioPlug(0, true);
+            storm[i + 3] = Broadcasts.headsetPlug(0, false);
+            storm[i + 4] = Broadcasts.bluetoothA2dp(0, false);
+            storm[i + 5] = Broadcasts.usbAudioPlug(0, false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        audioRouter.terminate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void connectionStorm() {
+        for (Intent intent : storm) {
+            audioRouter.onReceive(context, intent);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Intent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.route.DeviceRegistry;
+import jp.kshoji.audio.route.EventJournal;
+
+/**
+ * Replays the journal dumped with {@link EventJournal#dump(java.io.DataOutput)} through {@link AudioRouter}, against the JVM stand-in of the hidden AudioSystem.<br />
+ * The hidden API calls issued by the replay are compared with the recorded ones, and the replay throughput is reported.<br />
+ * The Bluetooth A2DP devices synchronized right after a route mode change are reported by the stand-in profile proxy, so they are routed in a single pass as recorded.
+ * The devices synchronized later, e.g. after a broadcast received while waiting for the proxy, are replayed as the broadcasts.
+ * <pre>
+ * ./gradlew :benchmark:replayJournal -Pjournal=path/to/journal.bin [-Piterations=100]
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class JournalReplay {
+
+    /**
+     * A record of the journal
+     */
+    private static final class Record {
+        final int kind;
+        final int code;
+        final int arg0;
+        final int arg1;
+        final int arg2;
+        final String text0;
+        final String text1;
+
+        Record(int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+            this.kind = kind;
+            this.code = code;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.text0 = text0;
+            this.text1 = text1;
+        }
+
+        /**
+         * Compares the call, without the result
+         *
+         * @param other the other backend call
+         * @return true if the same call
+         */
+        boolean isSameCall(Record other) {
+            return code == other.code && arg0 == other.arg0 && arg1 == other.arg1 && equals(text0, other.text0) && equals(text1, other.text1);
+        }
+
+        @Override
+        public String toString() {
+            return "operation=" + code + ", arg0=" + arg0 + ", arg1=" + arg1 + ", address=" + text0 + ", name=" + text1;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private JournalReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplay <journal dump> [iterations]");
+            System.exit(1);
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        final List<Record> records = new ArrayList<>();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+        try {
+            EventJournal.read(input, new EventJournal.Visitor() {
+                @Override
+                public void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+                    records.add(new Record(kind, code, arg0, arg1, arg2, text0, text1));
+                }
+            });
+        } finally {
+            input.close();
+        }
+
+        List<Record> recordedCalls = filter(records, EventJournal.KIND_BACKEND_CALL);
+        List<Record> replayedCalls = null;
+        int events = 0;
+        long elapsedNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            EventJournal journal = new EventJournal(Math.max(records.size() * 2, 1024));
+            long start = System.nanoTime();
+            events = replay(records, journal);
+            elapsedNanos += System.nanoTime() - start;
+
+            final List<Record> calls = new ArrayList<>();
+            journal.visit(new EventJournal.Visitor() {
+                @Override
+                public void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+                    if (kind == EventJournal.KIND_BACKEND_CALL) {
+                        calls.add(new Record(kind, code, arg0, arg1, arg2, text0, text1));
+                    }
+                }
+            });
+            replayedCalls = calls;
+        }
+
+        System.out.println("records: " + records.size() + ", replayed events: " + events);
+        System.out.println("backend calls: recorded " + recordedCalls.size() + ", replayed " + replayedCalls.size());
+        int size = Math.min(recordedCalls.size(), replayedCalls.size());
+        int mismatch = -1;
+        for (int i = 0; i < size; i++) {
+            if (!recordedCalls.get(i).isSameCall(replayedCalls.get(i))) {
+                mismatch = i;
+                break;
+            }
+        }
+        if (mismatch >= 0) {
+            System.out.println("first mismatch at call #" + mismatch);
+            System.out.println("  recorded: " + recordedCalls.get(mismatch));
+            System.out.println("  replayed: " + replayedCalls.get(mismatch));
+        } else if (recordedCalls.size() != replayedCalls.size()) {
+            System.out.println("calls differ after call #" + size);
+        } else {
+            System.out.println("backend calls match");
+        }
+        System.out.printf("%d iterations, %.1f us/iteration, %.0f events/s%n", iterations,
+                elapsedNanos / 1000.0 / iterations, events * (double) iterations * 1e9 / elapsedNanos);
+    }
+
+    /**
+     * Replays the records
+     *
+     * @param records the records
+     * @param journal the journal to record the replay
+     * @return the number of the events replayed
+     */
+    private static int replay(List<Record> records, EventJournal journal) {
+        Map<String, Record> bluetoothDevices = new HashMap<>();
+        for (Record record : records) {
+            if (record.kind == EventJournal.KIND_DEVICE) {
+                bluetoothDevices.put(record.text0, record);
+            }
+        }
+
+        // the initial route mode and the sticky broadcasts are used on the initialization
+        BenchmarkContext context = new BenchmarkContext();
+        AudioRouter.AudioRouteMode initialRouteMode = AudioRouter.AudioRouteMode.NO_ROUTING;
+        int index = 0;
+        if (index < records.size() && records.get(index).kind == EventJournal.KIND_ROUTE_MODE) {
+            initialRouteMode = AudioRouter.AudioRouteMode.values()[records.get(index).code];
+            index++;
+        }
+        BluetoothAdapter bluetoothAdapter = new BluetoothAdapter();
+        BluetoothAdapter.setDefaultAdapter(bluetoothAdapter);
+        List<BluetoothDevice> syncedDevices = new ArrayList<>();
+        // followed by the Bluetooth A2DP devices obtained from the profile proxy, and their resolved metadata
+        for (; index < records.size(); index++) {
+            Record record = records.get(index);
+            if (isStickyBroadcast(record)) {
+                context.addStickyIntent(toIntent(record, bluetoothDevices));
+            } else if (isBluetoothSyncBroadcast(record)) {
+                if (record.arg0 == BluetoothProfile.STATE_CONNECTED) {
+                    syncedDevices.add(toBluetoothDevice(record, bluetoothDevices));
+                }
+            } else if (record.kind != EventJournal.KIND_DEVICE) {
+                break;
+            }
+        }
+        for (BluetoothDevice bluetoothDevice : syncedDevices) {
+            bluetoothAdapter.setA2dpConnectionState(bluetoothDevice, true);
+        }
+        AudioRouter audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(initialRouteMode)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setEventJournal(journal)
+                .build();
+        for (BluetoothDevice bluetoothDevice : syncedDevices) {
+            bluetoothAdapter.setA2dpConnectionState(bluetoothDevice, false);
+        }
+        syncedDevices.clear();
+
+        int events = 0;
+        for (; index < records.size(); index++) {
+            Record record = records.get(index);
+            switch (record.kind) {
+                case EventJournal.KIND_ROUTE_MODE:
+                    // the sticky broadcasts peeked on the re-registration follow the route mode
+                    while (index + 1 < records.size() && isStickyBroadcast(records.get(index + 1))) {
+                        index++;
+                        context.addStickyIntent(toIntent(records.get(index), bluetoothDevices));
+                    }
+                    // followed by the Bluetooth A2DP devices obtained from the profile proxy, and their resolved metadata
+                    while (index + 1 < records.size() && (isBluetoothSyncBroadcast(records.get(index + 1)) || records.get(index + 1).kind == EventJournal.KIND_DEVICE)) {
+                        index++;
+                        Record syncRecord = records.get(index);
+                        if (syncRecord.kind == EventJournal.KIND_BROADCAST && syncRecord.arg0 == BluetoothProfile.STATE_CONNECTED) {
+                            syncedDevices.add(toBluetoothDevice(syncRecord, bluetoothDevices));
+                        }
+                    }
+                    for (BluetoothDevice bluetoothDevice : syncedDevices) {
+                        bluetoothAdapter.setA2dpConnectionState(bluetoothDevice, true);
+                    }
+                    audioRouter.setRouteMode(AudioRouter.AudioRouteMode.values()[record.code]);
+                    for (BluetoothDevice bluetoothDevice : syncedDevices) {
+                        bluetoothAdapter.setA2dpConnectionState(bluetoothDevice, false);
+                    }
+                    syncedDevices.clear();
+                    events++;
+                    break;
+                case EventJournal.KIND_BROADCAST:
+                    Intent intent = toIntent(record, bluetoothDevices);
+                    if (record.code != DeviceRegistry.TYPE_BLUETOOTH_A2DP) {
+                        // the latest broadcast will be peeked on the re-registration
+                        context.addStickyIntent(intent);
+                    }
+                    audioRouter.onReceive(context, intent);
+                    events++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        audioRouter.terminate();
+        BluetoothAdapter.setDefaultAdapter(null);
+        return events;
+    }
+
+    /**
+     * Checks if the record is the sticky broadcast of the wired devices or USB Audio, Bluetooth A2DP broadcasts are not sticky
+     *
+     * @param record the record
+     * @return true if the sticky broadcast
+     */
+    private static boolean isStickyBroadcast(Record record) {
+        return record.kind == EventJournal.KIND_BROADCAST && record.arg2 != 0 && record.code != DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+    }
+
+    /**
+     * Checks if the record is the Bluetooth A2DP device obtained from the profile proxy, when A2DP has been subscribed again
+     *
+     * @param record the record
+     * @return true if synchronized from the profile proxy
+     */
+    private static boolean isBluetoothSyncBroadcast(Record record) {
+        return record.kind == EventJournal.KIND_BROADCAST && record.arg2 != 0 && record.code == DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+    }
+
+    /**
+     * Creates the broadcast from the record
+     *
+     * @param record the broadcast record
+     * @param bluetoothDevices the resolved Bluetooth devices, keyed on the address
+     * @return the broadcast
+     */
+    private static Intent toIntent(Record record, Map<String, Record> bluetoothDevices) {
+        switch (record.code) {
+            case DeviceRegistry.TYPE_USB_AUDIO:
+                return new Intent(AudioRouter.INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG)
+                        .putExtra("state", record.arg0)
+                        .putExtra("address", record.text0)
+                        .putExtra("name", record.text1);
+            case DeviceRegistry.TYPE_WIRED_HEADSET:
+                return new Intent(Intent.ACTION_HEADSET_PLUG)
+                        .putExtra("state", record.arg0)
+                        .putExtra("address", record.text0)
+                        .putExtra("portName", record.text1)
+                        .putExtra("microphone", record.arg1);
+            default:
+                return new Intent(AudioRouter.BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED)
+                        .putExtra("android.bluetooth.profile.extra.STATE", record.arg0)
+                        .putExtra("android.bluetooth.device.extra.DEVICE", toBluetoothDevice(record, bluetoothDevices));
+        }
+    }
+
+    /**
+     * Creates the Bluetooth device of the A2DP broadcast record
+     *
+     * @param record the broadcast record
+     * @param bluetoothDevices the resolved Bluetooth devices, keyed on the address
+     * @return the device
+     */
+    private static BluetoothDevice toBluetoothDevice(Record record, Map<String, Record> bluetoothDevices) {
+        Record device = bluetoothDevices.get(record.text0);
+        return new BluetoothDevice(record.text0, device == null ? null : device.text1,
+                device == null ? null : new BluetoothClass(device.arg1));
+    }
+
+    private static List<Record> filter(List<Record> records, int kind) {
+        List<Record> result = new ArrayList<>();
+        for (Record record : records) {
+            if (record.kind == kind) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,361 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import java.util.Random;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.DeviceRegistry;
+import jp.kshoji.audio.route.RoutePlanner;
+import jp.kshoji.audio.route.RoutePolicy;
+import jp.kshoji.audio.route.RouteState;
+import jp.kshoji.audio.util.AudioSystem;
+
+/**
+ * Drives {@link AudioRouter} with the randomized connection broadcasts and the route mode changes, against {@link AudioPolicySimulator}.<br />
+ * The simulated audio policy is checked after each step, and the throughput is reported.
+ * The connected Bluetooth A2DP devices are reported by the stand-in profile proxy, to be synchronized when A2DP is subscribed again.
+ * The same seed reproduces the same sequence. The bounded runs are asserted by RouteStressTest.
+ * <pre>
+ * ./gradlew :benchmark:stress -Pevents=1000000 -Pseed=1
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class RouteStressDriver {
+    private static final int HEADSETS = 4;
+    private static final int USB_AUDIOS = 2;
+    private static final int BLUETOOTH_DEVICES = 4;
+
+    private final Random random;
+    private final BenchmarkContext context = new BenchmarkContext();
+    private final AudioPolicySimulator simulator = new AudioPolicySimulator();
+    private final BluetoothAdapter bluetoothAdapter = new BluetoothAdapter();
+    private final AudioRouter audioRouter;
+
+    // the broadcasts are created in advance, [index][0: disconnected, 1: connected]
+    private final Intent[][] headsetIntents = new Intent[HEADSETS][2];
+    private final Intent[][] usbAudioIntents = new Intent[USB_AUDIOS][2];
+    private final Intent[][] bluetoothIntents = new Intent[BLUETOOTH_DEVICES][2];
+    private final String[] headsetAddresses = new String[HEADSETS];
+    private final String[] usbAudioAddresses = new String[USB_AUDIOS];
+    private final String[] bluetoothAddresses = new String[BLUETOOTH_DEVICES];
+    private final BluetoothDevice[] bluetoothDevices = new BluetoothDevice[BLUETOOTH_DEVICES];
+
+    // the expected connection states
+    private final boolean[] headsetConnected = new boolean[HEADSETS];
+    private final boolean[] usbAudioConnected = new boolean[USB_AUDIOS];
+    private final boolean[] bluetoothConnected = new boolean[BLUETOOTH_DEVICES];
+    private AudioRouteMode routeMode = AudioRouteMode.NO_ROUTING;
+
+    RouteStressDriver(long seed) {
+        random = new Random(seed);
+        for (int i = 0; i < 2; i++) {
+            boolean connected = i == 1;
+            for (int index = 0; index < HEADSETS; index++) {
+                headsetIntents[index][i] = Broadcasts.headsetPlug(index, connected);
+            }
+            for (int index = 0; index < USB_AUDIOS; index++) {
+                usbAudioIntents[index][i] = Broadcasts.usbAudioPlug(index, connected);
+            }
+            for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+                bluetoothIntents[index][i] = Broadcasts.bluetoothA2dp(index, connected);
+            }
+        }
+
+        // the same addresses as Broadcasts
+        for (int index = 0; index < HEADSETS; index++) {
+            headsetAddresses[index] = headsetIntents[index][1].getStringExtra("address");
+        }
+        for (int index = 0; index < USB_AUDIOS; index++) {
+            usbAudioAddresses[index] = usbAudioIntents[index][1].getStringExtra("address");
+        }
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            bluetoothAddresses[index] = String.format("00:11:22:33:44:%02X", index);
+            bluetoothDevices[index] = Broadcasts.bluetoothDevice(index);
+        }
+
+        BluetoothAdapter.setDefaultAdapter(bluetoothAdapter);
+        audioRouter = new AudioRouter.Builder(context)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+    }
+
+    public static void main(String[] args) {
+        long events = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        RouteStressDriver driver = new RouteStressDriver(seed);
+        long start = System.nanoTime();
+        String violation = driver.stress(events);
+        long elapsedNanos = System.nanoTime() - start;
+        driver.terminate();
+        if (violation != null) {
+            throw new IllegalStateException("seed " + seed + ", " + violation);
+        }
+
+        System.out.println("seed: " + seed + ", events: " + events);
+        System.out.println("backend calls: " + driver.simulator.getCallCount() + ", skipped: " + driver.audioRouter.getSkippedCallCount() +
+                ", redundant: " + driver.simulator.getRedundantCallCount());
+        System.out.printf("%.0f ms, %.0f events/s%n", elapsedNanos / 1e6, events * 1e9 / elapsedNanos);
+    }
+
+    /**
+     * Runs the steps, the simulated audio policy is checked after each step
+     *
+     * @param events the number of the steps
+     * @return the first violation, null if no violations
+     */
+    String stress(long events) {
+        AudioRouteMode[] routeModes = AudioRouteMode.values();
+        for (long step = 0; step < events; step++) {
+            int choice = random.nextInt(16);
+            boolean connected = random.nextBoolean();
+            if (choice < 5) {
+                int index = random.nextInt(HEADSETS);
+                headsetConnected[index] = connected;
+                audioRouter.onReceive(context, headsetIntents[index][connected ? 1 : 0]);
+            } else if (choice < 8) {
+                int index = random.nextInt(USB_AUDIOS);
+                usbAudioConnected[index] = connected;
+                audioRouter.onReceive(context, usbAudioIntents[index][connected ? 1 : 0]);
+            } else if (choice < 13) {
+                int index = random.nextInt(BLUETOOTH_DEVICES);
+                bluetoothConnected[index] = connected;
+                bluetoothAdapter.setA2dpConnectionState(bluetoothDevices[index], connected);
+                audioRouter.onReceive(context, bluetoothIntents[index][connected ? 1 : 0]);
+            } else {
+                routeMode = routeModes[random.nextInt(routeModes.length)];
+                audioRouter.setRouteMode(routeMode);
+            }
+
+            String violation = checkInvariants();
+            if (violation != null) {
+                return "step " + step + ", " + routeMode + ": " + violation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Changes the route mode, as the route mode step
+     *
+     * @param routeMode the route mode
+     */
+    void setRouteMode(AudioRouteMode routeMode) {
+        this.routeMode = routeMode;
+        audioRouter.setRouteMode(routeMode);
+    }
+
+    /**
+     * Terminates the router
+     */
+    void terminate() {
+        audioRouter.terminate();
+        BluetoothAdapter.setDefaultAdapter(null);
+    }
+
+    /**
+     * Checks the simulated audio policy with the route planned by {@link RoutePlanner}, from the expected connection states
+     *
+     * @return the violation, null if no violations
+     */
+    String checkPlannedRoute() {
+        int type;
+        switch (getExpectedMode()) {
+            case NO_ROUTING:
+                return null;
+            case WIRED_HEADPHONE:
+                type = DeviceRegistry.TYPE_WIRED_HEADSET;
+                break;
+            case SPEAKER:
+                type = RoutePolicy.TYPE_SPEAKER;
+                break;
+            case USB_AUDIO:
+                type = DeviceRegistry.TYPE_USB_AUDIO;
+                break;
+            default:
+                type = DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+                break;
+        }
+
+        DeviceRegistry deviceRegistry = new DeviceRegistry();
+        for (int index = 0; index < HEADSETS; index++) {
+            if (headsetConnected[index]) {
+                int device = index % 2 == 0 ? AudioSystem.DEVICE_OUT_WIRED_HEADPHONE : AudioSystem.DEVICE_OUT_WIRED_HEADSET;
+                deviceRegistry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, headsetAddresses[index], "", null, device);
+            }
+        }
+        for (int index = 0; index < USB_AUDIOS; index++) {
+            if (usbAudioConnected[index]) {
+                deviceRegistry.connect(DeviceRegistry.TYPE_USB_AUDIO, usbAudioAddresses[index], "", null, AudioSystem.DEVICE_OUT_ANLG_DOCK_HEADSET);
+            }
+        }
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            if (bluetoothConnected[index]) {
+                int variant = index % 2 == 0 ? AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES : AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER;
+                deviceRegistry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, bluetoothAddresses[index], "", null, AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP | variant);
+            }
+        }
+        RouteState plannedRoute = new RouteState();
+        RoutePlanner.plan(type, deviceRegistry, plannedRoute);
+
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            int config = plannedRoute.getForceUse(usage);
+            if (config != RouteState.FORCE_UNSPECIFIED && simulator.getForceUseConfig(usage) != config) {
+                return "force use " + usage + " is " + simulator.getForceUseConfig(usage) + ", planned " + config;
+            }
+        }
+        Boolean a2dpSuspended = plannedRoute.getA2dpSuspended();
+        if (a2dpSuspended != null && simulator.isA2dpSuspended() != a2dpSuspended) {
+            return "A2DP suspended is " + simulator.isA2dpSuspended() + ", planned " + a2dpSuspended;
+        }
+        for (int i = 0; i < plannedRoute.getDeviceCount(); i++) {
+            RouteState.Device device = plannedRoute.getDevice(i);
+            if ((device.getType() & DeviceRegistry.TYPE_BLUETOOTH_A2DP) != 0 && !isBluetoothA2dpTracked()) {
+                continue;
+            }
+            String violation = checkDevice(device.getType(), device.getAddress(), plannedRoute.getDeviceConnectionState(i) == AudioSystem.DEVICE_STATE_AVAILABLE);
+            if (violation != null) {
+                return violation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the simulated audio policy with the expected route
+     *
+     * @return the violation, null if no violations
+     */
+    private String checkInvariants() {
+        AudioRouteMode expectedMode = getExpectedMode();
+        if (expectedMode == AudioRouteMode.NO_ROUTING) {
+            return null;
+        }
+
+        int expectedForceUse;
+        switch (expectedMode) {
+            case WIRED_HEADPHONE:
+                expectedForceUse = AudioSystem.FORCE_HEADPHONES;
+                break;
+            case SPEAKER:
+                expectedForceUse = AudioSystem.FORCE_SPEAKER;
+                break;
+            case USB_AUDIO:
+                expectedForceUse = AudioSystem.FORCE_ANALOG_DOCK;
+                break;
+            default:
+                expectedForceUse = AudioSystem.FORCE_BT_A2DP;
+                break;
+        }
+        if (simulator.getForceUseConfig(AudioSystem.FOR_MEDIA) != expectedForceUse) {
+            return "FOR_MEDIA is " + simulator.getForceUseConfig(AudioSystem.FOR_MEDIA) + ", expected " + expectedForceUse;
+        }
+        if (simulator.isA2dpSuspended() != (expectedMode != AudioRouteMode.BLUETOOTH_A2DP)) {
+            return "A2DP suspended is " + simulator.isA2dpSuspended();
+        }
+
+        String violation = checkDevice(AudioSystem.DEVICE_OUT_SPEAKER, "", expectedMode == AudioRouteMode.SPEAKER);
+        if (violation != null) {
+            return violation;
+        }
+
+        boolean anyHeadset = false;
+        for (int index = 0; index < HEADSETS; index++) {
+            if (headsetConnected[index]) {
+                anyHeadset = true;
+                // Broadcasts.headsetPlug has the microphone on the odd indices
+                int device = index % 2 == 0 ? AudioSystem.DEVICE_OUT_WIRED_HEADPHONE : AudioSystem.DEVICE_OUT_WIRED_HEADSET;
+                violation = checkDevice(device, headsetAddresses[index], expectedMode == AudioRouteMode.WIRED_HEADPHONE);
+                if (violation != null) {
+                    return violation;
+                }
+            }
+        }
+        if (!anyHeadset) {
+            violation = checkDevice(AudioSystem.DEVICE_OUT_WIRED_HEADPHONE, "", expectedMode == AudioRouteMode.WIRED_HEADPHONE);
+            if (violation != null) {
+                return violation;
+            }
+        }
+
+        for (int index = 0; index < USB_AUDIOS; index++) {
+            if (usbAudioConnected[index]) {
+                violation = checkDevice(AudioSystem.DEVICE_OUT_ANLG_DOCK_HEADSET, usbAudioAddresses[index], expectedMode == AudioRouteMode.USB_AUDIO);
+                if (violation != null) {
+                    return violation;
+                }
+            }
+        }
+
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            if (bluetoothConnected[index] && isBluetoothA2dpTracked()) {
+                String address = bluetoothAddresses[index];
+                // Broadcasts.bluetoothA2dp has the headphones on the even indices, the loudspeakers on the odd indices
+                int variant = index % 2 == 0 ? AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES : AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER;
+                boolean available = expectedMode == AudioRouteMode.BLUETOOTH_A2DP;
+                violation = checkDevice(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, address, available);
+                if (violation == null) {
+                    violation = checkDevice(variant, address, available);
+                }
+                if (violation != null) {
+                    return violation;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the router tracks the Bluetooth A2DP devices.<br />
+     * The pinned route modes other than {@link AudioRouteMode#BLUETOOTH_A2DP} do not subscribe A2DP, and forget the devices.
+     * A2DP is suspended on these modes, so the device states are left as they were.
+     *
+     * @return true if tracked
+     */
+    private boolean isBluetoothA2dpTracked() {
+        return routeMode == AudioRouteMode.AUTO || routeMode == AudioRouteMode.BLUETOOTH_A2DP;
+    }
+
+    private String checkDevice(int device, String address, boolean available) {
+        int expected = available ? AudioSystem.DEVICE_STATE_AVAILABLE : AudioSystem.DEVICE_STATE_UNAVAILABLE;
+        int state = simulator.getDeviceState(device, address);
+        return state == expected ? null : "device " + device + " (" + address + ") is " + state + ", expected " + expected;
+    }
+
+    /**
+     * Obtains the expected route mode, resolves {@link AudioRouteMode#AUTO} mode with the default policy
+     *
+     * @return the route mode, other than {@link AudioRouteMode#AUTO}
+     */
+    private AudioRouteMode getExpectedMode() {
+        if (routeMode != AudioRouteMode.AUTO) {
+            return routeMode;
+        }
+        if (any(usbAudioConnected)) {
+            return AudioRouteMode.USB_AUDIO;
+        }
+        if (any(bluetoothConnected)) {
+            return AudioRouteMode.BLUETOOTH_A2DP;
+        }
+        if (any(headsetConnected)) {
+            return AudioRouteMode.WIRED_HEADPHONE;
+        }
+        return AudioRouteMode.SPEAKER;
+    }
+
+    private static boolean any(boolean[] values) {
+        for (boolean value : values) {
+            if (value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package jp.kshoji.audio.benchmark;
+
+import android.content.Intent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+
+/**
+ * The routing pass for each {@link AudioRouteMode}, with the connected devices
+ *
+ * @author K.Shoji
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms256m", "-Xmx256m"})
+@State(Scope.Thread)
+public class SetupRouteBenchmark {
+    @Param({"WIRED_HEADPHONE", "SPEAKER", "USB_AUDIO", "BLUETOOTH_A2DP"})
+    public AudioRouteMode routeMode;
+
+    @Param({"0", "1", "16"})
+    public int connectedDevices;
+
+    private BenchmarkContext context;
+    private AudioRouter audioRouter;
+    private AudioRouteMode otherRouteMode;
+
+    @Setup
+    public void setup() {
+        context = new BenchmarkContext();
+        audioRouter = new AudioRouter(context, routeMode, BenchmarkContext.DIRECT_EXECUTOR);
+        for (Intent intent : Broadcasts.connectDevices(connectedDevices)) {
+            audioRouter.onReceive(context, intent);
+        }
+        otherRouteMode = routeMode == AudioRouteMode.SPEAKER ? AudioRouteMode.WIRED_HEADPHONE : AudioRouteMode.SPEAKER;
+    }
+
+    @TearDown
+    public void tearDown() {
+        audioRouter.terminate();
+    }
+
+    /**
+     * The same route mode again, nothing changed
+     */
+    @Benchmark
+    public void sameRouteMode() {
+        audioRouter.setRouteMode(routeMode);
+    }
+
+    /**
+     * Switches to the other route mode and back, two routing passes
+     */
+    @Benchmark
+    public void switchRouteMode() {
+        audioRouter.setRouteMode(otherRouteMode);
+        audioRouter.setRouteMode(routeMode);
+    }
+}
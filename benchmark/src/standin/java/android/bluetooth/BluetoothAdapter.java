@@ -0,0 +1,108 @@
+package android.bluetooth;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * JVM stand-in of the Android class, Bluetooth is not available unless the adapter is set with {@link #setDefaultAdapter(BluetoothAdapter)}.<br />
+ * The drivers update the connected A2DP devices, the profile proxy reports them.
+ */
+public final class BluetoothAdapter {
+    private static volatile BluetoothAdapter defaultAdapter;
+
+    private final LinkedHashMap<String, BluetoothDevice> connectedDevices = new LinkedHashMap<>();
+    private final ArrayList<BluetoothProfile.ServiceListener> pendingListeners = new ArrayList<>();
+    private boolean serviceConnectionDeferred;
+
+    public BluetoothAdapter() {
+    }
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return defaultAdapter;
+    }
+
+    /**
+     * Stand-in only: set the adapter returned by {@link #getDefaultAdapter()}
+     *
+     * @param adapter the adapter, null if Bluetooth is not available
+     */
+    public static void setDefaultAdapter(BluetoothAdapter adapter) {
+        defaultAdapter = adapter;
+    }
+
+    /**
+     * Stand-in only: updates the A2DP device reported by the profile proxy, before the broadcast is sent
+     *
+     * @param device the device
+     * @param connected true if connected
+     */
+    public synchronized void setA2dpConnectionState(BluetoothDevice device, boolean connected) {
+        if (connected) {
+            connectedDevices.put(device.getAddress(), device);
+        } else {
+            connectedDevices.remove(device.getAddress());
+        }
+    }
+
+    /**
+     * Stand-in only: the profile proxy connects on {@link #connectProfileProxies()}, not on {@link #getProfileProxy(Context, BluetoothProfile.ServiceListener, int)}
+     *
+     * @param deferred true to defer
+     */
+    public synchronized void setServiceConnectionDeferred(boolean deferred) {
+        serviceConnectionDeferred = deferred;
+    }
+
+    /**
+     * Stand-in only: connects the deferred profile proxies
+     */
+    public void connectProfileProxies() {
+        ArrayList<BluetoothProfile.ServiceListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(pendingListeners);
+            pendingListeners.clear();
+        }
+        for (BluetoothProfile.ServiceListener listener : listeners) {
+            listener.onServiceConnected(BluetoothProfile.A2DP, createProxy());
+        }
+    }
+
+    public synchronized int getProfileConnectionState(int profile) {
+        return connectedDevices.isEmpty() ? BluetoothProfile.STATE_DISCONNECTED : BluetoothProfile.STATE_CONNECTED;
+    }
+
+    public BluetoothDevice getRemoteDevice(String address) {
+        return new BluetoothDevice(address, null, null);
+    }
+
+    public boolean getProfileProxy(Context context, BluetoothProfile.ServiceListener listener, int profile) {
+        if (profile != BluetoothProfile.A2DP) {
+            return false;
+        }
+        synchronized (this) {
+            if (serviceConnectionDeferred) {
+                pendingListeners.add(listener);
+                return true;
+            }
+        }
+        listener.onServiceConnected(profile, createProxy());
+        return true;
+    }
+
+    public void closeProfileProxy(int profile, BluetoothProfile proxy) {
+    }
+
+    private BluetoothProfile createProxy() {
+        return new BluetoothProfile() {
+            @Override
+            public List<BluetoothDevice> getConnectedDevices() {
+                synchronized (BluetoothAdapter.this) {
+                    return new ArrayList<>(connectedDevices.values());
+                }
+            }
+        };
+    }
+}
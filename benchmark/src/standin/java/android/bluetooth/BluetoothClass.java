@@ -0,0 +1,27 @@
+package android.bluetooth;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public final class BluetoothClass {
+    private final int deviceClass;
+
+    public BluetoothClass(int deviceClass) {
+        this.deviceClass = deviceClass;
+    }
+
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    public static class Device {
+        public static final int AUDIO_VIDEO_WEARABLE_HEADSET = 0x0404;
+        public static final int AUDIO_VIDEO_HANDSFREE = 0x0408;
+        public static final int AUDIO_VIDEO_LOUDSPEAKER = 0x0414;
+        public static final int AUDIO_VIDEO_HEADPHONES = 0x0418;
+        public static final int AUDIO_VIDEO_PORTABLE_AUDIO = 0x041c;
+        public static final int AUDIO_VIDEO_CAR_AUDIO = 0x0420;
+        public static final int AUDIO_VIDEO_SET_TOP_BOX = 0x0424;
+        public static final int AUDIO_VIDEO_HIFI_AUDIO = 0x0428;
+    }
+}
@@ -0,0 +1,30 @@
+package android.bluetooth;
+
+import android.os.Parcelable;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public final class BluetoothDevice implements Parcelable {
+    private final String address;
+    private final String name;
+    private final BluetoothClass bluetoothClass;
+
+    public BluetoothDevice(String address, String name, BluetoothClass bluetoothClass) {
+        this.address = address;
+        this.name = name;
+        this.bluetoothClass = bluetoothClass;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BluetoothClass getBluetoothClass() {
+        return bluetoothClass;
+    }
+}
@@ -0,0 +1,21 @@
+package android.bluetooth;
+
+import java.util.List;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public interface BluetoothProfile {
+    int A2DP = 2;
+
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTED = 2;
+
+    List<BluetoothDevice> getConnectedDevices();
+
+    interface ServiceListener {
+        void onServiceConnected(int profile, BluetoothProfile proxy);
+
+        void onServiceDisconnected(int profile);
+    }
+}
@@ -0,0 +1,12 @@
+package android.content;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public abstract class BroadcastReceiver {
+    public abstract void onReceive(Context context, Intent intent);
+
+    public final boolean isInitialStickyBroadcast() {
+        return false;
+    }
+}
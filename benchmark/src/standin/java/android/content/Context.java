@@ -0,0 +1,26 @@
+package android.content;
+
+import android.os.Looper;
+
+import java.io.File;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public abstract class Context {
+    public static final String AUDIO_SERVICE = "audio";
+
+    public abstract Context getApplicationContext();
+
+    public abstract Looper getMainLooper();
+
+    public abstract Object getSystemService(String name);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+
+    public abstract File getFilesDir();
+
+    public abstract File getNoBackupFilesDir();
+}
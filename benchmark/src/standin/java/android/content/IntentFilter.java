@@ -0,0 +1,30 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public class IntentFilter {
+    private final List<String> actions = new ArrayList<>();
+
+    public IntentFilter() {
+    }
+
+    public IntentFilter(String action) {
+        addAction(action);
+    }
+
+    public final void addAction(String action) {
+        actions.add(action);
+    }
+
+    public final int countActions() {
+        return actions.size();
+    }
+
+    public final String getAction(int index) {
+        return actions.get(index);
+    }
+}
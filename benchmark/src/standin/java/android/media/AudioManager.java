@@ -0,0 +1,28 @@
+package android.media;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public class AudioManager {
+    public static final int STREAM_MUSIC = 3;
+    public static final String PROPERTY_OUTPUT_SAMPLE_RATE = "android.media.property.OUTPUT_SAMPLE_RATE";
+    public static final String PROPERTY_OUTPUT_FRAMES_PER_BUFFER = "android.media.property.OUTPUT_FRAMES_PER_BUFFER";
+
+    private String parameters;
+
+    public void setParameters(String keyValuePairs) {
+        parameters = keyValuePairs;
+    }
+
+    public String getParameters(String keys) {
+        return parameters;
+    }
+
+    public String getProperty(String key) {
+        return null;
+    }
+
+    public boolean isBluetoothA2dpOn() {
+        return false;
+    }
+}
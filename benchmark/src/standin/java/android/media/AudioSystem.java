@@ -0,0 +1,72 @@
+package android.media;
+
+/**
+ * JVM stand-in of the hidden Android class, holds the values only
+ */
+public class AudioSystem {
+    private static final int[] forceUse = new int[4];
+    private static int lastDevice;
+    private static int lastState;
+    private static String lastDeviceAddress;
+    private static String lastDeviceName;
+    private static volatile int setterStatus;
+    private static volatile boolean linkageFailure;
+
+    /**
+     * Stand-in only: set the status returned by the setters, the values are not changed unless 0
+     *
+     * @param status the status, e.g. -22 for BAD_VALUE
+     */
+    public static void setSetterStatus(int status) {
+        setterStatus = status;
+    }
+
+    /**
+     * Stand-in only: the next call throws {@link NoSuchMethodError}, as the direct call of a method missing on the device
+     */
+    public static void failNextCall() {
+        linkageFailure = true;
+    }
+
+    private static void checkLinkage() {
+        if (linkageFailure) {
+            linkageFailure = false;
+            throw new NoSuchMethodError("stand-in linkage failure");
+        }
+    }
+
+    public static int setDeviceConnectionState(int device, int state, String deviceAddress) {
+        return setDeviceConnectionState(device, state, deviceAddress, "");
+    }
+
+    public static int setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        checkLinkage();
+        if (setterStatus != 0) {
+            return setterStatus;
+        }
+        lastDevice = device;
+        lastState = state;
+        lastDeviceAddress = deviceAddress;
+        lastDeviceName = deviceName;
+        return 0;
+    }
+
+    public static int getDeviceConnectionState(int device, String deviceAddress) {
+        checkLinkage();
+        return device == lastDevice && deviceAddress.equals(lastDeviceAddress) ? lastState : 0;
+    }
+
+    public static int setForceUse(int usage, int config) {
+        checkLinkage();
+        if (setterStatus != 0) {
+            return setterStatus;
+        }
+        forceUse[usage] = config;
+        return 0;
+    }
+
+    public static int getForceUse(int usage) {
+        checkLinkage();
+        return forceUse[usage];
+    }
+}
@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public class Build {
+    public static class VERSION {
+        public static int SDK_INT = VERSION_CODES.M;
+    }
+
+    public static class VERSION_CODES {
+        public static final int ECLAIR = 5;
+        public static final int HONEYCOMB = 11;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+    }
+}
@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * JVM stand-in of the Android class, the posted callbacks are queued on the manual {@link Looper}, or never run
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.enqueue(this, r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return looper.enqueue(this, r, delayMillis);
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(this, r);
+    }
+}
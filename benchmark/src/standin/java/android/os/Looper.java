@@ -0,0 +1,112 @@
+package android.os;
+
+import java.util.ArrayList;
+
+/**
+ * JVM stand-in of the Android class.<br />
+ * The default looper has no message queue, the posted callbacks are never run.
+ * The manual looper queues the callbacks on its own clock starting at 0, and runs them in the time order when the clock is advanced with {@link #advanceBy(long)}.
+ */
+public class Looper {
+    private final boolean manual;
+    private final ArrayList<Message> queue = new ArrayList<>();
+    private long now;
+
+    /**
+     * The queued callback
+     */
+    private static final class Message {
+        final Handler handler;
+        final Runnable callback;
+        final long when;
+
+        Message(Handler handler, Runnable callback, long when) {
+            this.handler = handler;
+            this.callback = callback;
+            this.when = when;
+        }
+    }
+
+    /**
+     * Creates the looper without the message queue
+     */
+    public Looper() {
+        this(false);
+    }
+
+    /**
+     * Creates the looper
+     *
+     * @param manual true to queue the callbacks, and run them with {@link #advanceBy(long)}
+     */
+    public Looper(boolean manual) {
+        this.manual = manual;
+    }
+
+    /**
+     * Obtains the time of the manual clock
+     *
+     * @return milliseconds
+     */
+    public synchronized long uptimeMillis() {
+        return now;
+    }
+
+    /**
+     * Obtains the number of the queued callbacks
+     *
+     * @return the count
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Advances the manual clock, and runs the callbacks due until the new time, including the ones posted by the callbacks.<br />
+     * The clock is set to the due time of each callback while it runs.
+     *
+     * @param millis the time to advance, 0 to run the callbacks already due
+     */
+    public void advanceBy(long millis) {
+        long target;
+        synchronized (this) {
+            target = now + millis;
+        }
+        while (true) {
+            Message message;
+            synchronized (this) {
+                if (queue.isEmpty() || queue.get(0).when > target) {
+                    now = target;
+                    return;
+                }
+                message = queue.remove(0);
+                now = Math.max(now, message.when);
+            }
+            message.callback.run();
+        }
+    }
+
+    synchronized boolean enqueue(Handler handler, Runnable callback, long delayMillis) {
+        if (!manual) {
+            return true;
+        }
+
+        long when = now + Math.max(delayMillis, 0);
+        int index = queue.size();
+        // after the callbacks of the same time
+        while (index > 0 && queue.get(index - 1).when > when) {
+            index--;
+        }
+        queue.add(index, new Message(handler, callback, when));
+        return true;
+    }
+
+    synchronized void remove(Handler handler, Runnable callback) {
+        for (int i = queue.size() - 1; i >= 0; i--) {
+            Message message = queue.get(i);
+            if (message.handler == handler && message.callback == callback) {
+                queue.remove(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * JVM stand-in of the Android class
+ */
+public interface Parcelable {
+}
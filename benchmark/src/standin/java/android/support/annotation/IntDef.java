@@ -0,0 +1,14 @@
+package android.support.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * JVM stand-in of the support annotation
+ */
+@Retention(RetentionPolicy.SOURCE)
+public @interface IntDef {
+    long[] value() default {};
+
+    boolean flag() default false;
+}
@@ -0,0 +1,7 @@
+package android.support.annotation;
+
+/**
+ * JVM stand-in of the support annotation
+ */
+public @interface NonNull {
+}
@@ -0,0 +1,123 @@
+package jp.kshoji.audio.benchmark;
+
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Keeps the steady-state routing allocation-free: the connection broadcasts of the wired headset, USB Audio and Bluetooth A2DP are sent on each route mode,
+ * on the calling thread with {@link BenchmarkContext#DIRECT_EXECUTOR}, and nobody reads the state.<br />
+ * With the direct call, no bytes are allocated. With the reflection, the default, only the result of each hidden call is allocated:
+ * the arguments are reused, but the method accessor of the JDK boxes the int result with a new Integer.<br />
+ * The best of a few rounds is checked, so an allocation of the JIT compiler while recompiling doesn't fail the test.
+ *
+ * @author K.Shoji
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP_CYCLES = 50000;
+    private static final int MEASURED_CYCLES = 50000;
+    private static final int MEASURED_ROUNDS = 3;
+    private static final long REFLECTIVE_BYTES_PER_CALL = 16;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private long backendCallCount;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        AudioSystem.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onBackendCall(int operation, long durationNanos, boolean succeeded) {
+                backendCallCount++;
+            }
+
+            @Override
+            public void onRoutePass(long durationNanos, int issuedCalls, int skippedCalls) {
+            }
+
+            @Override
+            public void onRouteLatency(long latencyNanos) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        AudioSystem.setMetricsListener(null);
+        AudioSystem.setDirectCallEnabled(false);
+    }
+
+    @Test
+    public void directCallIsAllocationFree() {
+        AudioSystem.setDirectCallEnabled(true);
+        for (AudioRouteMode routeMode : AudioRouteMode.values()) {
+            assertWithinBudget(routeMode, Broadcasts.headsetPlug(0, true), Broadcasts.headsetPlug(0, false), 0);
+            assertWithinBudget(routeMode, Broadcasts.usbAudioPlug(0, true), Broadcasts.usbAudioPlug(0, false), 0);
+            assertWithinBudget(routeMode, Broadcasts.bluetoothA2dp(0, true), Broadcasts.bluetoothA2dp(0, false), 0);
+        }
+    }
+
+    @Test
+    public void reflectionAllocatesOnlyResults() {
+        for (AudioRouteMode routeMode : AudioRouteMode.values()) {
+            assertWithinBudget(routeMode, Broadcasts.headsetPlug(0, true), Broadcasts.headsetPlug(0, false), REFLECTIVE_BYTES_PER_CALL);
+            assertWithinBudget(routeMode, Broadcasts.usbAudioPlug(0, true), Broadcasts.usbAudioPlug(0, false), REFLECTIVE_BYTES_PER_CALL);
+            assertWithinBudget(routeMode, Broadcasts.bluetoothA2dp(0, true), Broadcasts.bluetoothA2dp(0, false), REFLECTIVE_BYTES_PER_CALL);
+        }
+    }
+
+    /**
+     * Connects and disconnects the device, and checks the bytes allocated
+     *
+     * @param routeMode the route mode
+     * @param connect the connecting broadcast
+     * @param disconnect the disconnecting broadcast
+     * @param bytesPerCall the bytes allowed per hidden call
+     */
+    private void assertWithinBudget(AudioRouteMode routeMode, Intent connect, Intent disconnect, long bytesPerCall) {
+        BenchmarkContext context = new BenchmarkContext();
+        AudioRouter audioRouter = new AudioRouter(context, routeMode, BenchmarkContext.DIRECT_EXECUTOR);
+        try {
+            for (int i = 0; i < WARMUP_CYCLES; i++) {
+                audioRouter.onReceive(context, connect);
+                audioRouter.onReceive(context, disconnect);
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long allocated = Long.MAX_VALUE;
+            long budget = 0;
+            for (int round = 0; round < MEASURED_ROUNDS && allocated > budget; round++) {
+                backendCallCount = 0;
+                long start = threadMXBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < MEASURED_CYCLES; i++) {
+                    audioRouter.onReceive(context, connect);
+                    audioRouter.onReceive(context, disconnect);
+                }
+                allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+                budget = bytesPerCall * backendCallCount;
+            }
+
+            assertTrue(routeMode + ", " + connect.getAction() + ": " + allocated + " bytes allocated for " + backendCallCount + " hidden calls, the budget is " + budget,
+                    allocated <= budget);
+        } finally {
+            audioRouter.terminate();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.receiver.AudioRouterHub;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link AudioRouterHub} on the stand-in hidden API: the winning request is applied, and the route before the first client is restored with the last client
+ *
+ * @author K.Shoji
+ */
+public class AudioRouterHubTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private BenchmarkContext context;
+
+    @Before
+    public void setUp() {
+        context = new BenchmarkContext();
+        // the value before the hub, on the stand-in
+        android.media.AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+    }
+
+    @After
+    public void tearDown() {
+        assertEquals(0, AudioRouterHub.getClientCount());
+    }
+
+    @Test
+    public void winningRequestIsApplied() throws Exception {
+        AudioRouterHub.Client low = AudioRouterHub.acquire(context, 0);
+        AudioRouterHub.Client high = AudioRouterHub.acquire(context, 10);
+        try {
+            high.setRouteMode(AudioRouteMode.SPEAKER).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            low.setRouteMode(AudioRouteMode.WIRED_HEADPHONE).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(AudioSystem.FORCE_SPEAKER, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+
+            high.terminate().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(AudioSystem.FORCE_HEADPHONES, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        } finally {
+            high.terminate();
+            low.terminate().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void lastClientRestoresRoute() throws Exception {
+        AudioRouterHub.Client first = AudioRouterHub.acquire(context, 0);
+        AudioRouterHub.Client second = AudioRouterHub.acquire(context, 0);
+        first.setRouteMode(AudioRouteMode.SPEAKER).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        second.setRouteMode(AudioRouteMode.WIRED_HEADPHONE).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        first.terminate().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(AudioSystem.FORCE_HEADPHONES, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+
+        second.terminate().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(AudioSystem.FORCE_NONE, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+    }
+}
@@ -0,0 +1,116 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs each benchmark method once with each combination of the parameters, without JMH, to keep the benchmarks runnable
+ *
+ * @author K.Shoji
+ */
+public class BenchmarkSmokeTest {
+    private static final Class<?>[] BENCHMARKS = {AudioSystemBenchmark.class, EventStormBenchmark.class, SetupRouteBenchmark.class};
+
+    @After
+    public void tearDown() {
+        AudioSystem.setDirectCallEnabled(false);
+    }
+
+    @Test
+    public void benchmarksRun() throws Exception {
+        for (Class<?> benchmarkClass : BENCHMARKS) {
+            List<Field> paramFields = new ArrayList<>();
+            for (Field field : benchmarkClass.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Param.class)) {
+                    field.setAccessible(true);
+                    paramFields.add(field);
+                }
+            }
+            int runs = run(benchmarkClass, paramFields, new String[paramFields.size()], 0);
+            assertTrue(benchmarkClass.getSimpleName(), runs > 0);
+        }
+    }
+
+    /**
+     * Runs the benchmark with all the combinations of the parameters from the index
+     *
+     * @param benchmarkClass the benchmark
+     * @param paramFields the parameter fields
+     * @param values the parameter values chosen before the index
+     * @param index the parameter index to choose
+     * @return the number of the benchmark methods run
+     * @throws Exception the benchmark failed
+     */
+    private static int run(Class<?> benchmarkClass, List<Field> paramFields, String[] values, int index) throws Exception {
+        if (index < paramFields.size()) {
+            int runs = 0;
+            for (String value : paramFields.get(index).getAnnotation(Param.class).value()) {
+                values[index] = value;
+                runs += run(benchmarkClass, paramFields, values, index + 1);
+            }
+            return runs;
+        }
+
+        Object benchmark = benchmarkClass.newInstance();
+        for (int i = 0; i < paramFields.size(); i++) {
+            Field field = paramFields.get(i);
+            field.set(benchmark, parse(field.getType(), values[i]));
+        }
+
+        invokeAnnotated(benchmark, Setup.class);
+        int runs = 0;
+        try {
+            runs = invokeAnnotated(benchmark, Benchmark.class);
+        } finally {
+            invokeAnnotated(benchmark, TearDown.class);
+        }
+        return runs;
+    }
+
+    /**
+     * Invokes the methods with the annotation
+     *
+     * @param benchmark the benchmark
+     * @param annotation the annotation
+     * @return the number of the invoked methods
+     * @throws Exception the method failed
+     */
+    private static int invokeAnnotated(Object benchmark, Class<? extends java.lang.annotation.Annotation> annotation) throws Exception {
+        int invoked = 0;
+        for (Method method : benchmark.getClass().getDeclaredMethods()) {
+            if (method.isAnnotationPresent(annotation)) {
+                method.setAccessible(true);
+                method.invoke(benchmark);
+                invoked++;
+            }
+        }
+        return invoked;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object parse(Class<?> type, String value) {
+        if (type == int.class) {
+            return Integer.parseInt(value);
+        }
+        if (type == boolean.class) {
+            return Boolean.parseBoolean(value);
+        }
+        if (type.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) type, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,185 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the Bluetooth A2DP devices across the subscription changes of {@link AudioRouter}.<br />
+ * The pinned route modes forget the A2DP devices, and they are synchronized from the stand-in profile proxy when subscribed again.
+ * The A2DP connections are still received on the pinned route modes, to suspend A2DP again.
+ * On the initialization, the A2DP devices of the snapshot are kept only if the profile proxy reports them.
+ *
+ * @author K.Shoji
+ */
+public class BluetoothSubscriptionTest {
+    private static final int BLUETOOTH_DEVICES = 2;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private Looper looper;
+    private BenchmarkContext context;
+    private BluetoothAdapter bluetoothAdapter;
+    private AudioPolicySimulator simulator;
+    private AudioRouter audioRouter;
+    private int routePasses;
+
+    @Before
+    public void setUp() {
+        looper = new Looper(true);
+        context = new BenchmarkContext(looper);
+        bluetoothAdapter = new BluetoothAdapter();
+        BluetoothAdapter.setDefaultAdapter(bluetoothAdapter);
+        simulator = new AudioPolicySimulator();
+        audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+        audioRouter.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onBackendCall(int operation, long durationNanos, boolean succeeded) {
+            }
+
+            @Override
+            public void onRoutePass(long durationNanos, int issuedCalls, int skippedCalls) {
+                routePasses++;
+            }
+
+            @Override
+            public void onRouteLatency(long latencyNanos) {
+            }
+        });
+
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            bluetoothAdapter.setA2dpConnectionState(Broadcasts.bluetoothDevice(index), true);
+            audioRouter.onReceive(context, Broadcasts.bluetoothA2dp(index, true));
+        }
+        assertMediaRoute(AudioSystem.FORCE_BT_A2DP);
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+        BluetoothAdapter.setDefaultAdapter(null);
+    }
+
+    private void assertMediaRoute(int config) {
+        assertEquals(config, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void unsubscribedDevicesAreForgotten() {
+        audioRouter.setRouteMode(AudioRouteMode.SPEAKER);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertTrue(audioRouter.getState().getConnectedBluetoothA2dpDevices().isEmpty());
+        // marked unavailable on the route pass, before forgotten
+        assertEquals(AudioSystem.DEVICE_STATE_UNAVAILABLE, simulator.getDeviceState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, "00:11:22:33:44:00"));
+    }
+
+    @Test
+    public void a2dpIsSuspendedAgainOnConnection() {
+        audioRouter.setRouteMode(AudioRouteMode.SPEAKER);
+        assertTrue(simulator.isA2dpSuspended());
+
+        // the audio service resumes A2DP on a new connection
+        simulator.setA2dpSuspended(false);
+        bluetoothAdapter.setA2dpConnectionState(Broadcasts.bluetoothDevice(BLUETOOTH_DEVICES), true);
+        audioRouter.onReceive(context, Broadcasts.bluetoothA2dp(BLUETOOTH_DEVICES, true));
+        assertTrue(simulator.isA2dpSuspended());
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        // not tracked
+        assertTrue(audioRouter.getState().getConnectedBluetoothA2dpDevices().isEmpty());
+    }
+
+    @Test
+    public void resubscribedDevicesAreRoutedInOnePass() {
+        audioRouter.setRouteMode(AudioRouteMode.SPEAKER);
+        // disconnected while not subscribed
+        bluetoothAdapter.setA2dpConnectionState(Broadcasts.bluetoothDevice(0), false);
+
+        routePasses = 0;
+        audioRouter.setRouteMode(AudioRouteMode.AUTO);
+        assertEquals(1, routePasses);
+        assertMediaRoute(AudioSystem.FORCE_BT_A2DP);
+        assertEquals(1, audioRouter.getState().getConnectedBluetoothA2dpDevices().size());
+        assertEquals(0, looper.getQueueSize());
+    }
+
+    @Test
+    public void routeWaitsForProfileProxy() {
+        audioRouter.setRouteMode(AudioRouteMode.SPEAKER);
+        bluetoothAdapter.setServiceConnectionDeferred(true);
+
+        routePasses = 0;
+        audioRouter.setRouteMode(AudioRouteMode.AUTO);
+        assertEquals(0, routePasses);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        bluetoothAdapter.connectProfileProxies();
+        assertEquals(1, routePasses);
+        assertMediaRoute(AudioSystem.FORCE_BT_A2DP);
+        assertEquals(BLUETOOTH_DEVICES, audioRouter.getState().getConnectedBluetoothA2dpDevices().size());
+    }
+
+    @Test
+    public void routeIsAppliedAfterProfileProxyTimeout() {
+        audioRouter.setRouteMode(AudioRouteMode.WIRED_HEADPHONE);
+        bluetoothAdapter.setServiceConnectionDeferred(true);
+
+        audioRouter.setRouteMode(AudioRouteMode.AUTO);
+        looper.advanceBy(999);
+        assertMediaRoute(AudioSystem.FORCE_HEADPHONES);
+        looper.advanceBy(1);
+        // routed without the Bluetooth devices
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        // the late proxy is still synchronized
+        bluetoothAdapter.connectProfileProxies();
+        assertMediaRoute(AudioSystem.FORCE_BT_A2DP);
+    }
+
+    @Test
+    public void snapshotDevicesAreConfirmedByProfileProxy() throws IOException {
+        context.setFilesDir(temporaryFolder.newFolder());
+        AudioRouter persistingRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+        for (int index = 0; index < BLUETOOTH_DEVICES; index++) {
+            persistingRouter.onReceive(context, Broadcasts.bluetoothA2dp(index, true));
+        }
+        persistingRouter.terminate();
+
+        // disconnected while not running, A2DP is still connected with the other device
+        bluetoothAdapter.setA2dpConnectionState(Broadcasts.bluetoothDevice(1), false);
+        AudioRouter restartedRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+        try {
+            assertEquals(1, restartedRouter.getState().getConnectedBluetoothA2dpDevices().size());
+            assertMediaRoute(AudioSystem.FORCE_BT_A2DP);
+        } finally {
+            restartedRouter.terminate();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Bounded runs of {@link ConcurrentStressDriver}: the published states must be consistent, and no updates are lost
+ *
+ * @author K.Shoji
+ */
+public class ConcurrentStressTest {
+    private static final int EVENTS = 5000;
+
+    @Test
+    public void seed1() throws Exception {
+        assertNoViolations(1);
+    }
+
+    @Test
+    public void seed2() throws Exception {
+        assertNoViolations(2);
+    }
+
+    @Test
+    public void seed3() throws Exception {
+        assertNoViolations(3);
+    }
+
+    @Test
+    public void seed4() throws Exception {
+        assertNoViolations(4);
+    }
+
+    private static void assertNoViolations(long seed) throws Exception {
+        ConcurrentStressDriver driver = new ConcurrentStressDriver();
+        try {
+            assertNull("seed " + seed, driver.stress(EVENTS, seed));
+        } finally {
+            driver.terminate();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the direct call of the hidden methods on the stand-in: the same values as the reflection, and the automatic fallback to the reflection when the method can not be linked
+ *
+ * @author K.Shoji
+ */
+public class DirectCallTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final int[] DIRECT_OPERATIONS = {
+            MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE,
+            MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE,
+            MetricsListener.OPERATION_SET_FORCE_USE,
+            MetricsListener.OPERATION_GET_FORCE_USE,
+    };
+
+    @After
+    public void tearDown() {
+        AudioSystem.setDirectCallEnabled(false);
+        AudioSystem.resetCircuits();
+    }
+
+    @Test
+    public void directCallIsDisabledByDefault() {
+        for (int operation = 0; operation < MetricsListener.OPERATION_COUNT; operation++) {
+            assertFalse(AudioSystem.isDirectCall(operation));
+        }
+    }
+
+    @Test
+    public void directCallIsToggled() {
+        AudioSystem.setDirectCallEnabled(true);
+        for (int operation : DIRECT_OPERATIONS) {
+            assertTrue(AudioSystem.isDirectCall(operation));
+        }
+        // called through AudioManager
+        assertFalse(AudioSystem.isDirectCall(MetricsListener.OPERATION_SET_A2DP_SUSPENDED));
+
+        AudioSystem.setDirectCallEnabled(false);
+        for (int operation : DIRECT_OPERATIONS) {
+            assertFalse(AudioSystem.isDirectCall(operation));
+        }
+    }
+
+    @Test
+    public void directCallMatchesReflection() {
+        assertCallsReachHiddenMethods(AudioSystem.FORCE_SPEAKER, AudioSystem.DEVICE_STATE_AVAILABLE);
+        AudioSystem.setDirectCallEnabled(true);
+        assertCallsReachHiddenMethods(AudioSystem.FORCE_HEADPHONES, AudioSystem.DEVICE_STATE_UNAVAILABLE);
+        assertCallsReachHiddenMethods(AudioSystem.FORCE_SPEAKER, AudioSystem.DEVICE_STATE_AVAILABLE);
+    }
+
+    @Test
+    public void linkageFailureFallsBackToReflection() {
+        AudioSystem.setDirectCallEnabled(true);
+        android.media.AudioSystem.failNextCall();
+
+        // the call is retried with the reflection
+        assertTrue(AudioSystem.trySetForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_BT_A2DP));
+        assertEquals(AudioSystem.FORCE_BT_A2DP, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        assertFalse(AudioSystem.isDirectCall(MetricsListener.OPERATION_SET_FORCE_USE));
+        // the other operations are still called directly
+        assertTrue(AudioSystem.isDirectCall(MetricsListener.OPERATION_GET_FORCE_USE));
+        assertFalse(AudioSystem.isCircuitOpen(MetricsListener.OPERATION_SET_FORCE_USE));
+    }
+
+    private static void assertCallsReachHiddenMethods(int config, int state) {
+        assertTrue(AudioSystem.trySetForceUse(AudioSystem.FOR_MEDIA, config));
+        assertEquals(config, android.media.AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        assertEquals(config, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        assertEquals(config, AudioSystem.tryGetForceUse(AudioSystem.FOR_MEDIA));
+
+        assertTrue(AudioSystem.trySetDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, state, ADDRESS, "speaker"));
+        assertEquals(state, android.media.AudioSystem.getDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, ADDRESS));
+        assertEquals(state, AudioSystem.getDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, ADDRESS));
+        assertEquals(state, AudioSystem.tryGetDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, ADDRESS));
+    }
+}
@@ -0,0 +1,61 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The router created with the legacy constructor routes synchronously on the calling thread, as the previous versions
+ *
+ * @author K.Shoji
+ */
+public class LegacyApiTest {
+    private BenchmarkContext context;
+    private AudioRouter audioRouter;
+
+    @Before
+    public void setUp() {
+        context = new BenchmarkContext();
+        // the value before the router, on the stand-in
+        android.media.AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+        audioRouter = new AudioRouter(context, AudioRouteMode.SPEAKER);
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+    }
+
+    @Test
+    public void constructorAppliesInitialRoute() {
+        assertTrue(audioRouter.getReadyFuture().isDone());
+        assertEquals(AudioRouteMode.SPEAKER, audioRouter.getEffectiveRouteMode());
+        assertEquals(AudioSystem.FORCE_SPEAKER, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void setRouteModeAppliesRouteBeforeReturning() {
+        audioRouter.setRouteMode(AudioRouteMode.WIRED_HEADPHONE);
+        assertEquals(AudioRouteMode.WIRED_HEADPHONE, audioRouter.getEffectiveRouteMode());
+        assertEquals(AudioSystem.FORCE_HEADPHONES, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        audioRouter.setRouteMode(AudioRouteMode.AUTO);
+        assertEquals(AudioRouteMode.USB_AUDIO, audioRouter.getEffectiveRouteMode());
+    }
+
+    @Test
+    public void resetToInitialRouteRestoresBeforeReturning() {
+        audioRouter.setRouteMode(AudioRouteMode.NO_ROUTING);
+        audioRouter.resetToInitialRoute();
+        assertEquals(AudioSystem.FORCE_NONE, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        assertEquals(AudioSystem.FORCE_NONE, audioRouter.getForceUse(AudioSystem.FOR_MEDIA));
+    }
+}
@@ -0,0 +1,53 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.Test;
+
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Bounded seeded runs of {@link RouteStressDriver}: the simulated audio policy must match the expected route after each step,
+ * and the final state must match the route planned from the expected connection states
+ *
+ * @author K.Shoji
+ */
+public class RouteStressTest {
+    private static final int EVENTS = 20000;
+
+    @Test
+    public void seed1() {
+        assertNoViolations(1);
+    }
+
+    @Test
+    public void seed2() {
+        assertNoViolations(2);
+    }
+
+    @Test
+    public void seed3() {
+        assertNoViolations(3);
+    }
+
+    @Test
+    public void seed4() {
+        assertNoViolations(4);
+    }
+
+    private static void assertNoViolations(long seed) {
+        RouteStressDriver driver = new RouteStressDriver(seed);
+        try {
+            assertNull("seed " + seed, driver.stress(EVENTS));
+            assertNull("seed " + seed, driver.checkPlannedRoute());
+
+            // the last route mode may be NO_ROUTING, checks the route of each mode with the final connection states
+            for (AudioRouteMode routeMode : AudioRouteMode.values()) {
+                driver.setRouteMode(routeMode);
+                assertNull("seed " + seed + ", " + routeMode, driver.checkPlannedRoute());
+            }
+        } finally {
+            driver.terminate();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the route table transactions of {@link AudioRouter} on the simulated audio policy
+ *
+ * @author K.Shoji
+ */
+public class RouteTransactionTest {
+    private BenchmarkContext context;
+    private AudioPolicySimulator simulator;
+    private AudioRouter audioRouter;
+    private int routePasses;
+    private int issuedCalls;
+
+    @Before
+    public void setUp() {
+        context = new BenchmarkContext();
+        simulator = new AudioPolicySimulator();
+        audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.SPEAKER)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+        audioRouter.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onBackendCall(int operation, long durationNanos, boolean succeeded) {
+            }
+
+            @Override
+            public void onRoutePass(long durationNanos, int issuedCalls, int skippedCalls) {
+                routePasses++;
+                RouteTransactionTest.this.issuedCalls += issuedCalls;
+            }
+
+            @Override
+            public void onRouteLatency(long latencyNanos) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+    }
+
+    @Test
+    public void usagesAreAppliedInOnePass() {
+        audioRouter.beginTransaction()
+                .setForceUse(AudioSystem.FOR_COMMUNICATION, AudioSystem.FORCE_SPEAKER)
+                .setForceUse(AudioSystem.FOR_RECORD, AudioSystem.FORCE_BT_SCO)
+                .setForceUse(AudioSystem.FOR_DOCK, AudioSystem.FORCE_ANALOG_DOCK)
+                .commit();
+
+        assertEquals(1, routePasses);
+        assertEquals(3, issuedCalls);
+        assertEquals(AudioSystem.FORCE_SPEAKER, simulator.getForceUseConfig(AudioSystem.FOR_COMMUNICATION));
+        assertEquals(AudioSystem.FORCE_BT_SCO, simulator.getForceUseConfig(AudioSystem.FOR_RECORD));
+        assertEquals(AudioSystem.FORCE_ANALOG_DOCK, simulator.getForceUseConfig(AudioSystem.FOR_DOCK));
+        assertEquals(AudioSystem.FORCE_SPEAKER, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void lastValueWins() {
+        audioRouter.beginTransaction()
+                .setForceUse(AudioSystem.FOR_COMMUNICATION, AudioSystem.FORCE_BT_SCO)
+                .setForceUse(AudioSystem.FOR_COMMUNICATION, AudioSystem.FORCE_SPEAKER)
+                .commit();
+
+        assertEquals(1, issuedCalls);
+        assertEquals(AudioSystem.FORCE_SPEAKER, simulator.getForceUseConfig(AudioSystem.FOR_COMMUNICATION));
+    }
+
+    @Test
+    public void routeTableWinsOverRouteMode() {
+        audioRouter.beginTransaction()
+                .setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_HEADPHONES)
+                .commit();
+        assertEquals(AudioSystem.FORCE_HEADPHONES, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+
+        // kept on the following passes
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        assertEquals(AudioSystem.FORCE_HEADPHONES, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+        audioRouter.setRouteMode(AudioRouteMode.USB_AUDIO);
+        assertEquals(AudioSystem.FORCE_HEADPHONES, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+
+        // applied again on NO_ROUTING mode, the route may have been changed by others
+        simulator.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+        audioRouter.setRouteMode(AudioRouteMode.NO_ROUTING);
+        assertEquals(AudioSystem.FORCE_HEADPHONES, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void emptyTransactionClearsRouteTable() {
+        audioRouter.beginTransaction()
+                .setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_HEADPHONES)
+                .commit();
+        audioRouter.beginTransaction().commit();
+
+        // the route mode applies again
+        audioRouter.setRouteMode(AudioRouteMode.WIRED_HEADPHONE);
+        audioRouter.setRouteMode(AudioRouteMode.SPEAKER);
+        assertEquals(AudioSystem.FORCE_SPEAKER, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void resetRestoresAllUsages() {
+        audioRouter.beginTransaction()
+                .setForceUse(AudioSystem.FOR_COMMUNICATION, AudioSystem.FORCE_SPEAKER)
+                .setForceUse(AudioSystem.FOR_RECORD, AudioSystem.FORCE_BT_SCO)
+                .commit();
+        audioRouter.beginTransaction().commit();
+        audioRouter.setRouteMode(AudioRouteMode.NO_ROUTING);
+
+        audioRouter.resetToInitialRoute();
+        assertEquals(AudioSystem.FORCE_NONE, simulator.getForceUseConfig(AudioSystem.FOR_COMMUNICATION));
+        assertEquals(AudioSystem.FORCE_NONE, simulator.getForceUseConfig(AudioSystem.FOR_RECORD));
+        assertEquals(AudioSystem.FORCE_NONE, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void committedTransactionIsImmutable() {
+        AudioRouter.Transaction transaction = audioRouter.beginTransaction();
+        transaction.commit();
+        try {
+            transaction.setForceUse(AudioSystem.FOR_COMMUNICATION, AudioSystem.FORCE_SPEAKER);
+            fail("the committed transaction must not be modified");
+        } catch (IllegalStateException expected) {
+            // committed
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.route.RouteMetrics;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the metrics reported by {@link AudioRouter} and {@link AudioSystem} on the stand-in hidden API
+ *
+ * @author K.Shoji
+ */
+public class RouterMetricsTest {
+    private BenchmarkContext context;
+    private RouteMetrics metrics;
+    private AudioRouter audioRouter;
+
+    @Before
+    public void setUp() {
+        context = new BenchmarkContext();
+        metrics = new RouteMetrics();
+        AudioSystem.setMetricsListener(metrics);
+        audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .build();
+        audioRouter.setMetricsListener(metrics);
+        metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+        AudioSystem.setMetricsListener(null);
+    }
+
+    @Test
+    public void broadcastIsMeasured() {
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+
+        assertEquals(1, metrics.getRoutePassHistogram().getCount());
+        assertEquals(1, metrics.getRouteLatencyHistogram().getCount());
+        assertTrue(metrics.getIssuedCallCount() > 0);
+        assertEquals(1, metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_FORCE_USE).getCount());
+        assertEquals(metrics.getIssuedCallCount(), countSetterCalls());
+    }
+
+    @Test
+    public void skippedCallsAreNotMeasured() {
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        long setterCalls = countSetterCalls();
+
+        // the same route again
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        assertEquals(2, metrics.getRoutePassHistogram().getCount());
+        assertTrue(metrics.getSkippedCallCount() > 0);
+        assertEquals(setterCalls, countSetterCalls());
+    }
+
+    private long countSetterCalls() {
+        return metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE).getCount()
+                + metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_FORCE_USE).getCount()
+                + metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_A2DP_SUSPENDED).getCount();
+    }
+}
@@ -0,0 +1,136 @@
+package jp.kshoji.audio.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.receiver.AudioRouterState;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.ConnectedDevice;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the read-only queries and the state listener of {@link AudioRouter}: the queries are served from the published state without calling the backend,
+ * and the bursts of the changes are notified once with the latest state.
+ *
+ * @author K.Shoji
+ */
+public class RouterStateTest {
+    private Looper looper;
+    private BenchmarkContext context;
+    private AudioPolicySimulator simulator;
+    private AudioRouter audioRouter;
+    private final List<AudioRouterState> notifiedStates = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        looper = new Looper(true);
+        context = new BenchmarkContext(looper);
+        BluetoothAdapter.setDefaultAdapter(new BluetoothAdapter());
+        simulator = new AudioPolicySimulator();
+        audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+        BluetoothAdapter.setDefaultAdapter(null);
+    }
+
+    @Test
+    public void connectedDevicesAreQueried() {
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        assertEquals(AudioRouteMode.AUTO, audioRouter.getRouteMode());
+        assertEquals(AudioRouteMode.WIRED_HEADPHONE, audioRouter.getEffectiveRouteMode());
+        assertEquals(AudioSystem.FORCE_HEADPHONES, audioRouter.getForceUse(AudioSystem.FOR_MEDIA));
+
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        audioRouter.onReceive(context, Broadcasts.bluetoothA2dp(0, true));
+        List<ConnectedDevice> headsets = audioRouter.getConnectedHeadsets();
+        assertEquals(1, headsets.size());
+        assertEquals("headset0", headsets.get(0).getPort());
+        assertEquals(1, audioRouter.getConnectedUsbAudios().size());
+        List<ConnectedDevice> bluetoothDevices = audioRouter.getConnectedBluetoothA2dpDevices();
+        assertEquals(1, bluetoothDevices.size());
+        assertEquals("00:11:22:33:44:00", bluetoothDevices.get(0).getAddress());
+        assertEquals(AudioRouteMode.USB_AUDIO, audioRouter.getEffectiveRouteMode());
+
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, false));
+        assertTrue(audioRouter.getConnectedHeadsets().isEmpty());
+        assertEquals(2, audioRouter.getState().getConnectedDevices().size());
+    }
+
+    @Test
+    public void queriesDoNotCallBackend() {
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        long callCount = simulator.getCallCount();
+
+        for (int i = 0; i < 1000; i++) {
+            audioRouter.getEffectiveRouteMode();
+            audioRouter.getForceUse(AudioSystem.FOR_MEDIA);
+            audioRouter.getConnectedHeadsets();
+            audioRouter.getConnectedBluetoothA2dpDevices();
+        }
+        assertEquals(callCount, simulator.getCallCount());
+    }
+
+    @Test
+    public void stateIsSharedUntilChanged() {
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        AudioRouterState state = audioRouter.getState();
+        assertSame(state, audioRouter.getState());
+
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        AudioRouterState changed = audioRouter.getState();
+        assertTrue(changed.getVersion() > state.getVersion());
+        // the older snapshot is immutable
+        assertTrue(state.getConnectedUsbAudios().isEmpty());
+        assertEquals(1, changed.getConnectedUsbAudios().size());
+    }
+
+    @Test
+    public void burstIsNotifiedOnce() {
+        audioRouter.setOnStateChangedListener(new AudioRouter.OnStateChangedListener() {
+            @Override
+            public void onStateChanged(AudioRouterState state) {
+                notifiedStates.add(state);
+            }
+        });
+        looper.advanceBy(0);
+        notifiedStates.clear();
+
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(1, true));
+        assertTrue(notifiedStates.isEmpty());
+
+        looper.advanceBy(0);
+        assertEquals(1, notifiedStates.size());
+        AudioRouterState state = notifiedStates.get(0);
+        assertEquals(2, state.getConnectedHeadsets().size());
+        assertEquals(1, state.getConnectedUsbAudios().size());
+        assertEquals(AudioRouteMode.USB_AUDIO, state.getEffectiveRouteMode());
+
+        // removed, no more notifications
+        audioRouter.setOnStateChangedListener(null);
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(1, false));
+        looper.advanceBy(0);
+        assertEquals(1, notifiedStates.size());
+    }
+}
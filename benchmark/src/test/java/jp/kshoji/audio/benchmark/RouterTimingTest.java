@@ -0,0 +1,181 @@
+package jp.kshoji.audio.benchmark;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.kshoji.audio.receiver.AudioRouter;
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.Clock;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the delayed routing of {@link AudioRouter}: the coalescing window, the drift detection, the flap damping and the retry of the failed calls.<br />
+ * The routing runs on the calling thread, and the delayed callbacks run on the manual looper, with the same clock.
+ *
+ * @author K.Shoji
+ */
+public class RouterTimingTest {
+    private Looper looper;
+    private Clock clock;
+    private BenchmarkContext context;
+    private AudioPolicySimulator simulator;
+    private AudioRouter audioRouter;
+
+    @Before
+    public void setUp() {
+        looper = new Looper(true);
+        clock = new Clock() {
+            @Override
+            public long uptimeMillis() {
+                return looper.uptimeMillis();
+            }
+        };
+        context = new BenchmarkContext(looper);
+        simulator = new AudioPolicySimulator();
+        audioRouter = new AudioRouter.Builder(context)
+                .setRouteMode(AudioRouteMode.AUTO)
+                .setRoutingExecutor(BenchmarkContext.DIRECT_EXECUTOR)
+                .setAudioBackend(simulator)
+                .build();
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+    }
+
+    @After
+    public void tearDown() {
+        audioRouter.terminate();
+    }
+
+    private void assertMediaRoute(int config) {
+        assertEquals(config, simulator.getForceUseConfig(AudioSystem.FOR_MEDIA));
+    }
+
+    @Test
+    public void burstIsRoutedAfterQuietWindow() {
+        audioRouter.setCoalescingWindow(100, clock);
+
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        looper.advanceBy(60);
+        audioRouter.onReceive(context, Broadcasts.usbAudioPlug(0, true));
+        looper.advanceBy(60);
+        // the window has been restarted by the second broadcast
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        looper.advanceBy(39);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        looper.advanceBy(1);
+        // the single pass routes to the preferred device of the burst
+        assertMediaRoute(AudioSystem.FORCE_ANALOG_DOCK);
+        assertEquals(0, looper.getQueueSize());
+    }
+
+    @Test
+    public void driftIsReappliedOnProbe() {
+        audioRouter.setDriftDetection(100, 400);
+
+        // changed by the other app
+        simulator.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+        looper.advanceBy(99);
+        assertMediaRoute(AudioSystem.FORCE_NONE);
+        looper.advanceBy(1);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertEquals(1, audioRouter.getRepairedCallCount());
+
+        // probes at +100 and +200 find no drift, the next probe is 400 ms later
+        looper.advanceBy(300);
+        simulator.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+        looper.advanceBy(399);
+        assertMediaRoute(AudioSystem.FORCE_NONE);
+        looper.advanceBy(1);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertEquals(2, audioRouter.getRepairedCallCount());
+    }
+
+    @Test
+    public void driftProbeSkipsFailedReads() {
+        audioRouter.setDriftDetection(100, 400);
+
+        // changed by the other app, but not readable
+        simulator.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NONE);
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_GET_FORCE_USE | 1 << MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE);
+        looper.advanceBy(1000);
+        assertMediaRoute(AudioSystem.FORCE_NONE);
+        assertEquals(0, audioRouter.getRepairedCallCount());
+
+        // probes at +100, +300 and +700 backed off, the next probe at +1100 reads the drift
+        simulator.setFailingOperations(0);
+        looper.advanceBy(99);
+        assertMediaRoute(AudioSystem.FORCE_NONE);
+        looper.advanceBy(1);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertEquals(1, audioRouter.getRepairedCallCount());
+    }
+
+    @Test
+    public void flappingDeviceIsHeldUntilReleased() {
+        audioRouter.setFlapDamping(1000, clock);
+
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        assertMediaRoute(AudioSystem.FORCE_HEADPHONES);
+
+        // the second change within the half-life is suppressed, the headset is held connected
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, false));
+        assertMediaRoute(AudioSystem.FORCE_HEADPHONES);
+        assertEquals(1, audioRouter.getState().getConnectedHeadsets().size());
+
+        // 2000 decays below 750 after 1416 ms, released 1 ms later
+        looper.advanceBy(1416);
+        assertMediaRoute(AudioSystem.FORCE_HEADPHONES);
+        looper.advanceBy(1);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertTrue(audioRouter.getState().getConnectedHeadsets().isEmpty());
+    }
+
+    @Test
+    public void heldDeviceSurvivesRegistryEviction() {
+        audioRouter.setFlapDamping(1000, clock);
+
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        looper.advanceBy(10000);
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, false));
+        // the plug is suppressed, the headset is held disconnected
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        // the unknown devices are registered as disconnected, and the disconnected entries including the held headset are evicted
+        for (int i = 0; i < 40; i++) {
+            audioRouter.onReceive(context, Broadcasts.usbAudioPlug(i, false));
+        }
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        // the unplug is still suppressed, and supersedes the held plug
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, false));
+        looper.advanceBy(10000);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        assertTrue(audioRouter.getState().getConnectedHeadsets().isEmpty());
+        assertEquals(2, audioRouter.getSuppressedTransitionCount());
+    }
+
+    @Test
+    public void failedCallsAreRetriedWithBackoff() {
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_FORCE_USE);
+        audioRouter.onReceive(context, Broadcasts.headsetPlug(0, true));
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+
+        // still failing on the first retry, the next retry is 2000 ms later
+        looper.advanceBy(1000);
+        simulator.setFailingOperations(0);
+        looper.advanceBy(1999);
+        assertMediaRoute(AudioSystem.FORCE_SPEAKER);
+        looper.advanceBy(1);
+        assertMediaRoute(AudioSystem.FORCE_HEADPHONES);
+        assertEquals(0, looper.getQueueSize());
+    }
+}
@@ -0,0 +1,55 @@
+package jp.kshoji.audio.benchmark;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.util.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The status returned by the hidden setters is checked, on the reflection and on the direct call.<br />
+ * A rejected call fails, and opens the circuit after the repeated rejections.
+ *
+ * @author K.Shoji
+ */
+public class SetterStatusTest {
+    private static final int BAD_VALUE = -22;
+    private static final int FAILURE_THRESHOLD = 3;
+
+    @After
+    public void tearDown() {
+        android.media.AudioSystem.setSetterStatus(0);
+        AudioSystem.setDirectCallEnabled(false);
+        AudioSystem.resetCircuits();
+    }
+
+    @Test
+    public void rejectedCallsFailOnReflection() {
+        assertRejectedCallsFail();
+    }
+
+    @Test
+    public void rejectedCallsFailOnDirectCall() {
+        AudioSystem.setDirectCallEnabled(true);
+        assertTrue(AudioSystem.isDirectCall(MetricsListener.OPERATION_SET_FORCE_USE));
+        assertRejectedCallsFail();
+    }
+
+    private void assertRejectedCallsFail() {
+        assertTrue(AudioSystem.trySetForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_SPEAKER));
+        assertTrue(AudioSystem.trySetDeviceConnectionState(AudioSystem.DEVICE_OUT_WIRED_HEADSET, AudioSystem.DEVICE_STATE_AVAILABLE, "", "headset"));
+
+        android.media.AudioSystem.setSetterStatus(BAD_VALUE);
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertFalse(AudioSystem.trySetForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_HEADPHONES));
+            assertFalse(AudioSystem.trySetDeviceConnectionState(AudioSystem.DEVICE_OUT_WIRED_HEADSET, AudioSystem.DEVICE_STATE_UNAVAILABLE, "", "headset"));
+        }
+        assertEquals(AudioSystem.FORCE_SPEAKER, AudioSystem.getForceUse(AudioSystem.FOR_MEDIA));
+        assertTrue(AudioSystem.isCircuitOpen(MetricsListener.OPERATION_SET_FORCE_USE));
+        assertTrue(AudioSystem.isCircuitOpen(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE));
+    }
+}
@@ -0,0 +1,59 @@
+package jp.kshoji.audio.route;
+
+/**
+ * The audio policy operations used by the routing.<br />
+ * The values are the same as {@link AudioConstants}.
+ *
+ * @author K.Shoji
+ */
+public interface AudioBackend {
+    /**
+     * Returned by the getters when the value could not be read, e.g. the operation is not supported, or has been suspended
+     */
+    int READ_FAILED = -1;
+
+    /**
+     * Set the device connection state
+     *
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @param deviceName device name
+     * @return false if failed
+     */
+    boolean setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName);
+
+    /**
+     * Obtains the device connection state
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE, {@link #READ_FAILED} if failed
+     */
+    int getDeviceConnectionState(int device, String deviceAddress);
+
+    /**
+     * Forces audio source
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     * @return false if failed
+     */
+    boolean setForceUse(int usage, int config);
+
+    /**
+     * Obtains current audio source
+     *
+     * @param usage audio usage
+     * @return device categories config, {@link #READ_FAILED} if failed
+     */
+    int getForceUse(int usage);
+
+    /**
+     * Suspends or resumes the Bluetooth A2DP output
+     *
+     * @param suspended true if suspended
+     * @return false if failed
+     */
+    boolean setA2dpSuspended(boolean suspended);
+}
@@ -0,0 +1,185 @@
+package jp.kshoji.audio.route;
+
+import java.util.ArrayList;
+
+/**
+ * Deterministic simulator of the hidden audio policy, to exercise the routing without the device.<br />
+ * Tracks the force-use config per usage, the device connection state per device type and address, and the A2DP suspended flag.
+ * The operations can be made to fail, to simulate the hidden API failures.<br />
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class AudioPolicySimulator implements AudioBackend {
+    private final int[] forceUse = new int[RouteState.USAGE_COUNT];
+    private final ArrayList<String> deviceAddresses = new ArrayList<>();
+    private int[] deviceTypes = new int[8];
+    private int[] deviceStates = new int[8];
+    private boolean a2dpSuspended;
+    private int failingOperations;
+    private long callCount;
+    private long redundantCallCount;
+
+    /**
+     * Constructor, all usages are FORCE_NONE and no devices are available
+     */
+    public AudioPolicySimulator() {
+        reset();
+    }
+
+    /**
+     * Resets all the states and the counters
+     */
+    public void reset() {
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            forceUse[usage] = AudioConstants.FORCE_NONE;
+        }
+        deviceAddresses.clear();
+        a2dpSuspended = false;
+        failingOperations = 0;
+        callCount = 0;
+        redundantCallCount = 0;
+    }
+
+    /**
+     * Set the operations to fail
+     *
+     * @param operations bitmask of (1 &lt;&lt; MetricsListener.OPERATION_*) values, 0 to succeed all
+     */
+    public void setFailingOperations(int operations) {
+        failingOperations = operations;
+    }
+
+    @Override
+    public boolean setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        if (isFailing(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE)) {
+            return false;
+        }
+
+        int index = indexOf(device, deviceAddress);
+        if (index < 0) {
+            index = deviceAddresses.size();
+            deviceAddresses.add(deviceAddress == null ? "" : deviceAddress);
+            if (index == deviceTypes.length) {
+                int[] newTypes = new int[index * 2];
+                int[] newStates = new int[index * 2];
+                System.arraycopy(deviceTypes, 0, newTypes, 0, index);
+                System.arraycopy(deviceStates, 0, newStates, 0, index);
+                deviceTypes = newTypes;
+                deviceStates = newStates;
+            }
+            deviceTypes[index] = device;
+            deviceStates[index] = AudioConstants.DEVICE_STATE_UNAVAILABLE;
+        }
+
+        if (deviceStates[index] == state) {
+            redundantCallCount++;
+        }
+        deviceStates[index] = state;
+        return true;
+    }
+
+    @Override
+    public int getDeviceConnectionState(int device, String deviceAddress) {
+        if (isFailing(MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE)) {
+            return AudioBackend.READ_FAILED;
+        }
+        return getDeviceState(device, deviceAddress);
+    }
+
+    @Override
+    public boolean setForceUse(int usage, int config) {
+        if (isFailing(MetricsListener.OPERATION_SET_FORCE_USE)) {
+            return false;
+        }
+
+        if (forceUse[usage] == config) {
+            redundantCallCount++;
+        }
+        forceUse[usage] = config;
+        return true;
+    }
+
+    @Override
+    public int getForceUse(int usage) {
+        if (isFailing(MetricsListener.OPERATION_GET_FORCE_USE)) {
+            return AudioBackend.READ_FAILED;
+        }
+        return forceUse[usage];
+    }
+
+    @Override
+    public boolean setA2dpSuspended(boolean suspended) {
+        if (isFailing(MetricsListener.OPERATION_SET_A2DP_SUSPENDED)) {
+            return false;
+        }
+
+        if (a2dpSuspended == suspended) {
+            redundantCallCount++;
+        }
+        a2dpSuspended = suspended;
+        return true;
+    }
+
+    /**
+     * Obtains the force-use config, without counting the call
+     *
+     * @param usage audio usage
+     * @return device categories config
+     */
+    public int getForceUseConfig(int usage) {
+        return forceUse[usage];
+    }
+
+    /**
+     * Obtains the device connection state, without counting the call
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     */
+    public int getDeviceState(int device, String deviceAddress) {
+        int index = indexOf(device, deviceAddress);
+        return index < 0 ? AudioConstants.DEVICE_STATE_UNAVAILABLE : deviceStates[index];
+    }
+
+    public boolean isA2dpSuspended() {
+        return a2dpSuspended;
+    }
+
+    /**
+     * Obtains the number of the calls, including the failed ones
+     *
+     * @return the count
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * Obtains the number of the set calls which did not change the state
+     *
+     * @return the count
+     */
+    public long getRedundantCallCount() {
+        return redundantCallCount;
+    }
+
+    private boolean isFailing(int operation) {
+        callCount++;
+        return (failingOperations & (1 << operation)) != 0;
+    }
+
+    private int indexOf(int device, String deviceAddress) {
+        if (deviceAddress == null) {
+            deviceAddress = "";
+        }
+        int size = deviceAddresses.size();
+        for (int i = 0; i < size; i++) {
+            if (deviceTypes[i] == device && deviceAddresses.get(i).equals(deviceAddress)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,179 @@
+package jp.kshoji.audio.route;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Caches the metadata of the Bluetooth devices, keyed on the device address.<br />
+ * Querying the name and the class of the BluetoothDevice is a binder call into the Bluetooth service,
+ * so the metadata is resolved once on connect, and reused until the device disconnects or the entry is idle for the idle timeout.
+ * The entry of the disconnected device is kept until the idle timeout, and refilled on reconnect without allocating.<br />
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class BluetoothMetadataCache {
+    private final HashMap<String, Metadata> entries = new HashMap<>();
+    private final long idleTimeoutMillis;
+    private final Clock clock;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * The resolved metadata
+     */
+    public static final class Metadata {
+        private String name;
+        private int deviceClass;
+        private int devices;
+        private long lastUsedTime;
+        // false after the device has disconnected, until refilled
+        private boolean resolved;
+
+        void set(String name, int deviceClass, int devices) {
+            this.name = name;
+            this.deviceClass = deviceClass;
+            this.devices = devices;
+            resolved = true;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Obtains the device class
+         *
+         * @return BluetoothClass.Device value, or {@link DeviceRegistry#DEVICE_CLASS_UNKNOWN}
+         */
+        public int getDeviceClass() {
+            return deviceClass;
+        }
+
+        /**
+         * Obtains the DEVICE_OUT_BLUETOOTH_A2DP* variants resolved from the device class
+         *
+         * @return bitmask of DEVICE_OUT_* values
+         */
+        public int getDevices() {
+            return devices;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param idleTimeoutMillis the entries not used for this period will be evicted
+     * @param clock the time source
+     */
+    public BluetoothMetadataCache(long idleTimeoutMillis, Clock clock) {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must be positive");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Obtains the metadata, and marks it used
+     *
+     * @param address the device address
+     * @return the metadata, null if not cached or idle for the idle timeout
+     */
+    public Metadata get(String address) {
+        Metadata metadata = entries.get(address);
+        long now = clock.uptimeMillis();
+        if (metadata != null && now - metadata.lastUsedTime >= idleTimeoutMillis) {
+            entries.remove(address);
+            metadata = null;
+        }
+
+        if (metadata == null || !metadata.resolved) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        metadata.lastUsedTime = now;
+        return metadata;
+    }
+
+    /**
+     * Caches the metadata resolved, the idle entries are evicted
+     *
+     * @param address the device address
+     * @param name the device name
+     * @param deviceClass BluetoothClass.Device value, or {@link DeviceRegistry#DEVICE_CLASS_UNKNOWN}
+     * @param devices bitmask of DEVICE_OUT_BLUETOOTH_A2DP* values
+     * @return the cached metadata
+     */
+    public Metadata put(String address, String name, int deviceClass, int devices) {
+        long now = clock.uptimeMillis();
+        Metadata metadata = entries.get(address);
+        if (metadata == null) {
+            // only when the entry is added, the iteration allocates
+            evictIdle(now);
+            metadata = new Metadata();
+            entries.put(address, metadata);
+        }
+        metadata.set(name, deviceClass, devices);
+        metadata.lastUsedTime = now;
+        return metadata;
+    }
+
+    /**
+     * Forgets the metadata, called on disconnect.<br />
+     * The next {@link #get(String)} misses, and the entry is kept to be refilled on reconnect until the idle timeout.
+     *
+     * @param address the device address
+     */
+    public void remove(String address) {
+        Metadata metadata = entries.get(address);
+        if (metadata != null) {
+            metadata.resolved = false;
+            metadata.lastUsedTime = clock.uptimeMillis();
+        }
+    }
+
+    /**
+     * Evicts all the metadata
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Obtains the number of the cached entries, including the idle and the disconnected ones not evicted yet
+     *
+     * @return the count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Obtains the number of {@link #get(String)} calls answered from the cache
+     *
+     * @return the count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Obtains the number of {@link #get(String)} calls not answered from the cache
+     *
+     * @return the count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Metadata> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastUsedTime >= idleTimeoutMillis) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Stops calling the failing operation, and retries it with the exponential backoff.<br />
+ * After the consecutive failures reach the threshold, the circuit opens and the requests are rejected.
+ * When the backoff has elapsed, one request is allowed as a trial: the success closes the circuit, the failure doubles the backoff.<br />
+ * This class is thread-safe, and {@link #allowRequest()} takes no lock while the circuit is closed.
+ *
+ * <pre>
+ * if (breaker.allowRequest()) {
+ *     if (call()) {
+ *         breaker.onSuccess();
+ *     } else {
+ *         breaker.onFailure();
+ *     }
+ * }
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class CircuitBreaker {
+    private final int failureThreshold;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Clock clock;
+    // written with the lock held
+    private volatile int consecutiveFailures;
+    private long backoffMillis;
+    private long retryTime;
+    private long rejectedCount;
+
+    /**
+     * Constructor
+     *
+     * @param failureThreshold the number of the consecutive failures to open the circuit
+     * @param initialBackoffMillis the backoff until the first trial
+     * @param maxBackoffMillis the maximum backoff
+     * @param clock the time source
+     */
+    public CircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis, Clock clock) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("backoff must be positive, and maxBackoffMillis must not be less than initialBackoffMillis");
+        }
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.clock = clock;
+        backoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Checks if the operation can be called now
+     *
+     * @return true if the circuit is closed, or the trial is allowed
+     */
+    public boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (consecutiveFailures < failureThreshold) {
+                return true;
+            }
+
+            long now = clock.uptimeMillis();
+            if (now >= retryTime) {
+                // only one trial until its result
+                retryTime = now + backoffMillis;
+                return true;
+            }
+            rejectedCount++;
+            return false;
+        }
+    }
+
+    /**
+     * Records the success, and closes the circuit
+     */
+    public void onSuccess() {
+        if (consecutiveFailures == 0) {
+            return;
+        }
+
+        synchronized (this) {
+            consecutiveFailures = 0;
+            backoffMillis = initialBackoffMillis;
+        }
+    }
+
+    /**
+     * Records the failure, and opens the circuit if the failures reach the threshold
+     */
+    public synchronized void onFailure() {
+        int failures = consecutiveFailures + 1;
+        if (failures > failureThreshold) {
+            // the trial has failed
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            failures = failureThreshold;
+        }
+        if (failures == failureThreshold) {
+            retryTime = clock.uptimeMillis() + backoffMillis;
+        }
+        consecutiveFailures = failures;
+    }
+
+    /**
+     * Checks if the circuit is open
+     *
+     * @return true if the requests are rejected until the next trial
+     */
+    public boolean isOpen() {
+        return consecutiveFailures >= failureThreshold;
+    }
+
+    /**
+     * Obtains the number of the requests rejected
+     *
+     * @return the count
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Closes the circuit, and clears the backoff
+     */
+    public synchronized void reset() {
+        consecutiveFailures = 0;
+        backoffMillis = initialBackoffMillis;
+    }
+}
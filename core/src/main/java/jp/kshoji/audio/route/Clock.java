@@ -0,0 +1,26 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Time source for the routing, can be replaced for the deterministic testing.
+ *
+ * @author K.Shoji
+ */
+public interface Clock {
+
+    /**
+     * The monotonic system clock
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    /**
+     * Obtains the monotonic time
+     *
+     * @return milliseconds
+     */
+    long uptimeMillis();
+}
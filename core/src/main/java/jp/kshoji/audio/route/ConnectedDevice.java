@@ -0,0 +1,68 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Immutable snapshot of the connected device, safe to share among the threads.
+ *
+ * @author K.Shoji
+ */
+public final class ConnectedDevice {
+    private final int type;
+    private final String address;
+    private final String port;
+    private final String name;
+    private final int devices;
+    private final int deviceClass;
+
+    ConnectedDevice(int type, String address, String port, String name, int devices, int deviceClass) {
+        this.type = type;
+        this.address = address;
+        this.port = port;
+        this.name = name;
+        this.devices = devices;
+        this.deviceClass = deviceClass;
+    }
+
+    /**
+     * Obtains the device type
+     *
+     * @return one of DeviceRegistry.TYPE_* values
+     */
+    public int getType() {
+        return type;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtains the available devices
+     *
+     * @return bitmask of DEVICE_OUT_* values
+     */
+    public int getDevices() {
+        return devices;
+    }
+
+    /**
+     * Obtains the device class, e.g. BluetoothClass.Device values for the Bluetooth devices
+     *
+     * @return the device class, or {@link DeviceRegistry#DEVICE_CLASS_UNKNOWN}
+     */
+    public int getDeviceClass() {
+        return deviceClass;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectedDevice{type=" + type + ", address='" + address + "', port='" + port + "', name='" + name + "', devices=" + devices + ", deviceClass=" + deviceClass + "}";
+    }
+}
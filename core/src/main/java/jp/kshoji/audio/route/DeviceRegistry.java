@@ -0,0 +1,342 @@
+package jp.kshoji.audio.route;
+
+import java.util.ArrayList;
+
+/**
+ * Registry of the connected output devices, keyed on the device type, address and port.<br />
+ * The entries are interned: the same device reuses the same entry on every connection, so the steady-state updates allocate no objects.<br />
+ * The availability of each entry is held as a bitmask of the DEVICE_OUT_* values, 0 means disconnected.<br />
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class DeviceRegistry {
+    /**
+     * Wired headset or headphone
+     */
+    public static final int TYPE_WIRED_HEADSET = AudioConstants.DEVICE_OUT_WIRED_HEADSET | AudioConstants.DEVICE_OUT_WIRED_HEADPHONE;
+    /**
+     * USB Audio, connected via the analog dock
+     */
+    public static final int TYPE_USB_AUDIO = AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET;
+    /**
+     * Bluetooth A2DP device
+     */
+    public static final int TYPE_BLUETOOTH_A2DP = AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP | AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES | AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER;
+
+    /**
+     * The device class is unknown
+     */
+    public static final int DEVICE_CLASS_UNKNOWN = -1;
+
+    /**
+     * The disconnected entries are evicted when the registry holds more entries than this
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private int availableDevices;
+    private int modificationCount;
+
+    /**
+     * Represents a device entry
+     */
+    public static final class Entry {
+        private static final int DEVICE_BITS = 16;
+
+        private final int type;
+        private final String address;
+        private final String port;
+        private String name;
+        private int devices;
+        private int deviceClass = DEVICE_CLASS_UNKNOWN;
+        private final RouteState.Device[] routeDevices = new RouteState.Device[DEVICE_BITS];
+        private ConnectedDevice connectedDevice;
+
+        Entry(int type, String address, String port) {
+            this.type = type;
+            this.address = address;
+            this.port = port;
+            this.name = port;
+        }
+
+        /**
+         * Obtains the device type
+         *
+         * @return one of TYPE_* values
+         */
+        public int getType() {
+            return type;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getPort() {
+            return port;
+        }
+
+        /**
+         * Obtains the device name, used with setDeviceConnectionState
+         *
+         * @return the name, same as the port unless specified
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Obtains the available devices
+         *
+         * @return bitmask of DEVICE_OUT_* values, 0 if disconnected
+         */
+        public int getDevices() {
+            return devices;
+        }
+
+        /**
+         * Obtains the device class, e.g. BluetoothClass.Device values for the Bluetooth devices
+         *
+         * @return the device class, or {@link #DEVICE_CLASS_UNKNOWN}
+         */
+        public int getDeviceClass() {
+            return deviceClass;
+        }
+
+        public boolean isConnected() {
+            return devices != 0;
+        }
+
+        /**
+         * Obtains the interned route device for the specified DEVICE_OUT_* value
+         *
+         * @param device one of DEVICE_OUT_* values
+         * @return the route device, created on the first call
+         */
+        public RouteState.Device getRouteDevice(int device) {
+            int index = Integer.numberOfTrailingZeros(device);
+            RouteState.Device routeDevice = routeDevices[index];
+            if (routeDevice == null) {
+                routeDevice = new RouteState.Device(device, address, name);
+                routeDevices[index] = routeDevice;
+            }
+            return routeDevice;
+        }
+
+        /**
+         * Obtains the immutable snapshot of this entry, cached while this entry has the same values.<br />
+         * The snapshot taken before the disconnection is reused when the device connects again, e.g. the headset is plugged again.
+         *
+         * @return the snapshot
+         */
+        public ConnectedDevice toConnectedDevice() {
+            if (connectedDevice == null || connectedDevice.getDevices() != devices || connectedDevice.getDeviceClass() != deviceClass || !connectedDevice.getName().equals(name)) {
+                connectedDevice = new ConnectedDevice(type, address, port, name, devices, deviceClass);
+            }
+            return connectedDevice;
+        }
+
+        /**
+         * Compares the device type, address and port, the key of the registry.<br />
+         * The entry evicted from the registry equals the entry interned again for the same device,
+         * so the entries can be used as the keys of the per-device state, e.g. the flap damping.
+         *
+         * @param o the other object
+         * @return true if the same device
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return type == entry.type && address.equals(entry.address) && port.equals(entry.port);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type * 31 + address.hashCode()) * 31 + port.hashCode();
+        }
+
+        private void setName(String name) {
+            if (name == null) {
+                name = port;
+            }
+            if (!name.equals(this.name)) {
+                this.name = name;
+                for (int i = 0; i < DEVICE_BITS; i++) {
+                    routeDevices[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the device connected
+     *
+     * @param type one of TYPE_* values
+     * @param address device address, null will be treated as empty
+     * @param port device port, null will be treated as empty
+     * @param name device name used with setDeviceConnectionState, null to use the port
+     * @param devices bitmask of the available DEVICE_OUT_* values, must be a part of the type
+     * @return the interned entry
+     */
+    public Entry connect(int type, String address, String port, String name, int devices) {
+        return connect(type, address, port, name, devices, DEVICE_CLASS_UNKNOWN);
+    }
+
+    /**
+     * Marks the device connected
+     *
+     * @param type one of TYPE_* values
+     * @param address device address, null will be treated as empty
+     * @param port device port, null will be treated as empty
+     * @param name device name used with setDeviceConnectionState, null to use the port
+     * @param devices bitmask of the available DEVICE_OUT_* values, must be a part of the type
+     * @param deviceClass the device class, e.g. BluetoothClass.Device values, or {@link #DEVICE_CLASS_UNKNOWN}
+     * @return the interned entry
+     */
+    public Entry connect(int type, String address, String port, String name, int devices, int deviceClass) {
+        Entry entry = intern(type, address, port);
+        String previousName = entry.name;
+        entry.setName(name);
+        if (entry.devices != (devices & type) || entry.deviceClass != deviceClass || !previousName.equals(entry.name)) {
+            entry.devices = devices & type;
+            entry.deviceClass = deviceClass;
+            modificationCount++;
+            updateAvailableDevices();
+        }
+        return entry;
+    }
+
+    /**
+     * Marks the device disconnected
+     *
+     * @param type one of TYPE_* values
+     * @param address device address, null will be treated as empty
+     * @param port device port, null will be treated as empty
+     * @return the entry, null if the device has not been registered
+     */
+    public Entry disconnect(int type, String address, String port) {
+        Entry entry = find(type, address, port);
+        if (entry != null && entry.devices != 0) {
+            entry.devices = 0;
+            modificationCount++;
+            updateAvailableDevices();
+        }
+        return entry;
+    }
+
+    /**
+     * Obtains the number of the entries, including disconnected ones
+     *
+     * @return the count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Obtains the entry
+     *
+     * @param index the index, 0 to {@link #size()} - 1
+     * @return the entry
+     */
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Obtains the number of the changes, incremented when the connected devices have been changed
+     *
+     * @return the count
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Obtains the devices available on all the connected entries
+     *
+     * @return bitmask of DEVICE_OUT_* values
+     */
+    public int getAvailableDevices() {
+        return availableDevices;
+    }
+
+    /**
+     * Checks if any device of the type is connected
+     *
+     * @param type one of TYPE_* values
+     * @return true if connected
+     */
+    public boolean isConnected(int type) {
+        return (availableDevices & type) != 0;
+    }
+
+    /**
+     * Finds the entry
+     *
+     * @param type one of TYPE_* values
+     * @param address device address, null will be treated as empty
+     * @param port device port, null will be treated as empty
+     * @return the entry, null if not found
+     */
+    public Entry find(int type, String address, String port) {
+        if (address == null) {
+            address = "";
+        }
+        if (port == null) {
+            port = "";
+        }
+
+        int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            if (entry.type == type && entry.address.equals(address) && entry.port.equals(port)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtains the entry, registered as disconnected if not found
+     *
+     * @param type one of TYPE_* values
+     * @param address device address, null will be treated as empty
+     * @param port device port, null will be treated as empty
+     * @return the interned entry
+     */
+    public Entry intern(int type, String address, String port) {
+        Entry entry = find(type, address, port);
+        if (entry != null) {
+            return entry;
+        }
+
+        if (entries.size() >= MAX_ENTRIES) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (!entries.get(i).isConnected()) {
+                    entries.remove(i);
+                }
+            }
+        }
+
+        entry = new Entry(type, address == null ? "" : address, port == null ? "" : port);
+        entries.add(entry);
+        return entry;
+    }
+
+    private void updateAvailableDevices() {
+        int devices = 0;
+        int size = entries.size();
+        for (int i = 0; i < size; i++) {
+            devices |= entries.get(i).devices;
+        }
+        availableDevices = devices;
+    }
+}
@@ -0,0 +1,85 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Decides the interval of the drift detection probes.<br />
+ * The interval is doubled while the route is stable, up to the max interval. It is shortened to the min interval after the route changes, or the drift has been repaired.
+ *
+ * @author K.Shoji
+ * @see RouteReconciler#repairDrift()
+ */
+public final class DriftMonitor {
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private long intervalMillis;
+    private long probeCount;
+    private long driftCount;
+
+    /**
+     * Constructor
+     *
+     * @param minIntervalMillis the interval after changes, in milliseconds
+     * @param maxIntervalMillis the interval while stable, in milliseconds
+     */
+    public DriftMonitor(long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("0 < minIntervalMillis <= maxIntervalMillis is required");
+        }
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Records the result of the probe
+     *
+     * @param repaired the number of the re-applied values
+     * @return the delay until the next probe, in milliseconds
+     */
+    public long onProbe(int repaired) {
+        probeCount++;
+        if (repaired > 0) {
+            driftCount++;
+            intervalMillis = minIntervalMillis;
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+        }
+        return intervalMillis;
+    }
+
+    /**
+     * Records the route change, the next probe should be scheduled after the returned delay
+     *
+     * @return the delay until the next probe, in milliseconds
+     */
+    public long onRouteChanged() {
+        intervalMillis = minIntervalMillis;
+        return intervalMillis;
+    }
+
+    /**
+     * Obtains the current interval
+     *
+     * @return milliseconds
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Obtains the number of the probes
+     *
+     * @return the count
+     */
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * Obtains the number of the probes found the drift
+     *
+     * @return the count
+     */
+    public long getDriftCount() {
+        return driftCount;
+    }
+}
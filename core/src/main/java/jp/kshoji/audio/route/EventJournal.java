@@ -0,0 +1,250 @@
+package jp.kshoji.audio.route;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring buffer of the routing events, to reconstruct the incidents.<br />
+ * Recording is lock-free and allocates no objects, the oldest records are overwritten when the buffer is full.
+ * Each writer claims the slot with a CAS before writing, the record is dropped if the slot is still being written by the writer wrapped around the buffer.
+ * The records can be dumped in a compact binary format, and read back on any JVM.
+ * <ul>
+ * <li>{@link #KIND_BROADCAST}: code is one of DeviceRegistry.TYPE_* values, arg0 is the state, arg1 is the microphone flag, arg2 is 1 if seeded from the sticky broadcast, text0 is the address, text1 is the port</li>
+ * <li>{@link #KIND_DEVICE}: the resolved Bluetooth device. code is DeviceRegistry.TYPE_* value, arg0 is the DEVICE_OUT_* bitmask, arg1 is the device class, text0 is the address, text1 is the name</li>
+ * <li>{@link #KIND_ROUTE_MODE}: code is the ordinal of the route mode</li>
+ * <li>{@link #KIND_BACKEND_CALL}: code is one of MetricsListener.OPERATION_* values, arg0 is the device or the usage, arg1 is the state, the config or the suspended flag, arg2 is the result, text0 is the address, text1 is the name</li>
+ * </ul>
+ *
+ * @author K.Shoji
+ */
+public final class EventJournal {
+    public static final int KIND_BROADCAST = 1;
+    public static final int KIND_DEVICE = 2;
+    public static final int KIND_ROUTE_MODE = 3;
+    public static final int KIND_BACKEND_CALL = 4;
+
+    private static final int MAGIC = 0x41524a31;
+    private static final int VERSION = 1;
+    private static final int INTS_PER_RECORD = 5;
+    private static final int TEXTS_PER_RECORD = 2;
+
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // the sequence + 1 of the record in the slot, negative while writing
+    private final AtomicLongArray published;
+    private final AtomicLongArray times;
+    private final AtomicIntegerArray ints;
+    private final AtomicReferenceArray<String> texts;
+
+    /**
+     * Receives the records
+     */
+    public interface Visitor {
+        /**
+         * Called for each record, from the oldest
+         *
+         * @param timeNanos the time recorded, System.nanoTime()
+         * @param kind one of KIND_* values
+         * @param code the code, depends on the kind
+         * @param arg0 the argument, depends on the kind
+         * @param arg1 the argument, depends on the kind
+         * @param arg2 the argument, depends on the kind
+         * @param text0 the text, may be null
+         * @param text1 the text, may be null
+         */
+        void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of records, rounded up to the power of two
+     */
+    public EventJournal(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        times = new AtomicLongArray(size);
+        ints = new AtomicIntegerArray(size * INTS_PER_RECORD);
+        texts = new AtomicReferenceArray<>(size * TEXTS_PER_RECORD);
+    }
+
+    /**
+     * Obtains the number of records the buffer holds
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Records the event, may be called from any thread
+     *
+     * @param kind one of KIND_* values
+     * @param code the code, depends on the kind
+     * @param arg0 the argument, depends on the kind
+     * @param arg1 the argument, depends on the kind
+     * @param arg2 the argument, depends on the kind
+     * @param text0 the text, may be null
+     * @param text1 the text, may be null
+     */
+    public void record(int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        while (true) {
+            long current = published.get(slot);
+            if (current < 0 || current > sequence) {
+                // the older writer has wrapped onto the slot and not finished yet, or the newer record has been written
+                droppedCount.incrementAndGet();
+                return;
+            }
+            // claims the slot, no other writer can write it until published
+            if (published.compareAndSet(slot, current, -(sequence + 1))) {
+                break;
+            }
+        }
+
+        times.set(slot, System.nanoTime());
+        int intIndex = slot * INTS_PER_RECORD;
+        ints.set(intIndex, kind);
+        ints.set(intIndex + 1, code);
+        ints.set(intIndex + 2, arg0);
+        ints.set(intIndex + 3, arg1);
+        ints.set(intIndex + 4, arg2);
+        int textIndex = slot * TEXTS_PER_RECORD;
+        texts.set(textIndex, text0);
+        texts.set(textIndex + 1, text1);
+
+        published.set(slot, sequence + 1);
+    }
+
+    /**
+     * Obtains the number of the records not written, the slot was being written by the other writer
+     *
+     * @return the number of the dropped records
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Visits the records, from the oldest.<br />
+     * The records being written or overwritten while visiting are skipped.
+     *
+     * @param visitor the visitor
+     */
+    public void visit(Visitor visitor) {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - (mask + 1));
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence + 1) {
+                continue;
+            }
+
+            long time = times.get(slot);
+            int intIndex = slot * INTS_PER_RECORD;
+            int kind = ints.get(intIndex);
+            int code = ints.get(intIndex + 1);
+            int arg0 = ints.get(intIndex + 2);
+            int arg1 = ints.get(intIndex + 3);
+            int arg2 = ints.get(intIndex + 4);
+            int textIndex = slot * TEXTS_PER_RECORD;
+            String text0 = texts.get(textIndex);
+            String text1 = texts.get(textIndex + 1);
+
+            if (published.get(slot) != sequence + 1) {
+                continue;
+            }
+            visitor.onRecord(time, kind, code, arg0, arg1, arg2, text0, text1);
+        }
+    }
+
+    /**
+     * Writes the records in the binary format
+     *
+     * @param output the output
+     * @throws IOException if an I/O error occurs
+     */
+    public void dump(final DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        try {
+            visit(new Visitor() {
+                @Override
+                public void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+                    try {
+                        output.writeByte(kind);
+                        output.writeLong(timeNanos);
+                        output.writeInt(code);
+                        output.writeInt(arg0);
+                        output.writeInt(arg1);
+                        output.writeInt(arg2);
+                        writeText(output, text0);
+                        writeText(output, text1);
+                    } catch (IOException e) {
+                        throw new DumpException(e);
+                    }
+                }
+            });
+        } catch (DumpException e) {
+            throw (IOException) e.getCause();
+        }
+        // end mark
+        output.writeByte(0);
+    }
+
+    /**
+     * Reads the records written with {@link #dump(DataOutput)}
+     *
+     * @param input the input
+     * @param visitor the visitor
+     * @throws IOException if an I/O error occurs, or the input is unknown format
+     */
+    public static void read(DataInput input, Visitor visitor) throws IOException {
+        if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+            throw new IOException("Unknown journal format.");
+        }
+
+        int kind;
+        while ((kind = input.readByte()) != 0) {
+            long time = input.readLong();
+            int code = input.readInt();
+            int arg0 = input.readInt();
+            int arg1 = input.readInt();
+            int arg2 = input.readInt();
+            String text0 = readText(input);
+            String text1 = readText(input);
+            visitor.onRecord(time, kind, code, arg0, arg1, arg2, text0, text1);
+        }
+    }
+
+    private static void writeText(DataOutput output, String text) throws IOException {
+        output.writeBoolean(text != null);
+        if (text != null) {
+            output.writeUTF(text);
+        }
+    }
+
+    private static String readText(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * Carries the IOException out of the visitor
+     */
+    private static final class DumpException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DumpException(IOException cause) {
+            super(cause);
+        }
+    }
+}
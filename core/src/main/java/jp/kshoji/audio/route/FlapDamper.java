@@ -0,0 +1,266 @@
+package jp.kshoji.audio.route;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Damps the flapping devices, e.g. the cheap Bluetooth speakers and the loose dock connectors.<br />
+ * Each device has the penalty, increased on each connection state change and decayed exponentially with the half-life.
+ * When the penalty reaches the suppress threshold, the following changes are suppressed and the device is held in its last applied state,
+ * until the penalty decays below the reuse threshold.
+ *
+ * <pre>
+ * if (damper.update(device, connected, appliedConnected)) {
+ *     // apply the change
+ * } else {
+ *     // hold, and call poll() after getNextReleaseDelay()
+ * }
+ * </pre>
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class FlapDamper {
+    /**
+     * {@link #poll(List)} result: no devices are suppressed
+     */
+    public static final long NOT_SUPPRESSED = -1L;
+
+    public static final double DEFAULT_PENALTY = 1000;
+    public static final double DEFAULT_SUPPRESS_THRESHOLD = 2000;
+    public static final double DEFAULT_REUSE_THRESHOLD = 750;
+    public static final double DEFAULT_MAX_PENALTY = 6000;
+
+    private static final int CLEANUP_SIZE = 32;
+
+    private final double penalty;
+    private final double suppressThreshold;
+    private final double reuseThreshold;
+    private final double maxPenalty;
+    private final long halfLifeMillis;
+    private final Clock clock;
+    private final HashMap<Object, State> states = new HashMap<>();
+    private long suppressedTransitionCount;
+    private long suppressionCount;
+
+    /**
+     * The damping state of a device
+     */
+    private static final class State {
+        double penalty;
+        long updateTime;
+        boolean connected;
+        boolean suppressed;
+    }
+
+    /**
+     * Constructor, with the default thresholds
+     *
+     * @param halfLifeMillis the half-life of the penalty
+     * @param clock the time source
+     */
+    public FlapDamper(long halfLifeMillis, Clock clock) {
+        this(DEFAULT_PENALTY, DEFAULT_SUPPRESS_THRESHOLD, DEFAULT_REUSE_THRESHOLD, DEFAULT_MAX_PENALTY, halfLifeMillis, clock);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param penalty the penalty added on each state change
+     * @param suppressThreshold the penalty to start the suppression
+     * @param reuseThreshold the penalty to end the suppression, must be less than suppressThreshold
+     * @param maxPenalty the maximum penalty, limits the suppression to halfLifeMillis * log2(maxPenalty / reuseThreshold)
+     * @param halfLifeMillis the half-life of the penalty
+     * @param clock the time source
+     */
+    public FlapDamper(double penalty, double suppressThreshold, double reuseThreshold, double maxPenalty, long halfLifeMillis, Clock clock) {
+        if (penalty <= 0 || reuseThreshold <= 0 || suppressThreshold <= reuseThreshold || maxPenalty < suppressThreshold) {
+            throw new IllegalArgumentException("must be 0 < reuseThreshold < suppressThreshold <= maxPenalty, and 0 < penalty");
+        }
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLifeMillis must be positive");
+        }
+        this.penalty = penalty;
+        this.suppressThreshold = suppressThreshold;
+        this.reuseThreshold = reuseThreshold;
+        this.maxPenalty = maxPenalty;
+        this.halfLifeMillis = halfLifeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Records the connection state observed
+     *
+     * @param device the device key, compared with equals
+     * @param connected the state observed
+     * @param appliedConnected the state applied, used on the first observation of the device
+     * @return true if the state should be applied, false if suppressed
+     */
+    public boolean update(Object device, boolean connected, boolean appliedConnected) {
+        long now = clock.uptimeMillis();
+        State state = states.get(device);
+        if (state == null) {
+            if (states.size() >= CLEANUP_SIZE) {
+                cleanup(now);
+            }
+            state = new State();
+            state.connected = appliedConnected;
+            state.updateTime = now;
+            states.put(device, state);
+        }
+
+        decay(state, now);
+        if (state.suppressed && state.penalty < reuseThreshold) {
+            // settled, the caller applies this state instead of the held one
+            state.suppressed = false;
+        }
+        if (state.connected != connected) {
+            state.connected = connected;
+            state.penalty = Math.min(state.penalty + penalty, maxPenalty);
+            if (!state.suppressed && state.penalty >= suppressThreshold) {
+                state.suppressed = true;
+                suppressionCount++;
+            }
+            if (state.suppressed) {
+                suppressedTransitionCount++;
+            }
+        }
+        return !state.suppressed;
+    }
+
+    /**
+     * Releases the devices decayed below the reuse threshold
+     *
+     * @param released the released device keys will be added, the caller must apply their latest states
+     * @return the delay until the next release in milliseconds, or {@link #NOT_SUPPRESSED}
+     */
+    public long poll(List<Object> released) {
+        long now = clock.uptimeMillis();
+        long nextDelay = NOT_SUPPRESSED;
+        for (Map.Entry<Object, State> entry : states.entrySet()) {
+            State state = entry.getValue();
+            if (!state.suppressed) {
+                continue;
+            }
+
+            decay(state, now);
+            if (state.penalty < reuseThreshold) {
+                state.suppressed = false;
+                released.add(entry.getKey());
+            } else {
+                long delay = getReleaseDelay(state.penalty);
+                if (nextDelay == NOT_SUPPRESSED || delay < nextDelay) {
+                    nextDelay = delay;
+                }
+            }
+        }
+        return nextDelay;
+    }
+
+    /**
+     * Obtains the delay until the first suppressed device can be released with {@link #poll(List)}
+     *
+     * @return the delay in milliseconds, or {@link #NOT_SUPPRESSED}
+     */
+    public long getNextReleaseDelay() {
+        long now = clock.uptimeMillis();
+        long nextDelay = NOT_SUPPRESSED;
+        for (State state : states.values()) {
+            if (state.suppressed) {
+                long delay = getReleaseDelay(decayedPenalty(state, now));
+                if (nextDelay == NOT_SUPPRESSED || delay < nextDelay) {
+                    nextDelay = delay;
+                }
+            }
+        }
+        return nextDelay;
+    }
+
+    /**
+     * Checks if the device is suppressed
+     *
+     * @param device the device key
+     * @return true if suppressed
+     */
+    public boolean isSuppressed(Object device) {
+        State state = states.get(device);
+        return state != null && state.suppressed;
+    }
+
+    /**
+     * Obtains the number of the state changes suppressed
+     *
+     * @return the count
+     */
+    public long getSuppressedTransitionCount() {
+        return suppressedTransitionCount;
+    }
+
+    /**
+     * Obtains the number of the suppressions started
+     *
+     * @return the count
+     */
+    public long getSuppressionCount() {
+        return suppressionCount;
+    }
+
+    /**
+     * Forgets all the devices, the suppressed devices are released without being reported
+     */
+    public void clear() {
+        states.clear();
+    }
+
+    /**
+     * Decays the penalty to now, the suppression is ended only by the caller
+     *
+     * @param state the state
+     * @param now the current time
+     */
+    private void decay(State state, long now) {
+        state.penalty = decayedPenalty(state, now);
+        state.updateTime = now;
+    }
+
+    private double decayedPenalty(State state, long now) {
+        long elapsed = now - state.updateTime;
+        if (elapsed <= 0 || state.penalty == 0) {
+            return state.penalty;
+        }
+        return state.penalty * Math.pow(0.5, (double) elapsed / halfLifeMillis);
+    }
+
+    /**
+     * Obtains the time for the penalty to decay below the reuse threshold
+     *
+     * @param penalty the current penalty
+     * @return the delay in milliseconds, 0 if already below
+     */
+    private long getReleaseDelay(double penalty) {
+        if (penalty < reuseThreshold) {
+            return 0;
+        }
+        double halfLives = Math.log(penalty / reuseThreshold) / Math.log(2);
+        // + 1 to be below the threshold, not on it
+        return (long) Math.ceil(halfLives * halfLifeMillis) + 1;
+    }
+
+    /**
+     * Forgets the devices with the negligible penalty
+     *
+     * @param now the current time
+     */
+    private void cleanup(long now) {
+        Iterator<State> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            State state = iterator.next();
+            decay(state, now);
+            if (!state.suppressed && state.penalty < penalty / 16) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package jp.kshoji.audio.route;
+
+/**
+ * {@link AudioBackend} which records each call and its result to the {@link EventJournal}, then delegates to the other backend.<br />
+ * When no journal is set, the calls are only delegated.
+ *
+ * @author K.Shoji
+ */
+public final class JournalingAudioBackend implements AudioBackend {
+    private final AudioBackend backend;
+    private volatile EventJournal eventJournal;
+
+    /**
+     * Constructor
+     *
+     * @param backend the backend to delegate
+     */
+    public JournalingAudioBackend(AudioBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Set the journal
+     *
+     * @param eventJournal the journal, null to disable
+     */
+    public void setEventJournal(EventJournal eventJournal) {
+        this.eventJournal = eventJournal;
+    }
+
+    @Override
+    public boolean setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        boolean succeeded = backend.setDeviceConnectionState(device, state, deviceAddress, deviceName);
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_BACKEND_CALL, MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE, device, state, succeeded ? 1 : 0, deviceAddress, deviceName);
+        }
+        return succeeded;
+    }
+
+    @Override
+    public int getDeviceConnectionState(int device, String deviceAddress) {
+        int state = backend.getDeviceConnectionState(device, deviceAddress);
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_BACKEND_CALL, MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE, device, 0, state, deviceAddress, null);
+        }
+        return state;
+    }
+
+    @Override
+    public boolean setForceUse(int usage, int config) {
+        boolean succeeded = backend.setForceUse(usage, config);
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_BACKEND_CALL, MetricsListener.OPERATION_SET_FORCE_USE, usage, config, succeeded ? 1 : 0, null, null);
+        }
+        return succeeded;
+    }
+
+    @Override
+    public int getForceUse(int usage) {
+        int config = backend.getForceUse(usage);
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_BACKEND_CALL, MetricsListener.OPERATION_GET_FORCE_USE, usage, 0, config, null, null);
+        }
+        return config;
+    }
+
+    @Override
+    public boolean setA2dpSuspended(boolean suspended) {
+        boolean succeeded = backend.setA2dpSuspended(suspended);
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_BACKEND_CALL, MetricsListener.OPERATION_SET_A2DP_SUSPENDED, 0, suspended ? 1 : 0, succeeded ? 1 : 0, null, null);
+        }
+        return succeeded;
+    }
+}
@@ -0,0 +1,121 @@
+package jp.kshoji.audio.route;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of the durations, with the power-of-two nanosecond buckets.<br />
+ * Recording allocates no objects.
+ *
+ * @author K.Shoji
+ */
+public final class LatencyHistogram {
+    /**
+     * Number of the buckets, the bucket i holds the durations in [2^i, 2^(i+1)) nanoseconds
+     */
+    public static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records the duration
+     *
+     * @param durationNanos the duration, negative values are treated as 0
+     */
+    public void record(long durationNanos) {
+        if (durationNanos < 0) {
+            durationNanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(durationNanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(durationNanos);
+
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos));
+    }
+
+    /**
+     * Obtains the number of the recorded durations
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Obtains the count of the bucket
+     *
+     * @param bucket the bucket index, 0 to {@link #BUCKET_COUNT} - 1
+     * @return the count
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Obtains the mean duration
+     *
+     * @return nanoseconds, 0 if nothing recorded
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * Obtains the max duration
+     *
+     * @return nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Obtains the approximate percentile, the upper bound of the bucket containing it
+     *
+     * @param percentile 0 to 100
+     * @return nanoseconds, 0 if nothing recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(n * percentile / 100.0);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += buckets.get(i);
+            if (accumulated >= threshold) {
+                return i >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * Clears all the recorded durations
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    private static int bucketOf(long durationNanos) {
+        if (durationNanos == 0) {
+            return 0;
+        }
+        return 63 - Long.numberOfLeadingZeros(durationNanos);
+    }
+}
@@ -0,0 +1,60 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Receives the routing metrics, e.g. to forward them to the telemetry.<br />
+ * The methods are called on the routing thread, or the thread calling the hidden API wrapper (jp.kshoji.audio.util.AudioSystem). Must return quickly.
+ *
+ * @author K.Shoji
+ * @see RouteMetrics
+ */
+public interface MetricsListener {
+    /**
+     * AudioSystem.setDeviceConnectionState
+     */
+    int OPERATION_SET_DEVICE_CONNECTION_STATE = 0;
+    /**
+     * AudioSystem.setForceUse
+     */
+    int OPERATION_SET_FORCE_USE = 1;
+    /**
+     * AudioSystem.getForceUse
+     */
+    int OPERATION_GET_FORCE_USE = 2;
+    /**
+     * AudioManager.setParameters("A2dpSuspended=...")
+     */
+    int OPERATION_SET_A2DP_SUSPENDED = 3;
+    /**
+     * AudioSystem.getDeviceConnectionState
+     */
+    int OPERATION_GET_DEVICE_CONNECTION_STATE = 4;
+    /**
+     * Number of the operations
+     */
+    int OPERATION_COUNT = 5;
+
+    /**
+     * Called when a hidden API call has finished
+     *
+     * @param operation one of OPERATION_* values
+     * @param durationNanos the duration of the call
+     * @param succeeded false if the call has failed, or the method is not available
+     */
+    void onBackendCall(int operation, long durationNanos, boolean succeeded);
+
+    /**
+     * Called when a routing pass has finished
+     *
+     * @param durationNanos the duration of the routing pass
+     * @param issuedCalls the number of the calls issued in the pass
+     * @param skippedCalls the number of the calls skipped in the pass
+     */
+    void onRoutePass(long durationNanos, int issuedCalls, int skippedCalls);
+
+    /**
+     * Called when the route has been applied for the connection broadcasts
+     *
+     * @param latencyNanos the time from the first unapplied broadcast receipt to the end of the routing pass
+     */
+    void onRouteLatency(long latencyNanos);
+}
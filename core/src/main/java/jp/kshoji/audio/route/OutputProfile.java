@@ -0,0 +1,75 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Immutable output properties of the route, safe to share among the threads.<br />
+ * The values are queried once per output on the routing thread, and cached with {@link OutputProfileCache}.<br />
+ * The sample rate and the buffer size are the properties of the primary output of the audio policy, they are the same for all the routes on most devices.
+ * Only the latency is specific to the route. The output is switched asynchronously by the audio server, so the values queried just after the route change may still describe the previous output.
+ *
+ * @author K.Shoji
+ */
+public final class OutputProfile {
+    private final int type;
+    private final String address;
+    private final int sampleRate;
+    private final int framesPerBuffer;
+    private final int latencyMillis;
+
+    OutputProfile(int type, String address, int sampleRate, int framesPerBuffer, int latencyMillis) {
+        this.type = type;
+        this.address = address;
+        this.sampleRate = sampleRate;
+        this.framesPerBuffer = framesPerBuffer;
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Obtains the output type
+     *
+     * @return one of DeviceRegistry.TYPE_* values, or {@link RoutePolicy#TYPE_SPEAKER}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Obtains the address of the output device
+     *
+     * @return the address, empty for the speaker and the default headphone
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Obtains the native sample rate of the primary output
+     *
+     * @return the sample rate in Hz, 0 if unknown
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Obtains the native buffer size of the primary output
+     *
+     * @return the number of the frames, 0 if unknown
+     */
+    public int getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
+    /**
+     * Obtains the output latency reported by the audio policy
+     *
+     * @return the latency in milliseconds, 0 if unknown
+     */
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "OutputProfile{type=" + type + ", address='" + address + "', sampleRate=" + sampleRate + ", framesPerBuffer=" + framesPerBuffer + ", latencyMillis=" + latencyMillis + "}";
+    }
+}
@@ -0,0 +1,168 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Caches the output properties, keyed on the output type and the device address.<br />
+ * The properties are queried when the route switches to the output the first time, and reused while the same device identity (the name and the DEVICE_OUT_* variants) is routed,
+ * so reconnecting the same device queries nothing and allocates nothing. The entries are preallocated, and the least recently used entry is refilled when full.<br />
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class OutputProfileCache {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Slot[] slots;
+    private long useCount;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * The preallocated entry
+     */
+    private static final class Slot {
+        private int type;
+        private String address;
+        private String name;
+        private int devices;
+        private OutputProfile profile;
+        private long lastUsed;
+
+        boolean matches(int type, String address) {
+            return profile != null && this.type == type && this.address.equals(address);
+        }
+    }
+
+    /**
+     * Constructor, with the default capacity
+     */
+    public OutputProfileCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of the outputs cached
+     */
+    public OutputProfileCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Obtains the cached properties, if the device identity has not changed
+     *
+     * @param type one of DeviceRegistry.TYPE_* values, or {@link RoutePolicy#TYPE_SPEAKER}
+     * @param address the device address, empty for the speaker
+     * @param name the device name, null if unknown
+     * @param devices bitmask of the DEVICE_OUT_* variants of the device, 0 for the speaker
+     * @return the properties, null if not cached or the other device identity is cached
+     */
+    public OutputProfile get(int type, String address, String name, int devices) {
+        Slot slot = find(type, address == null ? "" : address);
+        if (slot == null || slot.devices != devices || !(slot.name == null ? name == null : slot.name.equals(name))) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        slot.lastUsed = ++useCount;
+        return slot.profile;
+    }
+
+    /**
+     * Caches the properties queried, refills the entry of the output or the least recently used entry
+     *
+     * @param type one of DeviceRegistry.TYPE_* values, or {@link RoutePolicy#TYPE_SPEAKER}
+     * @param address the device address, empty for the speaker
+     * @param name the device name, null if unknown
+     * @param devices bitmask of the DEVICE_OUT_* variants of the device, 0 for the speaker
+     * @param sampleRate the sample rate in Hz, 0 if unknown
+     * @param framesPerBuffer the number of the frames, 0 if unknown
+     * @param latencyMillis the latency in milliseconds, 0 if unknown
+     * @return the cached properties
+     */
+    public OutputProfile put(int type, String address, String name, int devices, int sampleRate, int framesPerBuffer, int latencyMillis) {
+        if (address == null) {
+            address = "";
+        }
+        Slot slot = find(type, address);
+        if (slot == null) {
+            slot = slots[0];
+            for (Slot candidate : slots) {
+                if (candidate.profile == null) {
+                    slot = candidate;
+                    break;
+                }
+                if (candidate.lastUsed < slot.lastUsed) {
+                    slot = candidate;
+                }
+            }
+        }
+
+        slot.type = type;
+        slot.address = address;
+        slot.name = name;
+        slot.devices = devices;
+        slot.profile = new OutputProfile(type, address, sampleRate, framesPerBuffer, latencyMillis);
+        slot.lastUsed = ++useCount;
+        return slot.profile;
+    }
+
+    /**
+     * Evicts all the properties
+     */
+    public void clear() {
+        for (Slot slot : slots) {
+            slot.address = null;
+            slot.name = null;
+            slot.profile = null;
+        }
+    }
+
+    /**
+     * Obtains the number of the cached entries
+     *
+     * @return the count
+     */
+    public int size() {
+        int size = 0;
+        for (Slot slot : slots) {
+            if (slot.profile != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Obtains the number of {@link #get(int, String, String, int)} calls answered from the cache
+     *
+     * @return the count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Obtains the number of {@link #get(int, String, String, int)} calls not answered from the cache
+     *
+     * @return the count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    private Slot find(int type, String address) {
+        for (Slot slot : slots) {
+            if (slot.matches(type, address)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+package jp.kshoji.audio.route;
+
+import java.util.ArrayList;
+
+/**
+ * Arbitrates the route requests of the multiple clients.<br />
+ * The request of the client with the highest priority wins. On the same priority, the most recent request wins.<br />
+ * This class is not thread-safe.
+ *
+ * @param <T> the request type
+ * @author K.Shoji
+ */
+public final class RouteArbiter<T> {
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private long sequence;
+    private T winner;
+
+    /**
+     * Represents a client
+     */
+    public final class Client {
+        private final int priority;
+        private T request;
+        private long requestSequence;
+
+        private Client(int priority) {
+            this.priority = priority;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Obtains the request
+         *
+         * @return the request, null if the client has no request
+         */
+        public T getRequest() {
+            return request;
+        }
+    }
+
+    /**
+     * Adds the client, without the request
+     *
+     * @param priority the priority, the higher wins
+     * @return the client
+     */
+    public Client addClient(int priority) {
+        Client client = new Client(priority);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Removes the client, and its request
+     *
+     * @param client the client
+     * @return true if the winner has been changed
+     */
+    public boolean removeClient(Client client) {
+        clients.remove(client);
+        return updateWinner();
+    }
+
+    /**
+     * Set the request of the client, overwrites the previous request
+     *
+     * @param client the client
+     * @param request the request, null to withdraw
+     * @return true if the winner has been changed
+     */
+    public boolean setRequest(Client client, T request) {
+        client.request = request;
+        client.requestSequence = ++sequence;
+        return updateWinner();
+    }
+
+    /**
+     * Obtains the winning request
+     *
+     * @return the request, null if no clients have requests
+     */
+    public T getWinner() {
+        return winner;
+    }
+
+    /**
+     * Obtains the number of the clients
+     *
+     * @return the count
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    private boolean updateWinner() {
+        Client winningClient = null;
+        int size = clients.size();
+        for (int i = 0; i < size; i++) {
+            Client client = clients.get(i);
+            if (client.request == null) {
+                continue;
+            }
+            if (winningClient == null || client.priority > winningClient.priority ||
+                    (client.priority == winningClient.priority && client.requestSequence > winningClient.requestSequence)) {
+                winningClient = client;
+            }
+        }
+
+        T newWinner = winningClient == null ? null : winningClient.request;
+        boolean changed = newWinner == null ? winner != null : !newWinner.equals(winner);
+        winner = newWinner;
+        return changed;
+    }
+}
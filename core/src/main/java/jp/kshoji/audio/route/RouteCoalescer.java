@@ -0,0 +1,116 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Coalesces the bursts of the device updates into a single route application.<br />
+ * The route will be applied when no updates arrived during the quiet window.
+ *
+ * <pre>
+ * if (coalescer.update()) {
+ *     // schedule the first check after {@link #getQuietWindowMillis()}
+ * }
+ * ...
+ * long delay = coalescer.poll();
+ * if (delay == 0) {
+ *     // apply the route
+ * } else if (delay &gt; 0) {
+ *     // check again after delay
+ * }
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class RouteCoalescer {
+    /**
+     * {@link #poll()} result: there are no pending updates
+     */
+    public static final long NOT_PENDING = -1L;
+
+    private final Clock clock;
+    private final long quietWindowMillis;
+    private boolean pending;
+    private long lastUpdateTime;
+    private long coalescedCount;
+
+    /**
+     * Constructor
+     *
+     * @param quietWindowMillis the quiet window in milliseconds
+     * @param clock the time source
+     */
+    public RouteCoalescer(long quietWindowMillis, Clock clock) {
+        if (quietWindowMillis < 0) {
+            throw new IllegalArgumentException("quietWindowMillis must not be negative");
+        }
+        this.quietWindowMillis = quietWindowMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Obtains the quiet window
+     *
+     * @return milliseconds
+     */
+    public long getQuietWindowMillis() {
+        return quietWindowMillis;
+    }
+
+    /**
+     * Records a device update, and restarts the quiet window
+     *
+     * @return true if a new window has been opened, the caller must schedule {@link #poll()}
+     */
+    public boolean update() {
+        lastUpdateTime = clock.uptimeMillis();
+        if (pending) {
+            coalescedCount++;
+            return false;
+        }
+
+        pending = true;
+        return true;
+    }
+
+    /**
+     * Checks the quiet window
+     *
+     * @return 0 if the route should be applied now, {@link #NOT_PENDING} if there are no pending updates, or the remaining milliseconds to wait
+     */
+    public long poll() {
+        if (!pending) {
+            return NOT_PENDING;
+        }
+
+        long remaining = lastUpdateTime + quietWindowMillis - clock.uptimeMillis();
+        if (remaining > 0) {
+            return remaining;
+        }
+
+        pending = false;
+        return 0;
+    }
+
+    /**
+     * Discards the pending updates, e.g. the route has been applied by other reason
+     */
+    public void cancel() {
+        pending = false;
+    }
+
+    /**
+     * Checks if there are pending updates
+     *
+     * @return true if pending
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Obtains the number of updates merged into the other route application
+     *
+     * @return the count
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+}
@@ -0,0 +1,216 @@
+package jp.kshoji.audio.route;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the routing tasks one by one, in the submitted order, on the specified {@link Executor}.<br />
+ * The task submitted with {@link #submitLatest(Callable)} supersedes the previous one, if it has not been started yet.<br />
+ * The tasks are queued in a ring buffer, so {@link #execute(Runnable)} allocates no objects once the capacity has grown.<br />
+ * The exception thrown by a task is logged, and the following tasks will be run.<br />
+ * The tasks are run by the thread draining the queue. With the executor running the command on the calling thread,
+ * the task submitted while another thread is draining is run by that thread, so the submitting call returns before the task has run. Wait for the future to know it has run.
+ *
+ * @author K.Shoji
+ */
+public final class RouteExecutor {
+    private static final Logger LOGGER = Logger.getLogger(RouteExecutor.class.getName());
+
+    private final Executor executor;
+    private final Object lock = new Object();
+    private Runnable[] queue = new Runnable[16];
+    private int head;
+    private int size;
+    private FutureTask<?> latestTask;
+    private boolean draining;
+    private boolean shutdown;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                for (;;) {
+                    Runnable task;
+                    synchronized (lock) {
+                        task = poll();
+                        if (task == null) {
+                            draining = false;
+                            drained = true;
+                            return;
+                        }
+                        if (task == latestTask) {
+                            latestTask = null;
+                        }
+                    }
+
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // one broken event must not stall the routing
+                        LOGGER.log(Level.WARNING, "The routing task failed", e);
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    // an Error has been thrown, the remaining tasks will be run on the next drain
+                    boolean remaining;
+                    synchronized (lock) {
+                        remaining = size > 0;
+                        if (!remaining) {
+                            draining = false;
+                        }
+                    }
+                    if (remaining) {
+                        scheduleDrain();
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param executor the executor, the tasks will not run concurrently even if the executor has multiple threads
+     */
+    public RouteExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the task, without the future
+     *
+     * @param task the task
+     * @return false if this executor has been shut down
+     */
+    public boolean execute(Runnable task) {
+        return enqueue(task, false);
+    }
+
+    /**
+     * Submits the task
+     *
+     * @param task the task
+     * @param <T> the result type
+     * @return the future, cancelled if this executor has been shut down
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        if (!enqueue(futureTask, false)) {
+            futureTask.cancel(false);
+        }
+        return futureTask;
+    }
+
+    /**
+     * Submits the task, and cancels the previous task submitted with this method if it has not been started yet
+     *
+     * @param task the task
+     * @param <T> the result type
+     * @return the future, cancelled if superseded by the newer task
+     */
+    public <T> Future<T> submitLatest(Callable<T> task) {
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        if (!enqueue(futureTask, true)) {
+            futureTask.cancel(false);
+        }
+        return futureTask;
+    }
+
+    /**
+     * Stops accepting the new tasks, the queued tasks will be run
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+        }
+    }
+
+    private boolean enqueue(Runnable task, boolean latest) {
+        synchronized (lock) {
+            if (shutdown) {
+                return false;
+            }
+
+            if (latest) {
+                if (latestTask != null) {
+                    remove(latestTask);
+                    latestTask.cancel(false);
+                }
+                latestTask = (FutureTask<?>) task;
+            }
+            offer(task);
+
+            if (draining) {
+                return true;
+            }
+            draining = true;
+        }
+
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Runs the queued tasks on the executor, the draining flag must be set
+     */
+    private void scheduleDrain() {
+        try {
+            executor.execute(drainRunnable);
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                Runnable queuedTask;
+                while ((queuedTask = poll()) != null) {
+                    if (queuedTask instanceof Future) {
+                        ((Future<?>) queuedTask).cancel(false);
+                    }
+                }
+                latestTask = null;
+                draining = false;
+            }
+        }
+    }
+
+    private void offer(Runnable task) {
+        if (size == queue.length) {
+            Runnable[] newQueue = new Runnable[size * 2];
+            for (int i = 0; i < size; i++) {
+                newQueue[i] = queue[(head + i) % queue.length];
+            }
+            queue = newQueue;
+            head = 0;
+        }
+        queue[(head + size) % queue.length] = task;
+        size++;
+    }
+
+    private Runnable poll() {
+        if (size == 0) {
+            return null;
+        }
+        Runnable task = queue[head];
+        queue[head] = null;
+        head = (head + 1) % queue.length;
+        size--;
+        return task;
+    }
+
+    private void remove(Runnable task) {
+        for (int i = 0; i < size; i++) {
+            if (queue[(head + i) % queue.length] == task) {
+                for (int j = i; j < size - 1; j++) {
+                    queue[(head + j) % queue.length] = queue[(head + j + 1) % queue.length];
+                }
+                size--;
+                queue[(head + size) % queue.length] = null;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package jp.kshoji.audio.route;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link MetricsListener} aggregating the metrics into the histograms and the counters.
+ *
+ * <pre>
+ * RouteMetrics metrics = new RouteMetrics();
+ * AudioSystem.setMetricsListener(metrics);
+ * audioRouter.setMetricsListener(metrics);
+ * </pre>
+ *
+ * @author K.Shoji
+ */
+public final class RouteMetrics implements MetricsListener {
+    private final LatencyHistogram[] backendCallHistograms = new LatencyHistogram[OPERATION_COUNT];
+    private final AtomicLongArray failureCounts = new AtomicLongArray(OPERATION_COUNT);
+    private final LatencyHistogram routePassHistogram = new LatencyHistogram();
+    private final LatencyHistogram routeLatencyHistogram = new LatencyHistogram();
+    private final AtomicLong issuedCallCount = new AtomicLong();
+    private final AtomicLong skippedCallCount = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public RouteMetrics() {
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            backendCallHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onBackendCall(int operation, long durationNanos, boolean succeeded) {
+        backendCallHistograms[operation].record(durationNanos);
+        if (!succeeded) {
+            failureCounts.incrementAndGet(operation);
+        }
+    }
+
+    @Override
+    public void onRoutePass(long durationNanos, int issuedCalls, int skippedCalls) {
+        routePassHistogram.record(durationNanos);
+        issuedCallCount.addAndGet(issuedCalls);
+        skippedCallCount.addAndGet(skippedCalls);
+    }
+
+    @Override
+    public void onRouteLatency(long latencyNanos) {
+        routeLatencyHistogram.record(latencyNanos);
+    }
+
+    /**
+     * Obtains the durations of the hidden API call
+     *
+     * @param operation one of OPERATION_* values
+     * @return the histogram
+     */
+    public LatencyHistogram getBackendCallHistogram(int operation) {
+        return backendCallHistograms[operation];
+    }
+
+    /**
+     * Obtains the number of the failed hidden API calls
+     *
+     * @param operation one of OPERATION_* values
+     * @return the count
+     */
+    public long getFailureCount(int operation) {
+        return failureCounts.get(operation);
+    }
+
+    /**
+     * Obtains the durations of the routing passes
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getRoutePassHistogram() {
+        return routePassHistogram;
+    }
+
+    /**
+     * Obtains the latencies from the broadcast receipt to the route applied
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getRouteLatencyHistogram() {
+        return routeLatencyHistogram;
+    }
+
+    /**
+     * Obtains the number of the calls issued in the routing passes
+     *
+     * @return the count
+     */
+    public long getIssuedCallCount() {
+        return issuedCallCount.get();
+    }
+
+    /**
+     * Obtains the number of the calls skipped in the routing passes
+     *
+     * @return the count
+     */
+    public long getSkippedCallCount() {
+        return skippedCallCount.get();
+    }
+
+    /**
+     * Clears all the metrics
+     */
+    public void reset() {
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            backendCallHistograms[i].reset();
+            failureCounts.set(i, 0);
+        }
+        routePassHistogram.reset();
+        routeLatencyHistogram.reset();
+        issuedCallCount.set(0);
+        skippedCallCount.set(0);
+    }
+}
@@ -0,0 +1,164 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Computes the route to the selected output: the force-use config of FOR_MEDIA, the A2DP suspended flag,
+ * and the device connection states of the selected output and all the other outputs.<br />
+ * The route is computed from {@link DeviceRegistry} only, and applied with {@link RouteReconciler}.
+ *
+ * @author K.Shoji
+ */
+public final class RoutePlanner {
+    private static final RouteState.Device SPEAKER = new RouteState.Device(AudioConstants.DEVICE_OUT_SPEAKER, "", "");
+    private static final RouteState.Device DEFAULT_HEADPHONE = new RouteState.Device(AudioConstants.DEVICE_OUT_WIRED_HEADPHONE, "", "");
+
+    private RoutePlanner() {
+    }
+
+    /**
+     * Computes the route to the output
+     *
+     * @param type the output, DeviceRegistry.TYPE_*, {@link RoutePolicy#TYPE_SPEAKER}, or {@link RoutePolicy#TYPE_NONE} to leave the route untouched
+     * @param deviceRegistry the connected devices
+     * @param route the route to set the values
+     */
+    public static void plan(int type, DeviceRegistry deviceRegistry, RouteState route) {
+        switch (type) {
+            case DeviceRegistry.TYPE_WIRED_HEADSET:
+                // disable other sources
+                setupSpeaker(route, false);
+                setupUsbAudio(deviceRegistry, route, false);
+                setupBluetoothA2DP(deviceRegistry, route, false);
+
+                // enable headphone
+                setupHeadphone(deviceRegistry, route, true);
+                break;
+            case RoutePolicy.TYPE_SPEAKER:
+                // disable other sources
+                setupHeadphone(deviceRegistry, route, false);
+                setupUsbAudio(deviceRegistry, route, false);
+                setupBluetoothA2DP(deviceRegistry, route, false);
+
+                // enable speaker
+                setupSpeaker(route, true);
+                break;
+            case DeviceRegistry.TYPE_USB_AUDIO:
+                // disable other sources
+                setupHeadphone(deviceRegistry, route, false);
+                setupSpeaker(route, false);
+                setupBluetoothA2DP(deviceRegistry, route, false);
+
+                // enable USB Audio
+                setupUsbAudio(deviceRegistry, route, true);
+                break;
+            case DeviceRegistry.TYPE_BLUETOOTH_A2DP:
+                // disable other sources
+                setupHeadphone(deviceRegistry, route, false);
+                setupSpeaker(route, false);
+                setupUsbAudio(deviceRegistry, route, false);
+
+                // enable bluetooth A2DP
+                setupBluetoothA2DP(deviceRegistry, route, true);
+                break;
+            default:
+                // do nothing
+                break;
+        }
+    }
+
+    /**
+     * Sets up headphone routing
+     *
+     * @param deviceRegistry the connected devices
+     * @param route the route
+     * @param enabled headphone status
+     */
+    private static void setupHeadphone(DeviceRegistry deviceRegistry, RouteState route, boolean enabled) {
+        int status = enabled ? AudioConstants.DEVICE_STATE_AVAILABLE : AudioConstants.DEVICE_STATE_UNAVAILABLE;
+        if (enabled) {
+            route.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_HEADPHONES);
+        }
+
+        if (deviceRegistry.isConnected(DeviceRegistry.TYPE_WIRED_HEADSET)) {
+            setupConnectedDevices(deviceRegistry, route, DeviceRegistry.TYPE_WIRED_HEADSET, status);
+        } else {
+            route.setDeviceConnectionState(DEFAULT_HEADPHONE, status);
+        }
+    }
+
+    /**
+     * Sets up speaker routing
+     *
+     * @param route the route
+     * @param enabled speaker status
+     */
+    private static void setupSpeaker(RouteState route, boolean enabled) {
+        if (enabled) {
+            route.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+            route.setDeviceConnectionState(SPEAKER, AudioConstants.DEVICE_STATE_AVAILABLE);
+        } else {
+            route.setDeviceConnectionState(SPEAKER, AudioConstants.DEVICE_STATE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Sets up Bluetooth A2DP routing
+     *
+     * @param deviceRegistry the connected devices
+     * @param route the route
+     * @param enabled Bluetooth A2DP status
+     */
+    private static void setupBluetoothA2DP(DeviceRegistry deviceRegistry, RouteState route, boolean enabled) {
+        int status;
+        if (enabled) {
+            route.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_BT_A2DP);
+            route.setA2dpSuspended(false);
+            status = AudioConstants.DEVICE_STATE_AVAILABLE;
+        } else {
+            route.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_NO_BT_A2DP);
+            route.setA2dpSuspended(true);
+            status = AudioConstants.DEVICE_STATE_UNAVAILABLE;
+        }
+
+        setupConnectedDevices(deviceRegistry, route, DeviceRegistry.TYPE_BLUETOOTH_A2DP, status);
+    }
+
+    /**
+     * Sets up USB Audio routing
+     *
+     * @param deviceRegistry the connected devices
+     * @param route the route
+     * @param enabled USB Audio status
+     */
+    private static void setupUsbAudio(DeviceRegistry deviceRegistry, RouteState route, boolean enabled) {
+        if (enabled) {
+            route.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_ANALOG_DOCK);
+        }
+
+        setupConnectedDevices(deviceRegistry, route, DeviceRegistry.TYPE_USB_AUDIO, enabled ? AudioConstants.DEVICE_STATE_AVAILABLE : AudioConstants.DEVICE_STATE_UNAVAILABLE);
+    }
+
+    /**
+     * Sets up all the available devices of the connected devices
+     *
+     * @param deviceRegistry the connected devices
+     * @param route the route
+     * @param type one of DeviceRegistry.TYPE_* values
+     * @param status DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     */
+    private static void setupConnectedDevices(DeviceRegistry deviceRegistry, RouteState route, int type, int status) {
+        int size = deviceRegistry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.getType() != type) {
+                continue;
+            }
+
+            int devices = entry.getDevices();
+            while (devices != 0) {
+                int device = Integer.lowestOneBit(devices);
+                route.setDeviceConnectionState(entry.getRouteDevice(device), status);
+                devices &= ~device;
+            }
+        }
+    }
+}
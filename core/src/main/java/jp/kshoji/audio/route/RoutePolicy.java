@@ -0,0 +1,187 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Selects the best available output, with the ordered preference list of the device types.<br />
+ * Each device type is a tier, and the first tier having an eligible connected device will be selected. The speaker tier is always eligible.<br />
+ * On each device update, only the tier of the updated device type is recomputed.<br />
+ * This class is not thread-safe, must be used from the routing thread.
+ *
+ * @author K.Shoji
+ */
+public final class RoutePolicy {
+    /**
+     * The speaker tier, always eligible
+     */
+    public static final int TYPE_SPEAKER = AudioConstants.DEVICE_OUT_SPEAKER;
+
+    /**
+     * No tier is eligible
+     */
+    public static final int TYPE_NONE = 0;
+
+    /**
+     * Decides if the connected device can be selected
+     */
+    public interface DeviceRule {
+        /**
+         * Checks the device
+         *
+         * @param entry the connected device
+         * @return true if the device can be selected
+         */
+        boolean isEligible(DeviceRegistry.Entry entry);
+    }
+
+    private final int[] preferences;
+    private final DeviceRule[] rules;
+    private final int[] eligibleCounts;
+    private int selectedType = TYPE_NONE;
+
+    /**
+     * Constructor
+     *
+     * @param preferences the device types in the preferred order, DeviceRegistry.TYPE_* or {@link #TYPE_SPEAKER}
+     */
+    public RoutePolicy(int... preferences) {
+        this.preferences = preferences.clone();
+        this.rules = new DeviceRule[preferences.length];
+        this.eligibleCounts = new int[preferences.length];
+    }
+
+    /**
+     * Creates the default policy: USB Audio, Bluetooth A2DP, wired headset, then speaker
+     *
+     * @return the policy
+     */
+    public static RoutePolicy createDefault() {
+        return new RoutePolicy(DeviceRegistry.TYPE_USB_AUDIO, DeviceRegistry.TYPE_BLUETOOTH_A2DP, DeviceRegistry.TYPE_WIRED_HEADSET, TYPE_SPEAKER);
+    }
+
+    /**
+     * Creates the rule accepting only the specified device classes
+     *
+     * @param deviceClasses the device classes, e.g. BluetoothClass.Device values
+     * @return the rule
+     */
+    public static DeviceRule acceptDeviceClasses(final int... deviceClasses) {
+        return new DeviceRule() {
+            @Override
+            public boolean isEligible(DeviceRegistry.Entry entry) {
+                return contains(deviceClasses, entry.getDeviceClass());
+            }
+        };
+    }
+
+    /**
+     * Creates the rule rejecting the specified device classes
+     *
+     * @param deviceClasses the device classes, e.g. BluetoothClass.Device values
+     * @return the rule
+     */
+    public static DeviceRule rejectDeviceClasses(final int... deviceClasses) {
+        return new DeviceRule() {
+            @Override
+            public boolean isEligible(DeviceRegistry.Entry entry) {
+                return !contains(deviceClasses, entry.getDeviceClass());
+            }
+        };
+    }
+
+    /**
+     * Set the rule for the device type. {@link #evaluate(DeviceRegistry)} must be called after changing the rules.
+     *
+     * @param type the device type in the preference list
+     * @param rule the rule, null to accept all the devices
+     */
+    public void setDeviceRule(int type, DeviceRule rule) {
+        int tier = tierOf(type);
+        if (tier < 0) {
+            throw new IllegalArgumentException("type is not in the preference list");
+        }
+        rules[tier] = rule;
+    }
+
+    /**
+     * Recomputes all the tiers
+     *
+     * @param registry the device registry
+     * @return the selected type
+     */
+    public int evaluate(DeviceRegistry registry) {
+        for (int tier = 0; tier < preferences.length; tier++) {
+            eligibleCounts[tier] = countEligible(registry, tier);
+        }
+        return select();
+    }
+
+    /**
+     * Recomputes only the tier of the updated device type
+     *
+     * @param registry the device registry
+     * @param type the updated device type
+     * @return the selected type
+     */
+    public int update(DeviceRegistry registry, int type) {
+        int tier = tierOf(type);
+        if (tier >= 0) {
+            eligibleCounts[tier] = countEligible(registry, tier);
+        }
+        return select();
+    }
+
+    /**
+     * Obtains the selected type
+     *
+     * @return DeviceRegistry.TYPE_*, {@link #TYPE_SPEAKER}, or {@link #TYPE_NONE}
+     */
+    public int getSelectedType() {
+        return selectedType;
+    }
+
+    private int select() {
+        selectedType = TYPE_NONE;
+        for (int tier = 0; tier < preferences.length; tier++) {
+            if (eligibleCounts[tier] > 0) {
+                selectedType = preferences[tier];
+                break;
+            }
+        }
+        return selectedType;
+    }
+
+    private int countEligible(DeviceRegistry registry, int tier) {
+        int type = preferences[tier];
+        if (type == TYPE_SPEAKER) {
+            return 1;
+        }
+
+        int count = 0;
+        DeviceRule rule = rules[tier];
+        int size = registry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = registry.get(i);
+            if (entry.getType() == type && entry.isConnected() && (rule == null || rule.isEligible(entry))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int tierOf(int type) {
+        for (int tier = 0; tier < preferences.length; tier++) {
+            if (preferences[tier] == type) {
+                return tier;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
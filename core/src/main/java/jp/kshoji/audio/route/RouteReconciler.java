@@ -0,0 +1,301 @@
+package jp.kshoji.audio.route;
+
+/**
+ * Applies the desired {@link RouteState} to the {@link AudioBackend}.<br />
+ * The desired state is compared with the last applied state, and only the changed values will be issued.
+ * <ul>
+ * <li>The devices not contained in the desired state will be forgotten, without issuing any calls.</li>
+ * <li>The calls are issued in this order: unavailable devices, A2DP suspended flag, force-use configs, available devices.</li>
+ * <li>The force-use config of each usage is read back once, before the first change, to be restored with {@link #restoreForceUse()}.</li>
+ * <li>The values rejected by the backend are forgotten, so the next {@link #apply(RouteState)} issues them again. Check {@link #hasFailedCalls()} to schedule the retry.</li>
+ * </ul>
+ *
+ * @author K.Shoji
+ */
+public final class RouteReconciler {
+    private final AudioBackend backend;
+    private final RouteState applied = new RouteState();
+    private final int[] originalForceUse = new int[RouteState.USAGE_COUNT];
+    // written only by the routing thread
+    private volatile long issuedCallCount;
+    private volatile long skippedCallCount;
+    private volatile long repairedCallCount;
+    private volatile long failedCallCount;
+    // the number of the calls failed in the last pass
+    private int pendingFailureCount;
+
+    /**
+     * Constructor
+     *
+     * @param backend the backend
+     */
+    public RouteReconciler(AudioBackend backend) {
+        this.backend = backend;
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            originalForceUse[usage] = RouteState.FORCE_UNSPECIFIED;
+        }
+    }
+
+    /**
+     * Applies the desired state, issues only the delta
+     *
+     * @param desired the desired state
+     */
+    public void apply(RouteState desired) {
+        pendingFailureCount = 0;
+        applied.retainDevices(desired);
+
+        int deviceCount = desired.getDeviceCount();
+        for (int i = 0; i < deviceCount; i++) {
+            if (desired.getDeviceConnectionState(i) == AudioConstants.DEVICE_STATE_UNAVAILABLE) {
+                applyDevice(desired.getDevice(i), AudioConstants.DEVICE_STATE_UNAVAILABLE);
+            }
+        }
+
+        Boolean a2dpSuspended = desired.getA2dpSuspended();
+        if (a2dpSuspended != null) {
+            if (a2dpSuspended.equals(applied.getA2dpSuspended())) {
+                skippedCallCount++;
+            } else {
+                if (backend.setA2dpSuspended(a2dpSuspended)) {
+                    applied.setA2dpSuspended(a2dpSuspended);
+                } else {
+                    // the flag can not be read back, the state is unknown
+                    applied.setA2dpSuspended(null);
+                    onFailure();
+                }
+                issuedCallCount++;
+            }
+        }
+
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            int config = desired.getForceUse(usage);
+            if (config == RouteState.FORCE_UNSPECIFIED) {
+                continue;
+            }
+            if (config == applied.getForceUse(usage)) {
+                skippedCallCount++;
+            } else {
+                if (originalForceUse[usage] == RouteState.FORCE_UNSPECIFIED) {
+                    // remember the value before this reconciler changes it the first time, read again on the next change if failed
+                    int original = backend.getForceUse(usage);
+                    originalForceUse[usage] = original == AudioBackend.READ_FAILED ? RouteState.FORCE_UNSPECIFIED : original;
+                }
+                if (backend.setForceUse(usage, config)) {
+                    applied.setForceUse(usage, config);
+                } else {
+                    applied.setForceUse(usage, RouteState.FORCE_UNSPECIFIED);
+                    onFailure();
+                }
+                issuedCallCount++;
+            }
+        }
+
+        for (int i = 0; i < deviceCount; i++) {
+            int state = desired.getDeviceConnectionState(i);
+            if (state != AudioConstants.DEVICE_STATE_UNAVAILABLE) {
+                applyDevice(desired.getDevice(i), state);
+            }
+        }
+    }
+
+    /**
+     * Applies the device connection state if changed
+     *
+     * @param device the device
+     * @param state the state
+     */
+    private void applyDevice(RouteState.Device device, int state) {
+        if (applied.getDeviceConnectionState(device) == state) {
+            skippedCallCount++;
+            return;
+        }
+
+        if (backend.setDeviceConnectionState(device.getType(), state, device.getAddress(), device.getName())) {
+            applied.setDeviceConnectionState(device, state);
+        } else {
+            applied.removeDevice(device);
+            onFailure();
+        }
+        issuedCallCount++;
+    }
+
+    /**
+     * Records the call rejected by the backend
+     */
+    private void onFailure() {
+        pendingFailureCount++;
+        failedCallCount++;
+    }
+
+    /**
+     * Reads back the force-use configs and the device connection states from the backend, and re-applies the values changed by others.<br />
+     * The A2DP suspended flag can not be read back, so it is not checked. The values failed to read back are skipped, not counted as the drift.
+     * The values failed to re-apply are forgotten, and issued again on the next {@link #apply(RouteState)}.
+     *
+     * @return the number of the re-applied values
+     */
+    public int repairDrift() {
+        int repaired = 0;
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            int config = applied.getForceUse(usage);
+            if (config == RouteState.FORCE_UNSPECIFIED) {
+                continue;
+            }
+            int current = backend.getForceUse(usage);
+            if (current != AudioBackend.READ_FAILED && current != config) {
+                if (backend.setForceUse(usage, config)) {
+                    repaired++;
+                } else {
+                    applied.setForceUse(usage, RouteState.FORCE_UNSPECIFIED);
+                    onFailure();
+                }
+            }
+        }
+
+        for (int i = applied.getDeviceCount() - 1; i >= 0; i--) {
+            RouteState.Device device = applied.getDevice(i);
+            int state = applied.getDeviceConnectionState(i);
+            int current = backend.getDeviceConnectionState(device.getType(), device.getAddress());
+            if (current != AudioBackend.READ_FAILED && current != state) {
+                if (backend.setDeviceConnectionState(device.getType(), state, device.getAddress(), device.getName())) {
+                    repaired++;
+                } else {
+                    // iterating backwards, the removal does not shift the unvisited devices
+                    applied.removeDevice(device);
+                    onFailure();
+                }
+            }
+        }
+
+        repairedCallCount += repaired;
+        return repaired;
+    }
+
+    /**
+     * Restores the force-use configs of all the usages changed by this reconciler, to the values read before the first change.<br />
+     * The restored values become the last applied state, so the unchanged usages issue no calls.
+     * The usages failed to restore are kept, and restored again on the next call.
+     *
+     * @return the number of the restored usages
+     */
+    public int restoreForceUse() {
+        int restored = 0;
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            int config = originalForceUse[usage];
+            if (config == RouteState.FORCE_UNSPECIFIED) {
+                continue;
+            }
+            originalForceUse[usage] = RouteState.FORCE_UNSPECIFIED;
+
+            if (config == applied.getForceUse(usage)) {
+                skippedCallCount++;
+            } else {
+                if (backend.setForceUse(usage, config)) {
+                    applied.setForceUse(usage, config);
+                    restored++;
+                } else {
+                    originalForceUse[usage] = config;
+                    applied.setForceUse(usage, RouteState.FORCE_UNSPECIFIED);
+                    onFailure();
+                }
+                issuedCallCount++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Obtains the force-use config last applied by this reconciler
+     *
+     * @param usage audio usage
+     * @return device categories config, or {@link RouteState#FORCE_UNSPECIFIED} if not applied
+     */
+    public int getAppliedForceUse(int usage) {
+        return applied.getForceUse(usage);
+    }
+
+    /**
+     * Obtains the force-use config read before the first change
+     *
+     * @param usage audio usage
+     * @return device categories config, or {@link RouteState#FORCE_UNSPECIFIED} if not changed by this reconciler
+     */
+    public int getOriginalForceUse(int usage) {
+        return originalForceUse[usage];
+    }
+
+    /**
+     * Set the force-use config to be restored, e.g. the value remembered by the previous process.<br />
+     * Ignored if the value has been already read.
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     */
+    public void setOriginalForceUse(int usage, int config) {
+        if (originalForceUse[usage] == RouteState.FORCE_UNSPECIFIED) {
+            originalForceUse[usage] = config;
+        }
+    }
+
+    /**
+     * Forgets the last applied state, the next {@link #apply(RouteState)} will issue all the values.<br />
+     * Must be called when the route may have been changed by other than this reconciler.
+     */
+    public void invalidate() {
+        applied.clear();
+    }
+
+    /**
+     * Forgets the A2DP suspended flag last applied, the next {@link #apply(RouteState)} will issue it again.<br />
+     * Must be called when a Bluetooth A2DP device has been connected, the audio service resumes A2DP on a new connection.
+     */
+    public void invalidateA2dpSuspended() {
+        applied.setA2dpSuspended(null);
+    }
+
+    /**
+     * Obtains the number of calls issued to the backend
+     *
+     * @return the count
+     */
+    public long getIssuedCallCount() {
+        return issuedCallCount;
+    }
+
+    /**
+     * Obtains the number of calls skipped, because the value has been already applied
+     *
+     * @return the count
+     */
+    public long getSkippedCallCount() {
+        return skippedCallCount;
+    }
+
+    /**
+     * Checks if any calls have been rejected by the backend in the last {@link #apply(RouteState)}, or the following {@link #repairDrift()} and {@link #restoreForceUse()}
+     *
+     * @return true if the route should be applied again
+     */
+    public boolean hasFailedCalls() {
+        return pendingFailureCount != 0;
+    }
+
+    /**
+     * Obtains the number of calls rejected by the backend
+     *
+     * @return the count
+     */
+    public long getFailedCallCount() {
+        return failedCallCount;
+    }
+
+    /**
+     * Obtains the number of calls re-applied by {@link #repairDrift()}
+     *
+     * @return the count
+     */
+    public long getRepairedCallCount() {
+        return repairedCallCount;
+    }
+}
@@ -0,0 +1,108 @@
+package jp.kshoji.audio.route;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary snapshot of the connected devices and the force-use configs to be restored, used to seed the next process.<br />
+ * The format is: magic, version, boot time, original force-use configs, then the connected entries of {@link DeviceRegistry}.<br />
+ * The snapshot taken on the previous boot is ignored, because the audio policy has been reset.
+ *
+ * @author K.Shoji
+ */
+public final class RouteSnapshot {
+    private static final int MAGIC = 0x41525453;
+    private static final int VERSION = 1;
+
+    /**
+     * The boot times differing less than this are treated as the same boot, because the wall clock may be adjusted
+     */
+    private static final long BOOT_TIME_TOLERANCE_MILLIS = 5000;
+
+    private RouteSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot
+     *
+     * @param output the output
+     * @param bootTimeMillis the boot time, the wall clock time minus the elapsed time since boot
+     * @param registry the registry, only the connected entries are written
+     * @param reconciler the reconciler, holds the force-use configs to be restored
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(DataOutput output, long bootTimeMillis, DeviceRegistry registry, RouteReconciler reconciler) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeLong(bootTimeMillis);
+
+        output.writeByte(RouteState.USAGE_COUNT);
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            output.writeByte(reconciler.getOriginalForceUse(usage));
+        }
+
+        int size = registry.size();
+        int connected = 0;
+        for (int i = 0; i < size; i++) {
+            if (registry.get(i).isConnected()) {
+                connected++;
+            }
+        }
+        output.writeByte(connected);
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = registry.get(i);
+            if (!entry.isConnected()) {
+                continue;
+            }
+            output.writeInt(entry.getType());
+            output.writeUTF(entry.getAddress());
+            output.writeUTF(entry.getPort());
+            output.writeUTF(entry.getName());
+            output.writeInt(entry.getDevices());
+            output.writeInt(entry.getDeviceClass());
+        }
+    }
+
+    /**
+     * Reads the snapshot, and seeds the registry and the reconciler
+     *
+     * @param input the input
+     * @param bootTimeMillis the boot time, the wall clock time minus the elapsed time since boot
+     * @param registry the registry
+     * @param types bitmask of DeviceRegistry.TYPE_* values to be seeded, the other entries are skipped
+     * @param reconciler the reconciler
+     * @return false if the snapshot is unknown format, or has been taken on the previous boot
+     * @throws IOException if an I/O error occurs
+     */
+    public static boolean read(DataInput input, long bootTimeMillis, DeviceRegistry registry, int types, RouteReconciler reconciler) throws IOException {
+        if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+            return false;
+        }
+        if (Math.abs(input.readLong() - bootTimeMillis) > BOOT_TIME_TOLERANCE_MILLIS) {
+            return false;
+        }
+
+        int usageCount = input.readByte();
+        for (int usage = 0; usage < usageCount; usage++) {
+            int config = input.readByte();
+            if (usage < RouteState.USAGE_COUNT && config != RouteState.FORCE_UNSPECIFIED) {
+                reconciler.setOriginalForceUse(usage, config);
+            }
+        }
+
+        int connected = input.readUnsignedByte();
+        for (int i = 0; i < connected; i++) {
+            int type = input.readInt();
+            String address = input.readUTF();
+            String port = input.readUTF();
+            String name = input.readUTF();
+            int devices = input.readInt();
+            int deviceClass = input.readInt();
+            if ((type & types) == type) {
+                registry.connect(type, address, port, name, devices, deviceClass);
+            }
+        }
+        return true;
+    }
+}
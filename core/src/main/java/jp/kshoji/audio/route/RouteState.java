@@ -0,0 +1,292 @@
+package jp.kshoji.audio.route;
+
+import java.util.ArrayList;
+
+/**
+ * Represents the audio route state: the force-use config per usage, the A2DP suspended flag and the availability of each device.<br />
+ * The unspecified values are left untouched by {@link RouteReconciler}.<br />
+ * Once the capacity has grown, updating the state allocates no objects. Use the interned {@link Device} instances to keep the routing allocation free.
+ *
+ * @author K.Shoji
+ */
+public final class RouteState {
+    /**
+     * The force-use config is not specified
+     */
+    public static final int FORCE_UNSPECIFIED = -1;
+
+    /**
+     * The device connection state is not specified
+     */
+    public static final int STATE_UNSPECIFIED = -1;
+
+    /**
+     * Number of usages, FOR_COMMUNICATION to FOR_DOCK
+     */
+    public static final int USAGE_COUNT = AudioConstants.FOR_DOCK + 1;
+
+    private final int[] forceUse = new int[USAGE_COUNT];
+    private Boolean a2dpSuspended;
+    private final ArrayList<Device> devices = new ArrayList<>();
+    private int[] deviceStates = new int[8];
+
+    /**
+     * Represents a device, identified by the device type, address and name
+     */
+    public static final class Device {
+        private final int type;
+        private final String address;
+        private final String name;
+
+        /**
+         * Constructor
+         *
+         * @param type device kind id
+         * @param address device address, null will be treated as empty
+         * @param name device name, null will be treated as empty
+         */
+        public Device(int type, String address, String name) {
+            this.type = type;
+            this.address = address == null ? "" : address;
+            this.name = name == null ? "" : name;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * type + address.hashCode()) * 31 + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Device)) {
+                return false;
+            }
+            Device device = (Device) o;
+            return type == device.type && address.equals(device.address) && name.equals(device.name);
+        }
+    }
+
+    /**
+     * Constructor, all values are unspecified
+     */
+    public RouteState() {
+        clear();
+    }
+
+    /**
+     * Makes all values unspecified
+     */
+    public void clear() {
+        for (int i = 0; i < USAGE_COUNT; i++) {
+            forceUse[i] = FORCE_UNSPECIFIED;
+        }
+        a2dpSuspended = null;
+        devices.clear();
+    }
+
+    /**
+     * Checks if no values are specified
+     *
+     * @return true if all values are unspecified
+     */
+    public boolean isEmpty() {
+        for (int i = 0; i < USAGE_COUNT; i++) {
+            if (forceUse[i] != FORCE_UNSPECIFIED) {
+                return false;
+            }
+        }
+        return a2dpSuspended == null && devices.isEmpty();
+    }
+
+    /**
+     * Overwrites the values with the values specified in the other state.<br />
+     * The values unspecified in the other state are left untouched.
+     *
+     * @param other the other state
+     */
+    public void merge(RouteState other) {
+        for (int i = 0; i < USAGE_COUNT; i++) {
+            if (other.forceUse[i] != FORCE_UNSPECIFIED) {
+                forceUse[i] = other.forceUse[i];
+            }
+        }
+        if (other.a2dpSuspended != null) {
+            a2dpSuspended = other.a2dpSuspended;
+        }
+        int deviceCount = other.devices.size();
+        for (int i = 0; i < deviceCount; i++) {
+            setDeviceConnectionState(other.devices.get(i), other.deviceStates[i]);
+        }
+    }
+
+    /**
+     * Set the force-use config, overwrites the previous value
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     */
+    public void setForceUse(int usage, int config) {
+        forceUse[usage] = config;
+    }
+
+    /**
+     * Obtains the force-use config
+     *
+     * @param usage audio usage
+     * @return device categories config, or {@link #FORCE_UNSPECIFIED}
+     */
+    public int getForceUse(int usage) {
+        return forceUse[usage];
+    }
+
+    /**
+     * Set the A2DP suspended flag
+     *
+     * @param suspended true if suspended, null if unspecified
+     */
+    public void setA2dpSuspended(Boolean suspended) {
+        a2dpSuspended = suspended;
+    }
+
+    /**
+     * Obtains the A2DP suspended flag
+     *
+     * @return true if suspended, null if unspecified
+     */
+    public Boolean getA2dpSuspended() {
+        return a2dpSuspended;
+    }
+
+    /**
+     * Set the device connection state, overwrites the previous value
+     *
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @param deviceName device name
+     */
+    public void setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        setDeviceConnectionState(new Device(device, deviceAddress, deviceName), state);
+    }
+
+    /**
+     * Set the device connection state, overwrites the previous value
+     *
+     * @param device the device
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     */
+    public void setDeviceConnectionState(Device device, int state) {
+        int index = indexOf(device);
+        if (index < 0) {
+            index = devices.size();
+            devices.add(device);
+            if (index == deviceStates.length) {
+                int[] newStates = new int[index * 2];
+                System.arraycopy(deviceStates, 0, newStates, 0, index);
+                deviceStates = newStates;
+            }
+        }
+        deviceStates[index] = state;
+    }
+
+    /**
+     * Obtains the device connection state
+     *
+     * @param device the device
+     * @return DEVICE_STATE_AVAILABLE, DEVICE_STATE_UNAVAILABLE, or {@link #STATE_UNSPECIFIED}
+     */
+    public int getDeviceConnectionState(Device device) {
+        int index = indexOf(device);
+        return index < 0 ? STATE_UNSPECIFIED : deviceStates[index];
+    }
+
+    /**
+     * Removes the device state
+     *
+     * @param device the device
+     */
+    public void removeDevice(Device device) {
+        int index = indexOf(device);
+        if (index >= 0) {
+            removeDeviceAt(index);
+        }
+    }
+
+    /**
+     * Obtains the number of the specified devices
+     *
+     * @return the count
+     */
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Obtains the device, in the specified order
+     *
+     * @param index the index, 0 to {@link #getDeviceCount()} - 1
+     * @return the device
+     */
+    public Device getDevice(int index) {
+        return devices.get(index);
+    }
+
+    /**
+     * Obtains the device connection state, in the specified order
+     *
+     * @param index the index, 0 to {@link #getDeviceCount()} - 1
+     * @return DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     */
+    public int getDeviceConnectionState(int index) {
+        return deviceStates[index];
+    }
+
+    /**
+     * Removes the device states not specified in the other state
+     *
+     * @param other the other state
+     */
+    void retainDevices(RouteState other) {
+        for (int i = devices.size() - 1; i >= 0; i--) {
+            if (other.indexOf(devices.get(i)) < 0) {
+                removeDeviceAt(i);
+            }
+        }
+    }
+
+    private int indexOf(Device device) {
+        // the number of devices is small, and the interned instances are compared by the identity first
+        int size = devices.size();
+        for (int i = 0; i < size; i++) {
+            if (devices.get(i) == device) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (devices.get(i).equals(device)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeDeviceAt(int index) {
+        devices.remove(index);
+        System.arraycopy(deviceStates, index + 1, deviceStates, index, devices.size() - index);
+    }
+}
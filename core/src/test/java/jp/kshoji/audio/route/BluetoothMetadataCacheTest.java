@@ -0,0 +1,117 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link BluetoothMetadataCache}: the entries are evicted on disconnect and after the idle timeout
+ *
+ * @author K.Shoji
+ */
+public class BluetoothMetadataCacheTest {
+    private static final long IDLE_TIMEOUT_MILLIS = 1000;
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final String OTHER_ADDRESS = "00:11:22:33:44:66";
+    private static final int HEADPHONES = 0x0418;
+    private static final int LOUDSPEAKER = 0x0414;
+    private static final int CAR_AUDIO = 0x0420;
+
+    private ManualClock clock;
+    private BluetoothMetadataCache cache;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        cache = new BluetoothMetadataCache(IDLE_TIMEOUT_MILLIS, clock);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idleTimeoutMustBePositive() {
+        new BluetoothMetadataCache(0, clock);
+    }
+
+    @Test
+    public void cachedMetadataIsHit() {
+        assertNull(cache.get(ADDRESS));
+        BluetoothMetadataCache.Metadata metadata = cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+
+        assertSame(metadata, cache.get(ADDRESS));
+        assertEquals("headphones", metadata.getName());
+        assertEquals(HEADPHONES, metadata.getDeviceClass());
+        assertEquals(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES, metadata.getDevices());
+        assertNull(cache.get(OTHER_ADDRESS));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void disconnectedDeviceIsMissed() {
+        BluetoothMetadataCache.Metadata metadata = cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        cache.remove(ADDRESS);
+        assertNull(cache.get(ADDRESS));
+
+        // the entry is refilled on reconnect
+        assertEquals(1, cache.size());
+        assertSame(metadata, cache.put(ADDRESS, "renamed", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES));
+        assertEquals("renamed", cache.get(ADDRESS).getName());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void idleEntryIsMissed() {
+        cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS - 1);
+        // the use extends the period
+        assertEquals("headphones", cache.get(ADDRESS).getName());
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS - 1);
+        assertEquals("headphones", cache.get(ADDRESS).getName());
+
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS);
+        assertNull(cache.get(ADDRESS));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void idleEntriesAreEvictedOnPut() {
+        cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        cache.put(OTHER_ADDRESS, "speaker", LOUDSPEAKER, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER);
+        cache.remove(OTHER_ADDRESS);
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS);
+        assertEquals(2, cache.size());
+
+        // the idle entries, including the disconnected one, are evicted when the new entry is added
+        cache.put("00:11:22:33:44:77", "car", CAR_AUDIO, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(1, cache.size());
+        assertNull(cache.get(ADDRESS));
+        assertNull(cache.get(OTHER_ADDRESS));
+    }
+
+    @Test
+    public void disconnectedEntryIsEvictedAfterIdleTimeout() {
+        cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS - 1);
+        // the period starts on disconnect
+        cache.remove(ADDRESS);
+        clock.advanceBy(IDLE_TIMEOUT_MILLIS - 1);
+        cache.put(OTHER_ADDRESS, "speaker", LOUDSPEAKER, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER);
+        assertEquals(2, cache.size());
+
+        clock.advanceBy(1);
+        cache.put("00:11:22:33:44:77", "car", CAR_AUDIO, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(ADDRESS));
+    }
+
+    @Test
+    public void clearEvictsAll() {
+        cache.put(ADDRESS, "headphones", HEADPHONES, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        cache.put(OTHER_ADDRESS, "speaker", LOUDSPEAKER, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(ADDRESS));
+    }
+}
@@ -0,0 +1,84 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CircuitBreaker}
+ *
+ * @author K.Shoji
+ */
+public class CircuitBreakerTest {
+    private ManualClock clock;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        breaker = new CircuitBreaker(3, 1000, 4000, clock);
+    }
+
+    private void fail(int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void opensAtThreshold() {
+        fail(2);
+        assertFalse(breaker.isOpen());
+        fail(1);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void allowsOneTrialAfterBackoff() {
+        fail(3);
+        clock.advanceBy(999);
+        assertFalse(breaker.allowRequest());
+
+        clock.advanceBy(1);
+        assertTrue(breaker.allowRequest());
+        // only one trial until its result
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void backoffDoublesUpToMax() {
+        fail(3);
+        long[] backoffs = {1000, 2000, 4000, 4000};
+        for (long backoff : backoffs) {
+            clock.advanceBy(backoff - 1);
+            assertFalse(breaker.allowRequest());
+            clock.advanceBy(1);
+            assertTrue(breaker.allowRequest());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    public void successfulTrialClosesAndResetsBackoff() {
+        fail(3);
+        clock.advanceBy(1000);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        clock.advanceBy(2000);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+
+        // opens again with the initial backoff
+        fail(3);
+        clock.advanceBy(1000);
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,109 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DeviceRegistry}
+ *
+ * @author K.Shoji
+ */
+public class DeviceRegistryTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private DeviceRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new DeviceRegistry();
+    }
+
+    @Test
+    public void connectedDevicesAreAvailable() {
+        registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADPHONE);
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertTrue(registry.isConnected(DeviceRegistry.TYPE_WIRED_HEADSET));
+        assertTrue(registry.isConnected(DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+        assertFalse(registry.isConnected(DeviceRegistry.TYPE_USB_AUDIO));
+        assertEquals(AudioConstants.DEVICE_OUT_WIRED_HEADPHONE | AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP, registry.getAvailableDevices());
+
+        registry.disconnect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w");
+        assertFalse(registry.isConnected(DeviceRegistry.TYPE_WIRED_HEADSET));
+        assertEquals(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP, registry.getAvailableDevices());
+    }
+
+    @Test
+    public void devicesOutsideTypeAreIgnored() {
+        DeviceRegistry.Entry entry = registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET | AudioConstants.DEVICE_OUT_SPEAKER);
+        assertEquals(AudioConstants.DEVICE_OUT_WIRED_HEADSET, entry.getDevices());
+    }
+
+    @Test
+    public void onlyChangesAreCounted() {
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        int modificationCount = registry.getModificationCount();
+
+        // the same broadcast again
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(modificationCount, registry.getModificationCount());
+
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "renamed", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(modificationCount + 1, registry.getModificationCount());
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "");
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "");
+        assertEquals(modificationCount + 2, registry.getModificationCount());
+        // not registered
+        assertNull(registry.disconnect(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", ""));
+    }
+
+    @Test
+    public void entryIsReusedOnReconnect() {
+        DeviceRegistry.Entry entry = registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, null, "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET);
+        RouteState.Device routeDevice = entry.getRouteDevice(AudioConstants.DEVICE_OUT_WIRED_HEADSET);
+        ConnectedDevice connectedDevice = entry.toConnectedDevice();
+        registry.disconnect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w");
+
+        assertSame(entry, registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET));
+        assertSame(routeDevice, entry.getRouteDevice(AudioConstants.DEVICE_OUT_WIRED_HEADSET));
+        assertSame(connectedDevice, entry.toConnectedDevice());
+        // the name defaults to the port
+        assertEquals("h2w", entry.getName());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void renamedEntryHasNewRouteDevice() {
+        DeviceRegistry.Entry entry = registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        RouteState.Device routeDevice = entry.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "renamed", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        RouteState.Device renamed = entry.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals("renamed", renamed.getName());
+        assertFalse(routeDevice.equals(renamed));
+    }
+
+    @Test
+    public void disconnectedEntriesAreEvicted() {
+        for (int i = 0; i < 32; i++) {
+            String address = String.format("00:11:22:33:44:%02X", i);
+            registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, address, "", null, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+            if (i != 0) {
+                registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, address, "");
+            }
+        }
+        assertEquals(32, registry.size());
+
+        registry.connect(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", "usb_audio", null, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET);
+        // only the connected entries are kept
+        assertEquals(2, registry.size());
+        assertNotNull(registry.find(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:00", ""));
+        assertNull(registry.find(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:01", ""));
+    }
+}
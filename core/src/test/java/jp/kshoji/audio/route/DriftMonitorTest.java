@@ -0,0 +1,38 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link DriftMonitor}
+ *
+ * @author K.Shoji
+ */
+public class DriftMonitorTest {
+
+    @Test
+    public void intervalDoublesWhileStable() {
+        DriftMonitor monitor = new DriftMonitor(100, 500);
+        assertEquals(100, monitor.getIntervalMillis());
+        assertEquals(200, monitor.onProbe(0));
+        assertEquals(400, monitor.onProbe(0));
+        assertEquals(500, monitor.onProbe(0));
+        assertEquals(500, monitor.onProbe(0));
+        assertEquals(4, monitor.getProbeCount());
+        assertEquals(0, monitor.getDriftCount());
+    }
+
+    @Test
+    public void intervalShortensOnDriftAndRouteChange() {
+        DriftMonitor monitor = new DriftMonitor(100, 500);
+        monitor.onProbe(0);
+        monitor.onProbe(0);
+        assertEquals(100, monitor.onProbe(2));
+        assertEquals(1, monitor.getDriftCount());
+
+        monitor.onProbe(0);
+        assertEquals(100, monitor.onRouteChanged());
+        assertEquals(200, monitor.onProbe(0));
+    }
+}
@@ -0,0 +1,107 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link EventJournal}
+ *
+ * @author K.Shoji
+ */
+public class EventJournalTest {
+    private static final int WRITERS = 8;
+    private static final int RECORDS_PER_WRITER = 200000;
+
+    /**
+     * Checks the record written by {@link #record(EventJournal, int)}
+     */
+    private static final class ConsistencyChecker implements EventJournal.Visitor {
+        private String violation;
+
+        @Override
+        public void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+            if (violation == null && (kind != EventJournal.KIND_ROUTE_MODE || arg0 != code || arg1 != code || arg2 != code || !String.valueOf(code).equals(text0) || text1 != null)) {
+                violation = "torn record: " + code + ", " + arg0 + ", " + arg1 + ", " + arg2 + ", " + text0 + ", " + text1;
+            }
+        }
+    }
+
+    private static void record(EventJournal eventJournal, int value) {
+        eventJournal.record(EventJournal.KIND_ROUTE_MODE, value, value, value, value, String.valueOf(value), null);
+    }
+
+    @Test
+    public void recordsAreReadBackInOrder() throws Exception {
+        EventJournal eventJournal = new EventJournal(4);
+        for (int i = 0; i < 6; i++) {
+            record(eventJournal, i);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        eventJournal.dump(new DataOutputStream(bytes));
+        final List<Integer> codes = new ArrayList<>();
+        EventJournal.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), new EventJournal.Visitor() {
+            @Override
+            public void onRecord(long timeNanos, int kind, int code, int arg0, int arg1, int arg2, String text0, String text1) {
+                codes.add(code);
+            }
+        });
+
+        // the oldest two records are overwritten
+        assertEquals(4, eventJournal.getCapacity());
+        assertEquals(4, codes.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i + 2), codes.get(i));
+        }
+        assertEquals(0, eventJournal.getDroppedCount());
+    }
+
+    @Test
+    public void wrappedWritersDoNotTearRecords() throws Exception {
+        // the small buffer, the writers wrap onto the same slot frequently
+        final EventJournal eventJournal = new EventJournal(2);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(WRITERS);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final int base = writer * RECORDS_PER_WRITER;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < RECORDS_PER_WRITER; i++) {
+                            record(eventJournal, base + i);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        ConsistencyChecker checker = new ConsistencyChecker();
+        start.countDown();
+        while (finish.getCount() > 0) {
+            eventJournal.visit(checker);
+        }
+        eventJournal.visit(checker);
+
+        assertNull(error.get());
+        assertNull(checker.violation);
+    }
+}
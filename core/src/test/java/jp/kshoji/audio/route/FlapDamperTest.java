@@ -0,0 +1,96 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FlapDamper}, with the default thresholds: the second change within the half-life starts the suppression
+ *
+ * @author K.Shoji
+ */
+public class FlapDamperTest {
+    private static final long HALF_LIFE_MILLIS = 1000;
+    private static final String DEVICE = "device";
+
+    private ManualClock clock;
+    private FlapDamper damper;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        damper = new FlapDamper(HALF_LIFE_MILLIS, clock);
+    }
+
+    @Test
+    public void stableDeviceIsNotSuppressed() {
+        assertTrue(damper.update(DEVICE, true, false));
+        clock.advanceBy(10 * HALF_LIFE_MILLIS);
+        assertTrue(damper.update(DEVICE, false, true));
+        assertFalse(damper.isSuppressed(DEVICE));
+        assertEquals(FlapDamper.NOT_SUPPRESSED, damper.getNextReleaseDelay());
+    }
+
+    @Test
+    public void flappingDeviceIsHeldUntilDecayed() {
+        assertTrue(damper.update(DEVICE, true, false));
+        assertFalse(damper.update(DEVICE, false, true));
+        assertTrue(damper.isSuppressed(DEVICE));
+        assertFalse(damper.update(DEVICE, true, true));
+        assertEquals(1, damper.getSuppressionCount());
+        assertEquals(2, damper.getSuppressedTransitionCount());
+
+        // 3000 decays below 750 after 2 half-lives
+        long delay = damper.getNextReleaseDelay();
+        assertEquals(2 * HALF_LIFE_MILLIS + 1, delay);
+
+        List<Object> released = new ArrayList<>();
+        clock.advanceBy(delay - 1);
+        assertEquals(1, damper.poll(released));
+        assertTrue(released.isEmpty());
+
+        clock.advanceBy(1);
+        assertEquals(FlapDamper.NOT_SUPPRESSED, damper.poll(released));
+        assertEquals(1, released.size());
+        assertEquals(DEVICE, released.get(0));
+        assertFalse(damper.isSuppressed(DEVICE));
+    }
+
+    @Test
+    public void settledDeviceIsAppliedOnNextUpdate() {
+        damper.update(DEVICE, true, false);
+        damper.update(DEVICE, false, true);
+        assertTrue(damper.isSuppressed(DEVICE));
+
+        clock.advanceBy(10 * HALF_LIFE_MILLIS);
+        assertTrue(damper.update(DEVICE, true, false));
+        assertFalse(damper.isSuppressed(DEVICE));
+    }
+
+    @Test
+    public void evictedEntryIsStillSuppressed() {
+        DeviceRegistry registry = new DeviceRegistry();
+        DeviceRegistry.Entry headset = registry.intern(DeviceRegistry.TYPE_WIRED_HEADSET, "", "card=0");
+        assertTrue(damper.update(headset, false, true));
+        // the plug is suppressed, the headset is held disconnected
+        assertFalse(damper.update(headset, true, false));
+
+        // the disconnected entries are evicted when the registry is full
+        for (int i = 0; i < 40; i++) {
+            registry.intern(DeviceRegistry.TYPE_USB_AUDIO, "", "card=" + (i + 1));
+        }
+        DeviceRegistry.Entry interned = registry.intern(DeviceRegistry.TYPE_WIRED_HEADSET, "", "card=0");
+        assertFalse(interned == headset);
+        assertEquals(headset, interned);
+
+        assertTrue(damper.isSuppressed(interned));
+        assertFalse(damper.update(interned, false, false));
+        assertEquals(2, damper.getSuppressedTransitionCount());
+    }
+}
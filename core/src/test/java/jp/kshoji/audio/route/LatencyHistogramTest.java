@@ -0,0 +1,76 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link LatencyHistogram}
+ *
+ * @author K.Shoji
+ */
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram;
+
+    @Before
+    public void setUp() {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void durationsArePutInPowerOfTwoBuckets() {
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(1023);
+        histogram.record(1024);
+        // treated as 0
+        histogram.record(-5);
+
+        // 0, 1 and the negative value
+        assertEquals(3, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(9));
+        assertEquals(1, histogram.getBucketCount(10));
+        assertEquals(5, histogram.getCount());
+        assertEquals((1 + 1023 + 1024) / 5, histogram.getMeanNanos());
+        assertEquals(1024, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfBucket() {
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1000000);
+
+        // 100 is in [64, 128)
+        assertEquals(127, histogram.getPercentileNanos(50));
+        assertEquals(127, histogram.getPercentileNanos(99));
+        // 1000000 is in [2^19, 2^20)
+        assertEquals((1L << 20) - 1, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void largestBucketIsUnbounded() {
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKET_COUNT - 2));
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void resetClearsAll() {
+        histogram.record(100);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getBucketCount(6));
+        assertEquals(0, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,24 @@
+package jp.kshoji.audio.route;
+
+/**
+ * {@link Clock} advanced only by the tests
+ *
+ * @author K.Shoji
+ */
+final class ManualClock implements Clock {
+    private long now;
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    /**
+     * Advances the time
+     *
+     * @param millis milliseconds
+     */
+    void advanceBy(long millis) {
+        now += millis;
+    }
+}
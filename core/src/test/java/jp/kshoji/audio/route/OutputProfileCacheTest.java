@@ -0,0 +1,61 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link OutputProfileCache}
+ *
+ * @author K.Shoji
+ */
+public class OutputProfileCacheTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private OutputProfileCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new OutputProfileCache(2);
+    }
+
+    @Test
+    public void sameDeviceIsHit() {
+        OutputProfile profile = cache.put(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP, 48000, 192, 150);
+        assertEquals(150, profile.getLatencyMillis());
+        assertSame(profile, cache.get(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void otherIdentityIsMissed() {
+        cache.put(DeviceRegistry.TYPE_WIRED_HEADSET, "", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET, 48000, 192, 20);
+
+        // the headphone without the microphone is plugged into the same jack
+        assertNull(cache.get(DeviceRegistry.TYPE_WIRED_HEADSET, "", null, AudioConstants.DEVICE_OUT_WIRED_HEADPHONE));
+        OutputProfile profile = cache.put(DeviceRegistry.TYPE_WIRED_HEADSET, "", null, AudioConstants.DEVICE_OUT_WIRED_HEADPHONE, 48000, 192, 30);
+        // the entry of the output is refilled
+        assertEquals(1, cache.size());
+        assertSame(profile, cache.get(DeviceRegistry.TYPE_WIRED_HEADSET, null, null, AudioConstants.DEVICE_OUT_WIRED_HEADPHONE));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsRefilled() {
+        cache.put(RoutePolicy.TYPE_SPEAKER, "", null, 0, 48000, 192, 10);
+        cache.put(DeviceRegistry.TYPE_WIRED_HEADSET, "", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET, 48000, 192, 20);
+        assertNotNull(cache.get(RoutePolicy.TYPE_SPEAKER, "", null, 0));
+
+        cache.put(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", null, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET, 48000, 192, 30);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(RoutePolicy.TYPE_SPEAKER, "", null, 0));
+        assertNull(cache.get(DeviceRegistry.TYPE_WIRED_HEADSET, "", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,107 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RouteArbiter}: the highest priority wins, and on the same priority, the most recent request wins
+ *
+ * @author K.Shoji
+ */
+public class RouteArbiterTest {
+    private RouteArbiter<String> arbiter;
+
+    @Before
+    public void setUp() {
+        arbiter = new RouteArbiter<>();
+    }
+
+    @Test
+    public void noRequestHasNoWinner() {
+        arbiter.addClient(0);
+        assertEquals(1, arbiter.getClientCount());
+        assertNull(arbiter.getWinner());
+    }
+
+    @Test
+    public void highestPriorityWins() {
+        RouteArbiter<String>.Client low = arbiter.addClient(0);
+        RouteArbiter<String>.Client high = arbiter.addClient(10);
+
+        assertTrue(arbiter.setRequest(high, "speaker"));
+        // the newer request of the lower priority doesn't win
+        assertFalse(arbiter.setRequest(low, "headphone"));
+        assertEquals("speaker", arbiter.getWinner());
+        assertEquals("headphone", low.getRequest());
+    }
+
+    @Test
+    public void mostRecentRequestWinsTie() {
+        RouteArbiter<String>.Client first = arbiter.addClient(5);
+        RouteArbiter<String>.Client second = arbiter.addClient(5);
+
+        assertTrue(arbiter.setRequest(second, "speaker"));
+        assertTrue(arbiter.setRequest(first, "headphone"));
+        assertEquals("headphone", arbiter.getWinner());
+
+        // requested again, the same request is the most recent
+        assertTrue(arbiter.setRequest(second, "speaker"));
+        assertEquals("speaker", arbiter.getWinner());
+    }
+
+    @Test
+    public void sameWinningRequestIsNotChange() {
+        RouteArbiter<String>.Client first = arbiter.addClient(5);
+        RouteArbiter<String>.Client second = arbiter.addClient(5);
+
+        assertTrue(arbiter.setRequest(first, "speaker"));
+        assertFalse(arbiter.setRequest(second, "speaker"));
+        assertEquals("speaker", arbiter.getWinner());
+    }
+
+    @Test
+    public void withdrawnRequestFallsBack() {
+        RouteArbiter<String>.Client low = arbiter.addClient(0);
+        RouteArbiter<String>.Client high = arbiter.addClient(10);
+        arbiter.setRequest(low, "headphone");
+        arbiter.setRequest(high, "speaker");
+
+        assertTrue(arbiter.setRequest(high, null));
+        assertEquals("headphone", arbiter.getWinner());
+        assertTrue(arbiter.setRequest(low, null));
+        assertNull(arbiter.getWinner());
+    }
+
+    @Test
+    public void removedClientFallsBack() {
+        RouteArbiter<String>.Client low = arbiter.addClient(0);
+        RouteArbiter<String>.Client high = arbiter.addClient(10);
+        arbiter.setRequest(low, "headphone");
+        arbiter.setRequest(high, "speaker");
+
+        // the losing client leaves
+        assertFalse(arbiter.removeClient(low));
+        assertEquals("speaker", arbiter.getWinner());
+
+        assertTrue(arbiter.removeClient(high));
+        assertNull(arbiter.getWinner());
+        assertEquals(0, arbiter.getClientCount());
+    }
+
+    @Test
+    public void removedWinnerOfTieFallsBackToPreviousRequest() {
+        RouteArbiter<String>.Client first = arbiter.addClient(5);
+        RouteArbiter<String>.Client second = arbiter.addClient(5);
+        arbiter.setRequest(first, "headphone");
+        arbiter.setRequest(second, "speaker");
+
+        assertTrue(arbiter.removeClient(second));
+        assertEquals("headphone", arbiter.getWinner());
+        assertEquals(1, arbiter.getClientCount());
+    }
+}
@@ -0,0 +1,68 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RouteCoalescer}
+ *
+ * @author K.Shoji
+ */
+public class RouteCoalescerTest {
+    private static final long QUIET_WINDOW_MILLIS = 100;
+
+    private ManualClock clock;
+    private RouteCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        coalescer = new RouteCoalescer(QUIET_WINDOW_MILLIS, clock);
+    }
+
+    @Test
+    public void notPendingWithoutUpdates() {
+        assertEquals(RouteCoalescer.NOT_PENDING, coalescer.poll());
+    }
+
+    @Test
+    public void appliesAfterQuietWindow() {
+        assertTrue(coalescer.update());
+        clock.advanceBy(QUIET_WINDOW_MILLIS - 1);
+        assertEquals(1, coalescer.poll());
+
+        clock.advanceBy(1);
+        assertEquals(0, coalescer.poll());
+        assertFalse(coalescer.isPending());
+        assertEquals(RouteCoalescer.NOT_PENDING, coalescer.poll());
+    }
+
+    @Test
+    public void burstRestartsQuietWindow() {
+        assertTrue(coalescer.update());
+        clock.advanceBy(60);
+        assertFalse(coalescer.update());
+        clock.advanceBy(60);
+        assertFalse(coalescer.update());
+        assertEquals(2, coalescer.getCoalescedCount());
+
+        // the window has been restarted by the last update
+        clock.advanceBy(60);
+        assertEquals(40, coalescer.poll());
+        clock.advanceBy(40);
+        assertEquals(0, coalescer.poll());
+    }
+
+    @Test
+    public void cancelDiscardsPendingUpdates() {
+        coalescer.update();
+        coalescer.cancel();
+        clock.advanceBy(QUIET_WINDOW_MILLIS);
+        assertEquals(RouteCoalescer.NOT_PENDING, coalescer.poll());
+        assertTrue(coalescer.update());
+    }
+}
@@ -0,0 +1,150 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link RouteExecutor}
+ *
+ * @author K.Shoji
+ */
+public class RouteExecutorTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final class TaskError extends Error {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Runnable THROWING_TASK = new Runnable() {
+        @Override
+        public void run() {
+            throw new SecurityException("permission denied");
+        }
+    };
+
+    @Test
+    public void throwingTaskDoesNotBlockLaterTasks() throws Exception {
+        RouteExecutor routeExecutor = new RouteExecutor(DIRECT_EXECUTOR);
+        assertTrue(routeExecutor.execute(THROWING_TASK));
+
+        Future<Integer> future = routeExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        });
+        assertTrue(future.isDone());
+        assertEquals(Integer.valueOf(1), future.get());
+    }
+
+    @Test
+    public void throwingTaskDoesNotBlockQueuedTasks() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            RouteExecutor routeExecutor = new RouteExecutor(executorService);
+            final AtomicInteger count = new AtomicInteger();
+            Runnable countingTask = new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            };
+            for (int i = 0; i < 100; i++) {
+                routeExecutor.execute(i % 10 == 0 ? THROWING_TASK : countingTask);
+            }
+
+            Future<Integer> future = routeExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return count.get();
+                }
+            });
+            assertEquals(Integer.valueOf(90), future.get(10, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void errorDoesNotBlockLaterTasks() throws Exception {
+        RouteExecutor routeExecutor = new RouteExecutor(DIRECT_EXECUTOR);
+        try {
+            routeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new TaskError();
+                }
+            });
+            fail("the error must be thrown to the executor");
+        } catch (TaskError expected) {
+            // thrown by the direct executor
+        }
+
+        Future<Integer> future = routeExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        });
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void taskSubmittedWhileDrainingRunsOnDrainingThread() throws Exception {
+        final RouteExecutor routeExecutor = new RouteExecutor(DIRECT_EXECUTOR);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread drainingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                routeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                });
+            }
+        });
+        drainingThread.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final AtomicReference<Thread> runningThread = new AtomicReference<>();
+        Future<Void> future = routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                runningThread.set(Thread.currentThread());
+                return null;
+            }
+        });
+        // returned without running the task on the calling thread
+        assertFalse(future.isDone());
+
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(drainingThread, runningThread.get());
+        drainingThread.join();
+    }
+}
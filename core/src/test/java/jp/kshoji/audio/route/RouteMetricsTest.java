@@ -0,0 +1,62 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link RouteMetrics}
+ *
+ * @author K.Shoji
+ */
+public class RouteMetricsTest {
+    private RouteMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new RouteMetrics();
+    }
+
+    @Test
+    public void backendCallsAreRecordedPerOperation() {
+        metrics.onBackendCall(MetricsListener.OPERATION_SET_FORCE_USE, 1000, true);
+        metrics.onBackendCall(MetricsListener.OPERATION_SET_FORCE_USE, 3000, false);
+        metrics.onBackendCall(MetricsListener.OPERATION_GET_FORCE_USE, 500, true);
+
+        assertEquals(2, metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_FORCE_USE).getCount());
+        assertEquals(2000, metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_FORCE_USE).getMeanNanos());
+        assertEquals(1, metrics.getFailureCount(MetricsListener.OPERATION_SET_FORCE_USE));
+        assertEquals(1, metrics.getBackendCallHistogram(MetricsListener.OPERATION_GET_FORCE_USE).getCount());
+        assertEquals(0, metrics.getFailureCount(MetricsListener.OPERATION_GET_FORCE_USE));
+        assertEquals(0, metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_A2DP_SUSPENDED).getCount());
+    }
+
+    @Test
+    public void routePassesAreAccumulated() {
+        metrics.onRoutePass(10000, 2, 5);
+        metrics.onRoutePass(20000, 0, 7);
+        metrics.onRouteLatency(50000);
+
+        assertEquals(2, metrics.getRoutePassHistogram().getCount());
+        assertEquals(2, metrics.getIssuedCallCount());
+        assertEquals(12, metrics.getSkippedCallCount());
+        assertEquals(1, metrics.getRouteLatencyHistogram().getCount());
+        assertEquals(50000, metrics.getRouteLatencyHistogram().getMaxNanos());
+    }
+
+    @Test
+    public void resetClearsAll() {
+        metrics.onBackendCall(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE, 1000, false);
+        metrics.onRoutePass(10000, 1, 1);
+        metrics.onRouteLatency(50000);
+
+        metrics.reset();
+        assertEquals(0, metrics.getBackendCallHistogram(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE).getCount());
+        assertEquals(0, metrics.getFailureCount(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE));
+        assertEquals(0, metrics.getRoutePassHistogram().getCount());
+        assertEquals(0, metrics.getRouteLatencyHistogram().getCount());
+        assertEquals(0, metrics.getIssuedCallCount());
+        assertEquals(0, metrics.getSkippedCallCount());
+    }
+}
@@ -0,0 +1,108 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RoutePlanner}, and the planned route applied to {@link AudioPolicySimulator} on the JVM
+ *
+ * @author K.Shoji
+ */
+public class RoutePlannerTest {
+    private static final String HEADSET_ADDRESS = "card=0;device=0";
+    private static final String USB_ADDRESS = "card=1;device=0";
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final String OTHER_ADDRESS = "00:11:22:33:44:66";
+    private static final RouteState.Device SPEAKER = new RouteState.Device(AudioConstants.DEVICE_OUT_SPEAKER, "", "");
+    private static final RouteState.Device DEFAULT_HEADPHONE = new RouteState.Device(AudioConstants.DEVICE_OUT_WIRED_HEADPHONE, "", "");
+
+    private DeviceRegistry registry;
+    private RouteState route;
+
+    @Before
+    public void setUp() {
+        registry = new DeviceRegistry();
+        route = new RouteState();
+    }
+
+    @Test
+    public void noneLeavesRouteUntouched() {
+        RoutePlanner.plan(RoutePolicy.TYPE_NONE, registry, route);
+        assertTrue(route.isEmpty());
+    }
+
+    @Test
+    public void speakerDisablesOtherOutputs() {
+        DeviceRegistry.Entry bluetooth = registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        RoutePlanner.plan(RoutePolicy.TYPE_SPEAKER, registry, route);
+
+        assertEquals(AudioConstants.FORCE_SPEAKER, route.getForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(Boolean.TRUE, route.getA2dpSuspended());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(SPEAKER));
+        // the headphone jack is disabled even while nothing is plugged
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, route.getDeviceConnectionState(DEFAULT_HEADPHONE));
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, route.getDeviceConnectionState(bluetooth.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP)));
+    }
+
+    @Test
+    public void headsetIsEnabled() {
+        DeviceRegistry.Entry headset = registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, HEADSET_ADDRESS, "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET);
+        RoutePlanner.plan(DeviceRegistry.TYPE_WIRED_HEADSET, registry, route);
+
+        assertEquals(AudioConstants.FORCE_HEADPHONES, route.getForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(headset.getRouteDevice(AudioConstants.DEVICE_OUT_WIRED_HEADSET)));
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, route.getDeviceConnectionState(SPEAKER));
+        // the connected headset is used instead of the default headphone
+        assertEquals(RouteState.STATE_UNSPECIFIED, route.getDeviceConnectionState(DEFAULT_HEADPHONE));
+    }
+
+    @Test
+    public void usbAudioSuspendsBluetooth() {
+        DeviceRegistry.Entry usbAudio = registry.connect(DeviceRegistry.TYPE_USB_AUDIO, USB_ADDRESS, "usb_audio", null, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET);
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        RoutePlanner.plan(DeviceRegistry.TYPE_USB_AUDIO, registry, route);
+
+        assertEquals(AudioConstants.FORCE_ANALOG_DOCK, route.getForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(Boolean.TRUE, route.getA2dpSuspended());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(usbAudio.getRouteDevice(AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET)));
+    }
+
+    @Test
+    public void allBluetoothDevicesAreEnabled() {
+        DeviceRegistry.Entry first = registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP | AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER);
+        DeviceRegistry.Entry second = registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, OTHER_ADDRESS, "", "headphones", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES);
+        RoutePlanner.plan(DeviceRegistry.TYPE_BLUETOOTH_A2DP, registry, route);
+
+        assertEquals(AudioConstants.FORCE_BT_A2DP, route.getForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(Boolean.FALSE, route.getA2dpSuspended());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(first.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP)));
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(first.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER)));
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, route.getDeviceConnectionState(second.getRouteDevice(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES)));
+    }
+
+    @Test
+    public void plannedRouteIsAppliedToBackend() {
+        AudioPolicySimulator simulator = new AudioPolicySimulator();
+        RouteReconciler reconciler = new RouteReconciler(simulator);
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "", "speaker", AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+
+        RoutePlanner.plan(DeviceRegistry.TYPE_BLUETOOTH_A2DP, registry, route);
+        reconciler.apply(route);
+        assertEquals(AudioConstants.FORCE_BT_A2DP, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+        assertFalse(simulator.isA2dpSuspended());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, simulator.getDeviceState(AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP, ADDRESS));
+
+        // the device has gone, routed to the speaker
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, ADDRESS, "");
+        route.clear();
+        RoutePlanner.plan(RoutePolicy.TYPE_SPEAKER, registry, route);
+        reconciler.apply(route);
+        assertEquals(AudioConstants.FORCE_SPEAKER, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+        assertTrue(simulator.isA2dpSuspended());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, simulator.getDeviceState(AudioConstants.DEVICE_OUT_SPEAKER, ""));
+    }
+}
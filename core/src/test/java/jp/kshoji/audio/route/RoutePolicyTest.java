@@ -0,0 +1,121 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link RoutePolicy}: the incremental {@link RoutePolicy#update(DeviceRegistry, int)} selects the same output as the full {@link RoutePolicy#evaluate(DeviceRegistry)}
+ *
+ * @author K.Shoji
+ */
+public class RoutePolicyTest {
+    private static final int CAR_AUDIO = 0x0420;
+    private static final int HEADPHONES = 0x0418;
+    private static final int STEPS = 10000;
+
+    private DeviceRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new DeviceRegistry();
+    }
+
+    @Test
+    public void defaultPolicyPrefersUsbAudio() {
+        RoutePolicy policy = RoutePolicy.createDefault();
+        assertEquals(RoutePolicy.TYPE_SPEAKER, policy.evaluate(registry));
+
+        registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADSET);
+        assertEquals(DeviceRegistry.TYPE_WIRED_HEADSET, policy.update(registry, DeviceRegistry.TYPE_WIRED_HEADSET));
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:00", "", null, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(DeviceRegistry.TYPE_BLUETOOTH_A2DP, policy.update(registry, DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+        registry.connect(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", "usb_audio", null, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET);
+        assertEquals(DeviceRegistry.TYPE_USB_AUDIO, policy.update(registry, DeviceRegistry.TYPE_USB_AUDIO));
+
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:00", "");
+        // the lower tier doesn't change the selection
+        assertEquals(DeviceRegistry.TYPE_USB_AUDIO, policy.update(registry, DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+        registry.disconnect(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", "usb_audio");
+        assertEquals(DeviceRegistry.TYPE_WIRED_HEADSET, policy.update(registry, DeviceRegistry.TYPE_USB_AUDIO));
+    }
+
+    @Test
+    public void tierStaysWhileAnyDeviceIsConnected() {
+        RoutePolicy policy = RoutePolicy.createDefault();
+        policy.evaluate(registry);
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:00", "", null, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        registry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:01", "", null, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP);
+        assertEquals(DeviceRegistry.TYPE_BLUETOOTH_A2DP, policy.update(registry, DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:00", "");
+        assertEquals(DeviceRegistry.TYPE_BLUETOOTH_A2DP, policy.update(registry, DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+        registry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, "00:11:22:33:44:01", "");
+        assertEquals(RoutePolicy.TYPE_SPEAKER, policy.update(registry, DeviceRegistry.TYPE_BLUETOOTH_A2DP));
+    }
+
+    @Test
+    public void policyWithoutSpeakerSelectsNone() {
+        RoutePolicy policy = new RoutePolicy(DeviceRegistry.TYPE_WIRED_HEADSET);
+        assertEquals(RoutePolicy.TYPE_NONE, policy.evaluate(registry));
+
+        registry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w", null, AudioConstants.DEVICE_OUT_WIRED_HEADPHONE);
+        assertEquals(DeviceRegistry.TYPE_WIRED_HEADSET, policy.update(registry, DeviceRegistry.TYPE_WIRED_HEADSET));
+        // not in the preference list
+        registry.connect(DeviceRegistry.TYPE_USB_AUDIO, "card=1;device=0", "usb_audio", null, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET);
+        assertEquals(DeviceRegistry.TYPE_WIRED_HEADSET, policy.update(registry, DeviceRegistry.TYPE_USB_AUDIO));
+        registry.disconnect(DeviceRegistry.TYPE_WIRED_HEADSET, "", "h2w");
+        assertEquals(RoutePolicy.TYPE_NONE, policy.update(registry, DeviceRegistry.TYPE_WIRED_HEADSET));
+    }
+
+    @Test
+    public void updateMatchesEvaluateWithDefaultPolicy() {
+        assertUpdateMatchesEvaluate(RoutePolicy.createDefault(), RoutePolicy.createDefault(), 1);
+    }
+
+    @Test
+    public void updateMatchesEvaluateWithDeviceRule() {
+        RoutePolicy incremental = new RoutePolicy(DeviceRegistry.TYPE_BLUETOOTH_A2DP, DeviceRegistry.TYPE_WIRED_HEADSET, DeviceRegistry.TYPE_USB_AUDIO, RoutePolicy.TYPE_SPEAKER);
+        RoutePolicy full = new RoutePolicy(DeviceRegistry.TYPE_BLUETOOTH_A2DP, DeviceRegistry.TYPE_WIRED_HEADSET, DeviceRegistry.TYPE_USB_AUDIO, RoutePolicy.TYPE_SPEAKER);
+        incremental.setDeviceRule(DeviceRegistry.TYPE_BLUETOOTH_A2DP, RoutePolicy.rejectDeviceClasses(CAR_AUDIO));
+        full.setDeviceRule(DeviceRegistry.TYPE_BLUETOOTH_A2DP, RoutePolicy.rejectDeviceClasses(CAR_AUDIO));
+        assertUpdateMatchesEvaluate(incremental, full, 2);
+    }
+
+    @Test
+    public void updateMatchesEvaluateWithoutSpeaker() {
+        assertUpdateMatchesEvaluate(new RoutePolicy(DeviceRegistry.TYPE_USB_AUDIO, DeviceRegistry.TYPE_WIRED_HEADSET),
+                new RoutePolicy(DeviceRegistry.TYPE_USB_AUDIO, DeviceRegistry.TYPE_WIRED_HEADSET), 3);
+    }
+
+    /**
+     * Connects and disconnects the random devices, and compares the incremental selection with the full evaluation on each step
+     *
+     * @param incremental the policy updated on each step
+     * @param full the policy evaluated on each step, with the same preferences and rules
+     * @param seed the random seed
+     */
+    private void assertUpdateMatchesEvaluate(RoutePolicy incremental, RoutePolicy full, long seed) {
+        int[] types = {DeviceRegistry.TYPE_WIRED_HEADSET, DeviceRegistry.TYPE_USB_AUDIO, DeviceRegistry.TYPE_BLUETOOTH_A2DP};
+        int[] devices = {AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET, AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP};
+        Random random = new Random(seed);
+        incremental.evaluate(registry);
+
+        for (int step = 0; step < STEPS; step++) {
+            int index = random.nextInt(types.length);
+            int type = types[index];
+            String address = String.valueOf(random.nextInt(3));
+            if (random.nextBoolean()) {
+                int deviceClass = random.nextBoolean() ? CAR_AUDIO : HEADPHONES;
+                registry.connect(type, address, "", null, devices[index], deviceClass);
+            } else {
+                registry.disconnect(type, address, "");
+            }
+
+            assertEquals("step " + step, full.evaluate(registry), incremental.update(registry, type));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RouteReconciler}
+ *
+ * @author K.Shoji
+ */
+public class RouteReconcilerTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final String OTHER_ADDRESS = "00:11:22:33:44:66";
+
+    private AudioPolicySimulator simulator;
+    private RouteReconciler reconciler;
+    private RouteState desired;
+
+    @Before
+    public void setUp() {
+        simulator = new AudioPolicySimulator();
+        reconciler = new RouteReconciler(simulator);
+        desired = new RouteState();
+    }
+
+    /**
+     * Records the setter calls, in the issued order
+     */
+    private static final class RecordingBackend implements AudioBackend {
+        private final AudioBackend backend;
+        private final List<String> calls = new ArrayList<>();
+
+        RecordingBackend(AudioBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public boolean setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+            calls.add("device " + deviceAddress + " " + state);
+            return backend.setDeviceConnectionState(device, state, deviceAddress, deviceName);
+        }
+
+        @Override
+        public int getDeviceConnectionState(int device, String deviceAddress) {
+            return backend.getDeviceConnectionState(device, deviceAddress);
+        }
+
+        @Override
+        public boolean setForceUse(int usage, int config) {
+            calls.add("forceUse " + usage + " " + config);
+            return backend.setForceUse(usage, config);
+        }
+
+        @Override
+        public int getForceUse(int usage) {
+            return backend.getForceUse(usage);
+        }
+
+        @Override
+        public boolean setA2dpSuspended(boolean suspended) {
+            calls.add("a2dpSuspended " + suspended);
+            return backend.setA2dpSuspended(suspended);
+        }
+    }
+
+    @Test
+    public void unchangedRouteIssuesNoCalls() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        desired.setA2dpSuspended(true);
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_UNAVAILABLE, ADDRESS, "headset");
+        reconciler.apply(desired);
+        assertEquals(3, reconciler.getIssuedCallCount());
+
+        long callCount = simulator.getCallCount();
+        reconciler.apply(desired);
+        assertEquals(3, reconciler.getIssuedCallCount());
+        assertEquals(3, reconciler.getSkippedCallCount());
+        assertEquals(callCount, simulator.getCallCount());
+    }
+
+    @Test
+    public void onlyChangedValuesAreIssued() {
+        RecordingBackend backend = new RecordingBackend(simulator);
+        reconciler = new RouteReconciler(backend);
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_HEADPHONES);
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, OTHER_ADDRESS, "headset");
+        reconciler.apply(desired);
+
+        backend.calls.clear();
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_UNAVAILABLE, OTHER_ADDRESS, "headset");
+        reconciler.apply(desired);
+        assertEquals(Arrays.asList("device " + OTHER_ADDRESS + " " + AudioConstants.DEVICE_STATE_UNAVAILABLE), backend.calls);
+    }
+
+    @Test
+    public void callsAreIssuedInOrder() {
+        RecordingBackend backend = new RecordingBackend(simulator);
+        reconciler = new RouteReconciler(backend);
+        // specified in the reversed order
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_SPEAKER, AudioConstants.DEVICE_STATE_AVAILABLE, "", "");
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        desired.setA2dpSuspended(true);
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_UNAVAILABLE, ADDRESS, "headset");
+        reconciler.apply(desired);
+
+        assertEquals(Arrays.asList(
+                "device " + ADDRESS + " " + AudioConstants.DEVICE_STATE_UNAVAILABLE,
+                "a2dpSuspended true",
+                "forceUse " + AudioConstants.FOR_MEDIA + " " + AudioConstants.FORCE_SPEAKER,
+                "device  " + AudioConstants.DEVICE_STATE_AVAILABLE), backend.calls);
+    }
+
+    @Test
+    public void forgottenDeviceIsIssuedAgain() {
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+        reconciler.apply(desired);
+
+        // not contained in the desired state, forgotten without calls
+        RouteState empty = new RouteState();
+        long callCount = simulator.getCallCount();
+        reconciler.apply(empty);
+        assertEquals(callCount, simulator.getCallCount());
+
+        reconciler.apply(desired);
+        assertEquals(callCount + 1, simulator.getCallCount());
+    }
+
+    @Test
+    public void invalidatedRouteIsIssuedAgain() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        desired.setA2dpSuspended(true);
+        reconciler.apply(desired);
+
+        reconciler.invalidate();
+        long issuedCallCount = reconciler.getIssuedCallCount();
+        reconciler.apply(desired);
+        assertEquals(issuedCallCount + 2, reconciler.getIssuedCallCount());
+    }
+
+    @Test
+    public void failedForceUseIsRetried() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_FORCE_USE);
+        reconciler.apply(desired);
+        assertTrue(reconciler.hasFailedCalls());
+        assertEquals(1, reconciler.getFailedCallCount());
+        assertEquals(RouteState.FORCE_UNSPECIFIED, reconciler.getAppliedForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(AudioConstants.FORCE_NONE, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+
+        // the outage is over
+        simulator.setFailingOperations(0);
+        reconciler.apply(desired);
+        assertFalse(reconciler.hasFailedCalls());
+        assertEquals(AudioConstants.FORCE_SPEAKER, reconciler.getAppliedForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(AudioConstants.FORCE_SPEAKER, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+    }
+
+    @Test
+    public void failedDeviceIsRetried() {
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE);
+        reconciler.apply(desired);
+        assertTrue(reconciler.hasFailedCalls());
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, simulator.getDeviceState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, ADDRESS));
+
+        simulator.setFailingOperations(0);
+        long issuedCallCount = reconciler.getIssuedCallCount();
+        reconciler.apply(desired);
+        assertFalse(reconciler.hasFailedCalls());
+        assertEquals(issuedCallCount + 1, reconciler.getIssuedCallCount());
+        assertEquals(AudioConstants.DEVICE_STATE_AVAILABLE, simulator.getDeviceState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, ADDRESS));
+    }
+
+    @Test
+    public void failedA2dpSuspendedIsRetried() {
+        desired.setA2dpSuspended(true);
+
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_A2DP_SUSPENDED);
+        reconciler.apply(desired);
+        assertTrue(reconciler.hasFailedCalls());
+        assertFalse(simulator.isA2dpSuspended());
+
+        simulator.setFailingOperations(0);
+        reconciler.apply(desired);
+        assertFalse(reconciler.hasFailedCalls());
+        assertTrue(simulator.isA2dpSuspended());
+    }
+
+    @Test
+    public void failedRevertIsRetried() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        reconciler.apply(desired);
+
+        // reverting to the value before the failure must not be skipped, the backend state is unknown
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_HEADPHONES);
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_FORCE_USE);
+        reconciler.apply(desired);
+        assertTrue(reconciler.hasFailedCalls());
+
+        simulator.setFailingOperations(0);
+        simulator.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_HEADPHONES);
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        reconciler.apply(desired);
+        assertFalse(reconciler.hasFailedCalls());
+        assertEquals(AudioConstants.FORCE_SPEAKER, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+    }
+
+    @Test
+    public void failedRestoreIsKept() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        reconciler.apply(desired);
+        assertEquals(AudioConstants.FORCE_NONE, reconciler.getOriginalForceUse(AudioConstants.FOR_MEDIA));
+
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_SET_FORCE_USE);
+        assertEquals(0, reconciler.restoreForceUse());
+        assertEquals(AudioConstants.FORCE_NONE, reconciler.getOriginalForceUse(AudioConstants.FOR_MEDIA));
+
+        simulator.setFailingOperations(0);
+        assertEquals(1, reconciler.restoreForceUse());
+        assertEquals(AudioConstants.FORCE_NONE, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+    }
+
+    @Test
+    public void failedReadIsNotRepaired() {
+        desired.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        desired.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+        reconciler.apply(desired);
+        long issuedCallCount = reconciler.getIssuedCallCount();
+
+        // the getters fail, the values can not be told from the drift
+        simulator.setFailingOperations(1 << MetricsListener.OPERATION_GET_FORCE_USE | 1 << MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE);
+        long callCount = simulator.getCallCount();
+        assertEquals(0, reconciler.repairDrift());
+        assertEquals(0, reconciler.getRepairedCallCount());
+        assertFalse(reconciler.hasFailedCalls());
+        // only the two reads
+        assertEquals(callCount + 2, simulator.getCallCount());
+        assertEquals(issuedCallCount, reconciler.getIssuedCallCount());
+
+        // the real drift is repaired once the getters recover
+        simulator.setFailingOperations(0);
+        simulator.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_NONE);
+        assertEquals(1, reconciler.repairDrift());
+        assertEquals(AudioConstants.FORCE_SPEAKER, simulator.getForceUseConfig(AudioConstants.FOR_MEDIA));
+    }
+}
@@ -0,0 +1,99 @@
+package jp.kshoji.audio.route;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RouteState}
+ *
+ * @author K.Shoji
+ */
+public class RouteStateTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private RouteState state;
+
+    @Before
+    public void setUp() {
+        state = new RouteState();
+    }
+
+    @Test
+    public void newStateIsEmpty() {
+        assertTrue(state.isEmpty());
+        assertEquals(RouteState.FORCE_UNSPECIFIED, state.getForceUse(AudioConstants.FOR_MEDIA));
+        assertNull(state.getA2dpSuspended());
+        assertEquals(0, state.getDeviceCount());
+    }
+
+    @Test
+    public void sameDeviceIsOverwritten() {
+        state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+        state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_UNAVAILABLE, ADDRESS, "headset");
+        assertEquals(1, state.getDeviceCount());
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, state.getDeviceConnectionState(0));
+
+        // the name is a part of the device
+        state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "other");
+        assertEquals(2, state.getDeviceCount());
+    }
+
+    @Test
+    public void deviceStatesGrow() {
+        for (int i = 0; i < 100; i++) {
+            state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, i % 2, String.valueOf(i), "");
+        }
+        assertEquals(100, state.getDeviceCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2, state.getDeviceConnectionState(new RouteState.Device(AudioConstants.DEVICE_OUT_WIRED_HEADSET, String.valueOf(i), "")));
+        }
+    }
+
+    @Test
+    public void removedDeviceIsUnspecified() {
+        RouteState.Device device = new RouteState.Device(AudioConstants.DEVICE_OUT_WIRED_HEADSET, ADDRESS, "headset");
+        RouteState.Device other = new RouteState.Device(AudioConstants.DEVICE_OUT_SPEAKER, "", "");
+        state.setDeviceConnectionState(device, AudioConstants.DEVICE_STATE_AVAILABLE);
+        state.setDeviceConnectionState(other, AudioConstants.DEVICE_STATE_UNAVAILABLE);
+
+        state.removeDevice(device);
+        assertEquals(RouteState.STATE_UNSPECIFIED, state.getDeviceConnectionState(device));
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, state.getDeviceConnectionState(other));
+        assertEquals(1, state.getDeviceCount());
+    }
+
+    @Test
+    public void mergeKeepsUnspecifiedValues() {
+        state.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        state.setForceUse(AudioConstants.FOR_COMMUNICATION, AudioConstants.FORCE_SPEAKER);
+        state.setA2dpSuspended(true);
+        state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_SPEAKER, AudioConstants.DEVICE_STATE_AVAILABLE, "", "");
+
+        RouteState other = new RouteState();
+        other.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_HEADPHONES);
+        other.setDeviceConnectionState(AudioConstants.DEVICE_OUT_SPEAKER, AudioConstants.DEVICE_STATE_UNAVAILABLE, "", "");
+        other.setDeviceConnectionState(AudioConstants.DEVICE_OUT_WIRED_HEADSET, AudioConstants.DEVICE_STATE_AVAILABLE, ADDRESS, "headset");
+        state.merge(other);
+
+        assertEquals(AudioConstants.FORCE_HEADPHONES, state.getForceUse(AudioConstants.FOR_MEDIA));
+        assertEquals(AudioConstants.FORCE_SPEAKER, state.getForceUse(AudioConstants.FOR_COMMUNICATION));
+        assertEquals(Boolean.TRUE, state.getA2dpSuspended());
+        assertEquals(2, state.getDeviceCount());
+        assertEquals(AudioConstants.DEVICE_STATE_UNAVAILABLE, state.getDeviceConnectionState(new RouteState.Device(AudioConstants.DEVICE_OUT_SPEAKER, "", "")));
+    }
+
+    @Test
+    public void clearedStateIsEmpty() {
+        state.setForceUse(AudioConstants.FOR_MEDIA, AudioConstants.FORCE_SPEAKER);
+        state.setDeviceConnectionState(AudioConstants.DEVICE_OUT_SPEAKER, AudioConstants.DEVICE_STATE_AVAILABLE, "", "");
+        assertFalse(state.isEmpty());
+
+        state.clear();
+        assertTrue(state.isEmpty());
+    }
+}
@@ -1,24 +1,72 @@
 package jp.kshoji.audio.receiver;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
-import android.os.Bundle;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import jp.kshoji.audio.route.AudioBackend;
+import jp.kshoji.audio.route.AudioPolicySimulator;
+import jp.kshoji.audio.route.BluetoothMetadataCache;
+import jp.kshoji.audio.route.Clock;
+import jp.kshoji.audio.route.ConnectedDevice;
+import jp.kshoji.audio.route.DeviceRegistry;
+import jp.kshoji.audio.route.DriftMonitor;
+import jp.kshoji.audio.route.EventJournal;
+import jp.kshoji.audio.route.FlapDamper;
+import jp.kshoji.audio.route.JournalingAudioBackend;
+import jp.kshoji.audio.route.MetricsListener;
+import jp.kshoji.audio.route.OutputProfile;
+import jp.kshoji.audio.route.OutputProfileCache;
+import jp.kshoji.audio.route.RouteCoalescer;
+import jp.kshoji.audio.route.RouteExecutor;
+import jp.kshoji.audio.route.RoutePlanner;
+import jp.kshoji.audio.route.RoutePolicy;
+import jp.kshoji.audio.route.RouteReconciler;
+import jp.kshoji.audio.route.RouteSnapshot;
+import jp.kshoji.audio.route.RouteState;
 import jp.kshoji.audio.util.AudioSystem;
+import jp.kshoji.audio.util.HiddenApiAudioBackend;
 
 /**
  * <h2>Routing the audio output</h2>
  * When the headphone connected, audio output will switch to the headphone, and speaker will be turned off. This is the default behaviour.<br />
  * With using {@link #setRouteMode(AudioRouteMode)} method or {@link #AudioRouter(Context, AudioRouteMode)} constructor, this class forces the audio output to the specified audio route.<br />
+ * The router created with {@link #AudioRouter(Context, AudioRouteMode)} constructor routes on the calling threads, synchronously unless another thread is routing at the same time.
+ * The router created with {@link Builder} routes on the dedicated routing thread, or the executor specified with {@link Builder#setRoutingExecutor(Executor)}.<br />
+ * The initialization also runs on the routing thread, use {@link Builder} and {@link #getReadyFuture()} to construct the router without blocking.
+ * The methods with the Async suffix return the futures to wait for the routing.<br />
+ * The routing state is published as the immutable {@link AudioRouterState}, use {@link #getState()} to read it from any thread, and {@link #setOnStateChangedListener(OnStateChangedListener)} to be notified.<br />
  * <ul>
  * <li>This class requires a permission 'android.permission.MODIFY_AUDIO_SETTINGS' and 'android.permission.BLUETOOTH'.</li>
  * <li>This class uses the hidden API, so the function will be broken in the future Android updates.</li>
@@ -27,95 +75,264 @@ import jp.kshoji.audio.util.AudioSystem;
  * @author K.Shoji
  */
 public final class AudioRouter extends BroadcastReceiver {
+    private static final String SNAPSHOT_FILE_NAME = "jp.kshoji.audio.route.snapshot";
+    private static final long BLUETOOTH_METADATA_IDLE_MILLIS = 10 * 60 * 1000L;
+    private static final long ROUTE_RETRY_INITIAL_MILLIS = 1000L;
+    private static final long ROUTE_RETRY_MAX_MILLIS = 5 * 60 * 1000L;
+    private static final long BLUETOOTH_SYNC_TIMEOUT_MILLIS = 1000L;
+    private static final Executor CALLING_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
     private final Context context;
-    private AudioRouteMode routeMode = AudioRouteMode.NO_ROUTING;
-    private Collection<BluetoothDevice> connectedBluetoothDevices = new HashSet<>();
-    private Collection<Headset> connectedHeadsets = new HashSet<>();
-    private Collection<UsbAudio> connectedUsbAudios = new HashSet<>();
-    private final int initialRoute;
+    private volatile AudioRouteMode routeMode = AudioRouteMode.NO_ROUTING;
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry();
+    private final BluetoothMetadataCache bluetoothMetadataCache = new BluetoothMetadataCache(BLUETOOTH_METADATA_IDLE_MILLIS, Clock.SYSTEM);
+    private final OutputProfileCache outputProfileCache = new OutputProfileCache();
+    // the properties of the output in use, null if not routed
+    private OutputProfile outputProfile;
+    private RoutePolicy routePolicy = RoutePolicy.createDefault();
     private AudioManager audioManager;
-
-    /**
-     * Represents headset connection information
-     */
-    private final class Headset {
-        private String address;
-        private String portName;
-        private int microphone;
-
-        public String getAddress() {
-            return address;
+    private final RouteState desiredRoute = new RouteState();
+    private RouteState routeTable = new RouteState();
+    // created on the routing thread
+    private volatile RouteReconciler routeReconciler;
+    private JournalingAudioBackend journalingBackend;
+    private volatile EventJournal eventJournal;
+    private final AudioBackend audioBackend;
+    private boolean receiverRegistered;
+    // the device types of the registered actions, bitmask of DeviceRegistry.TYPE_* values
+    private int subscribedTypes;
+    // true while the route pass waits for the connected Bluetooth A2DP devices from the profile proxy
+    private boolean bluetoothSyncPending;
+    private final Future<Void> readyFuture;
+    private File snapshotFile;
+    private int savedModificationCount;
+    private final int[] savedOriginalForceUse = new int[RouteState.USAGE_COUNT];
+    // written only on the routing thread
+    private final AudioRouterStatePublisher statePublisher;
+    private int publishedModificationCount;
+    private final int[] publishedForceUse = new int[RouteState.USAGE_COUNT];
+    private volatile OnStateChangedListener stateChangedListener;
+    private final AtomicBoolean stateChangedPosted = new AtomicBoolean();
+    private final Runnable stateChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // clears before reading, the state published after this read will be posted again
+            stateChangedPosted.set(false);
+            OnStateChangedListener listener = stateChangedListener;
+            if (listener != null) {
+                listener.onStateChanged(statePublisher.get());
+            }
         }
+    };
+    private final Handler handler;
+    private final RouteExecutor routeExecutor;
+    private final ExecutorService ownedExecutorService;
+    private RouteCoalescer routeCoalescer;
+    private DriftMonitor driftMonitor;
+    private final Callable<Void> driftProbeTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            if (driftMonitor == null || routeMode == AudioRouteMode.NO_ROUTING) {
+                return null;
+            }
+            if (audioBackend == null && !AudioSystem.isSupported(MetricsListener.OPERATION_GET_FORCE_USE) && !AudioSystem.isSupported(MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE)) {
+                // the route can not be read back on this device, stop probing
+                driftMonitor = null;
+                return null;
+            }
 
-        public void setAddress(String address) {
-            this.address = address;
+            int repaired = routeReconciler.repairDrift();
+            if (routeReconciler.hasFailedCalls()) {
+                scheduleRouteRetry();
+            }
+            handler.postDelayed(driftProbeRunnable, driftMonitor.onProbe(repaired));
+            return null;
         }
-
-        public String getPortName() {
-            return portName;
+    };
+    private final Runnable driftProbeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            routeExecutor.submit(driftProbeTask);
         }
+    };
+    private volatile MetricsListener metricsListener;
+    private long pendingEventNanos;
+    private volatile FlapDamper flapDamper;
+    // the latest events of the suppressed devices, keyed on the registry entry, compared with the type, address and port
+    private final HashMap<Object, ConnectionEvent> heldEvents = new HashMap<>();
+    private final ArrayList<Object> releasedDevices = new ArrayList<>();
+    private final Callable<Void> flapReleaseTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            if (flapDamper == null) {
+                return null;
+            }
 
-        public void setPortName(String portName) {
-            this.portName = portName;
+            releasedDevices.clear();
+            long delay = flapDamper.poll(releasedDevices);
+            if (!releasedDevices.isEmpty()) {
+                for (Object device : releasedDevices) {
+                    ConnectionEvent event = heldEvents.remove(device);
+                    if (event != null) {
+                        updateDevices(event);
+                        event.recycle();
+                    }
+                }
+                releasedDevices.clear();
+                if (routeMode != AudioRouteMode.NO_ROUTING) {
+                    requestRoute();
+                }
+                publishState();
+            }
+            if (delay > 0) {
+                handler.postDelayed(flapReleaseRunnable, delay);
+            }
+            return null;
         }
-
-        public int getMicrophone() {
-            return microphone;
+    };
+    private final Runnable flapReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            routeExecutor.submit(flapReleaseTask);
         }
+    };
+    private final Callable<Void> coalescedRouteTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            if (routeCoalescer == null) {
+                return null;
+            }
 
-        public void setMicrophone(int microphone) {
-            this.microphone = microphone;
+            long delay = routeCoalescer.poll();
+            if (delay == 0) {
+                setupRoute();
+            } else if (delay > 0) {
+                handler.postDelayed(coalescedRouteRunnable, delay);
+            }
+            return null;
         }
-
+    };
+    private final Runnable coalescedRouteRunnable = new Runnable() {
         @Override
-        public int hashCode() {
-            return (address + portName).hashCode();
+        public void run() {
+            routeExecutor.submit(coalescedRouteTask);
         }
-
+    };
+    // the backoff of the route pass retried after the backend failures, 0 if not retrying
+    private long routeRetryDelayMillis;
+    private final Callable<Void> routeRetryTask = new Callable<Void>() {
         @Override
-        public boolean equals(Object o) {
-            if (o == null || !(o instanceof Headset)) {
-                return false;
+        public Void call() {
+            if (routeRetryDelayMillis != 0) {
+                setupRoute();
             }
-            return this.hashCode() == o.hashCode();
+            return null;
         }
-    }
+    };
+    private final Runnable routeRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            routeExecutor.submit(routeRetryTask);
+        }
+    };
+    private final Callable<Void> bluetoothSyncTimeoutTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            if (bluetoothSyncPending) {
+                // the profile proxy has not connected, routes without the Bluetooth A2DP devices
+                finishBluetoothSync();
+            }
+            return null;
+        }
+    };
+    private final Runnable bluetoothSyncTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            routeExecutor.submit(bluetoothSyncTimeoutTask);
+        }
+    };
 
     /**
-     * Represents USB Audio connection information
+     * Connection broadcast, passed to the routing thread. The instances are pooled.
      */
-    private final class UsbAudio {
-        private String address;
-        private String portName;
-
-
-        public String getAddress() {
-            return address;
-        }
+    private static final class ConnectionEvent implements Runnable {
+        private static final int MAX_POOL_SIZE = 8;
+        private static final Object poolLock = new Object();
+        private static ConnectionEvent pool;
+        private static int poolSize;
 
-        public void setAddress(String address) {
-            this.address = address;
-        }
+        private ConnectionEvent next;
+        private AudioRouter audioRouter;
+        private int type;
+        private int state;
+        private String address;
+        private String port;
+        private int microphone;
+        private BluetoothDevice bluetoothDevice;
+        private long receivedNanos;
 
-        public String getPortName() {
-            return portName;
+        /**
+         * Obtains the instance from the pool
+         *
+         * @return the event
+         */
+        static ConnectionEvent obtain() {
+            synchronized (poolLock) {
+                if (pool != null) {
+                    ConnectionEvent event = pool;
+                    pool = event.next;
+                    event.next = null;
+                    poolSize--;
+                    return event;
+                }
+            }
+            return new ConnectionEvent();
         }
 
-        public void setPortName(String portName) {
-            this.portName = portName;
+        /**
+         * Copies the connection, to hold it after this event has been recycled
+         *
+         * @param event the event
+         */
+        void copyFrom(ConnectionEvent event) {
+            type = event.type;
+            state = event.state;
+            address = event.address;
+            port = event.port;
+            microphone = event.microphone;
+            bluetoothDevice = event.bluetoothDevice;
         }
 
-        @Override
-        public int hashCode() {
-            return (address + portName).hashCode();
+        /**
+         * Returns the instance to the pool
+         */
+        void recycle() {
+            audioRouter = null;
+            microphone = 0;
+            address = null;
+            port = null;
+            bluetoothDevice = null;
+            synchronized (poolLock) {
+                if (poolSize < MAX_POOL_SIZE) {
+                    next = pool;
+                    pool = this;
+                    poolSize++;
+                }
+            }
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (o == null || !(o instanceof Headset)) {
-                return false;
+        public void run() {
+            try {
+                audioRouter.handleConnectionChanged(this);
+            } finally {
+                recycle();
             }
-            return this.hashCode() == o.hashCode();
         }
     }
 
@@ -127,285 +344,1634 @@ public final class AudioRouter extends BroadcastReceiver {
         SPEAKER,
         USB_AUDIO,
         BLUETOOTH_A2DP,
-        NO_ROUTING
+        NO_ROUTING,
+        /**
+         * Routes to the best available output, selected with {@link RoutePolicy}
+         */
+        AUTO
     }
 
     /**
-     * Set the route mode
+     * Set the route mode.<br />
+     * On the router created with {@link #AudioRouter(Context, AudioRouteMode)}, the route has been applied when this returns,
+     * unless another thread is routing at the same time, e.g. a broadcast on the main thread: then the route will be applied by that thread after its routing, and this returns without waiting.
+     * Otherwise the route will be applied on the routing thread. Use {@link #setRouteModeAsync(AudioRouteMode)} to wait for it.
      *
      * @param routeMode route mode
      */
     public void setRouteMode(AudioRouteMode routeMode) {
-        this.routeMode = routeMode;
-        setupRoute();
+        setRouteModeAsync(routeMode);
     }
 
     /**
-     * Intent actions
+     * Set the route mode.<br />
+     * The route will be applied on the routing thread. If the previous request has not been started yet, it will be cancelled.
+     *
+     * @param routeMode route mode
+     * @return the future completes when the route has been applied, or cancelled if superseded by the newer request
      */
-    public static final String INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG = "android.intent.action.ANALOG_AUDIO_DOCK_PLUG";
-    public static final String MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG = "android.media.action.ANALOG_AUDIO_DOCK_PLUG";
-    public static final String BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED = "android.bluetooth.a2dp.profile.action.CONNECTION_STATE_CHANGED";
+    public Future<Void> setRouteModeAsync(final AudioRouteMode routeMode) {
+        return routeExecutor.submitLatest(new Callable<Void>() {
+            @Override
+            public Void call() {
+                AudioRouter.this.routeMode = routeMode;
+                recordRouteMode();
+                cancelCoalescedRoute();
+                updateSubscription();
+                setupRoute();
+                clearUnsubscribedDevices();
+                return null;
+            }
+        });
+    }
 
     /**
-     * Constructor, initialize and attach this BroadcastReceiver to the specified context
+     * Route table transaction, sets several usages and device states together.<br />
+     * The values are deduplicated, the last value wins, and applied in a single routing pass: unavailable devices, force-use configs, then available devices.
+     * The transaction can not be modified after {@link #commit()}.
+     */
+    public final class Transaction {
+        private final RouteState routeTable = new RouteState();
+        private boolean committed;
+
+        private Transaction() {
+        }
+
+        /**
+         * Set the force-use config
+         *
+         * @param usage one of AudioSystem.FOR_* values
+         * @param config one of AudioSystem.FORCE_* values
+         * @return this transaction
+         */
+        public Transaction setForceUse(int usage, int config) {
+            checkNotCommitted();
+            routeTable.setForceUse(usage, config);
+            return this;
+        }
+
+        /**
+         * Set the device connection state
+         *
+         * @param device one of AudioSystem.DEVICE_OUT_* values
+         * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+         * @param deviceAddress device address
+         * @param deviceName device name
+         * @return this transaction
+         */
+        public Transaction setDeviceConnectionState(int device, int state, @Nullable String deviceAddress, @Nullable String deviceName) {
+            checkNotCommitted();
+            routeTable.setDeviceConnectionState(device, state, deviceAddress, deviceName);
+            return this;
+        }
+
+        /**
+         * Replaces the route table with this transaction.<br />
+         * The route table wins over the route mode, and will be applied on every routing pass, including {@link AudioRouteMode#NO_ROUTING} mode.
+         * The values removed from the route table are left as applied, use {@link #resetToInitialRoute()} to restore the force-use configs.
+         *
+         * @return the future completes when the route has been applied
+         */
+        public Future<Void> commit() {
+            checkNotCommitted();
+            committed = true;
+            return routeExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    AudioRouter.this.routeTable = routeTable;
+                    cancelCoalescedRoute();
+                    setupRoute();
+                    return null;
+                }
+            });
+        }
+
+        private void checkNotCommitted() {
+            if (committed) {
+                throw new IllegalStateException("The transaction has been committed.");
+            }
+        }
+    }
+
+    /**
+     * Begins the route table transaction.<br />
+     * The route table sets the usages other than FOR_MEDIA, e.g. FOR_COMMUNICATION, FOR_RECORD and FOR_DOCK, together with the route mode.
+     * An empty transaction clears the route table.
      *
-     * @param context the context
+     * @return the new transaction
      */
-    public AudioRouter(@NonNull Context context) {
-        this(context, AudioRouteMode.NO_ROUTING);
+    public Transaction beginTransaction() {
+        return new Transaction();
     }
 
     /**
-     * Constructor, initialize and attach this BroadcastReceiver to the specified context
+     * Set the policy to select the output on {@link AudioRouteMode#AUTO} mode.<br />
+     * The default policy prefers USB Audio, Bluetooth A2DP, wired headset, then speaker.
      *
-     * @param context   the context
-     * @param routeMode route mode
+     * @param routePolicy the policy, must not be modified after this call
+     * @return the future completes when the route has been applied
      */
-    public AudioRouter(@NonNull Context context, AudioRouteMode routeMode) {
-        this.context = context;
-        this.routeMode = routeMode;
+    public Future<Void> setRoutePolicy(@NonNull final RoutePolicy routePolicy) {
+        return routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                AudioRouter.this.routePolicy = routePolicy;
+                routePolicy.evaluate(deviceRegistry);
+                if (routeMode == AudioRouteMode.AUTO) {
+                    setupRoute();
+                }
+                return null;
+            }
+        });
+    }
 
-        initialRoute = AudioSystem.getForceUse(AudioSystem.FOR_MEDIA);
+    /**
+     * Set the coalescing mode.<br />
+     * When enabled, the bursts of the connection broadcasts will be applied once, after no broadcasts arrived during the quiet window.
+     *
+     * @param quietWindowMillis the quiet window in milliseconds, 0 to disable coalescing
+     */
+    public void setCoalescingWindow(long quietWindowMillis) {
+        setCoalescingWindow(quietWindowMillis, Clock.SYSTEM);
+    }
 
-        audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+    /**
+     * Set the coalescing mode, with the specified time source.
+     *
+     * @param quietWindowMillis the quiet window in milliseconds, 0 to disable coalescing
+     * @param clock the time source
+     */
+    public void setCoalescingWindow(final long quietWindowMillis, @NonNull final Clock clock) {
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                boolean pending = routeCoalescer != null && routeCoalescer.isPending();
+                cancelCoalescedRoute();
 
-        setupRoute();
+                if (quietWindowMillis > 0) {
+                    routeCoalescer = new RouteCoalescer(quietWindowMillis, clock);
+                } else {
+                    routeCoalescer = null;
+                }
 
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG);
-        filter.addAction(MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG);
-        filter.addAction(BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED);
-        filter.addAction(Intent.ACTION_HEADSET_PLUG);
-        context.registerReceiver(this, filter);
+                if (pending) {
+                    requestRoute();
+                }
+                return null;
+            }
+        });
     }
 
     /**
-     * Reset the route to initial route
+     * Set the drift detection mode.<br />
+     * When enabled, the route applied by this router is read back periodically, and the values changed by other apps or the system will be re-applied.
+     * The probe interval is doubled while the route is stable, and shortened to the min interval after changes.
+     * The values failed to read back are not re-applied, and the probing stops if the hidden getters are not supported on this device.
+     *
+     * @param minIntervalMillis the probe interval after changes, in milliseconds, 0 to disable drift detection
+     * @param maxIntervalMillis the probe interval while stable, in milliseconds
      */
-    public void resetToInitialRoute() {
-        AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, initialRoute);
+    public void setDriftDetection(final long minIntervalMillis, final long maxIntervalMillis) {
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                handler.removeCallbacks(driftProbeRunnable);
+                if (minIntervalMillis > 0) {
+                    driftMonitor = new DriftMonitor(minIntervalMillis, maxIntervalMillis);
+                    handler.postDelayed(driftProbeRunnable, driftMonitor.getIntervalMillis());
+                } else {
+                    driftMonitor = null;
+                }
+                return null;
+            }
+        });
     }
 
     /**
-     * Must be called on Activity.onDestroy()
+     * Set the flap damping mode.<br />
+     * When enabled, each device has the penalty increased on each connection state change, and decayed with the half-life.
+     * The device changing too often is held in its last applied state until it settles, instead of switching the route on each change.
+     *
+     * @param halfLifeMillis the half-life of the penalty in milliseconds, 0 to disable flap damping
      */
-    public void terminate() {
-        context.unregisterReceiver(this);
+    public void setFlapDamping(long halfLifeMillis) {
+        setFlapDamping(halfLifeMillis, Clock.SYSTEM);
     }
 
     /**
-     * Obtains value for key, returns defaultValue if value is null
+     * Set the flap damping mode, with the specified clock
      *
-     * @param bundle       the bundle
-     * @param key          key string
-     * @param defaultValue default value
-     * @return the value
+     * @param halfLifeMillis the half-life of the penalty in milliseconds, 0 to disable flap damping
+     * @param clock the time source
      */
-    private String getStringFromBundle(Bundle bundle, String key, String defaultValue) {
-        final String result = bundle.getString(key);
-        return (result == null) ? defaultValue : result;
+    public void setFlapDamping(final long halfLifeMillis, @NonNull final Clock clock) {
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                releaseHeldEvents();
+                flapDamper = halfLifeMillis > 0 ? new FlapDamper(halfLifeMillis, clock) : null;
+                return null;
+            }
+        });
     }
 
-    @Override
-    public void onReceive(Context context, Intent intent) {
-        String action = intent.getAction();
-        Bundle extras = intent.getExtras();
+    /**
+     * Obtains the number of the connection state changes suppressed by the flap damping
+     *
+     * @return the count
+     */
+    public long getSuppressedTransitionCount() {
+        FlapDamper flapDamper = this.flapDamper;
+        return flapDamper == null ? 0 : flapDamper.getSuppressedTransitionCount();
+    }
 
-        if (routeMode == AudioRouteMode.NO_ROUTING) {
-            return;
-        }
+    /**
+     * Obtains the number of the route values re-applied by the drift detection
+     *
+     * @return the count
+     */
+    public long getRepairedCallCount() {
+        RouteReconciler routeReconciler = this.routeReconciler;
+        return routeReconciler == null ? 0 : routeReconciler.getRepairedCallCount();
+    }
 
-        // update connecting devices
-        int connectionState = extras.getInt("state");
-        switch (action) {
-            case INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG:
-            case MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG:
-                if ("usb_audio".equals(extras.getString("name"))) {
-                    UsbAudio usbAudio = new UsbAudio();
-                    usbAudio.setAddress(getStringFromBundle(extras, "address", ""));
-                    usbAudio.setPortName(getStringFromBundle(extras, "name", ""));
-
-                    if (connectionState == 1) {
-                        connectedUsbAudios.add(usbAudio);
-                    } else if (connectionState == 0) {
-                        connectedUsbAudios.remove(usbAudio);
-                    }
-                    setupRoute();
-                }
-                break;
-            case Intent.ACTION_HEADSET_PLUG:
-                Headset headset = new Headset();
-                headset.setAddress(getStringFromBundle(extras, "address", ""));
-                headset.setPortName(getStringFromBundle(extras, "portName", ""));
-                headset.setMicrophone(extras.getInt("microphone", 0));
-
-                if (connectionState == 1) {
-                    connectedHeadsets.add(headset);
-                } else if (connectionState == 0) {
-                    connectedHeadsets.remove(headset);
-                }
-                setupRoute();
-                break;
-            case BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED:
-                BluetoothDevice bluetoothDevice = (BluetoothDevice) extras.get("android.bluetooth.device.extra.DEVICE");
-                if (bluetoothDevice != null) {
-                    int bluetoothConnectionState = extras.getInt("android.bluetooth.profile.extra.STATE");
-                    if (bluetoothConnectionState == 2) {
-                        connectedBluetoothDevices.add(bluetoothDevice);
-                    } else if (bluetoothConnectionState == 0) {
-                        connectedBluetoothDevices.remove(bluetoothDevice);
-                    }
+    /**
+     * Set the journal to record the broadcasts, the route mode changes and the hidden API calls.<br />
+     * To record from the initialization, use {@link Builder#setEventJournal(EventJournal)}.
+     *
+     * @param eventJournal the journal, null to disable
+     */
+    public void setEventJournal(@Nullable final EventJournal eventJournal) {
+        this.eventJournal = eventJournal;
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (journalingBackend != null) {
+                    journalingBackend.setEventJournal(eventJournal);
                 }
-                setupRoute();
-                break;
-        }
+                return null;
+            }
+        });
     }
 
     /**
-     * Set the audio output to the specified route
+     * Set the listener to measure the routing passes, and the latencies from the broadcast receipt to the route applied.<br />
+     * To measure the hidden API calls, use {@link AudioSystem#setMetricsListener(MetricsListener)}.
+     *
+     * @param listener the listener, null to disable
      */
-    private void setupRoute() {
-        switch (routeMode) {
-            case WIRED_HEADPHONE:
-                // disable other sources
-                setupSpeaker(false);
-                setupUsbAudio(false);
-                setupBluetoothA2DP(false);
+    public void setMetricsListener(@Nullable MetricsListener listener) {
+        metricsListener = listener;
+    }
 
-                // enable headphone
-                setupHeadphone(true);
-                break;
-            case SPEAKER:
-                // disable other sources
-                setupHeadphone(false);
-                setupUsbAudio(false);
-                setupBluetoothA2DP(false);
+    /**
+     * Intent actions
+     */
+    public static final String INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG = "android.intent.action.ANALOG_AUDIO_DOCK_PLUG";
+    public static final String MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG = "android.media.action.ANALOG_AUDIO_DOCK_PLUG";
+    public static final String BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED = "android.bluetooth.a2dp.profile.action.CONNECTION_STATE_CHANGED";
 
-                // enable speaker
-                setupSpeaker(true);
-                break;
-            case USB_AUDIO:
-                // disable other sources
-                setupHeadphone(false);
-                setupSpeaker(false);
-                setupBluetoothA2DP(false);
+    /**
+     * Intent actions of the connection changes
+     */
+    private static final String[] ACTIONS = {INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG, MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG, BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED, Intent.ACTION_HEADSET_PLUG};
 
-                // enable USB Audio
-                setupUsbAudio(true);
-                break;
-            case BLUETOOTH_A2DP:
-                // disable other sources
-                setupHeadphone(false);
-                setupSpeaker(false);
-                setupUsbAudio(false);
+    /**
+     * Sticky intent actions, to seed the connected devices on start
+     */
+    private static final String[] STICKY_ACTIONS = {INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG, MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG, Intent.ACTION_HEADSET_PLUG};
 
-                // enable bluetooth A2DP
-                setupBluetoothA2DP(true);
-                break;
-            case NO_ROUTING:
-                // do nothing
-                break;
+    private static final int ALL_TYPES = DeviceRegistry.TYPE_WIRED_HEADSET | DeviceRegistry.TYPE_USB_AUDIO | DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+
+    /**
+     * Builds the {@link AudioRouter}.<br />
+     * {@link #build()} returns immediately, and the router will be initialized on the routing thread.
+     */
+    public static final class Builder {
+        private final Context context;
+        private AudioRouteMode routeMode = AudioRouteMode.NO_ROUTING;
+        private Executor routingExecutor;
+        private EventJournal eventJournal;
+        private AudioBackend audioBackend;
+
+        /**
+         * Constructor
+         *
+         * @param context the context
+         */
+        public Builder(@NonNull Context context) {
+            this.context = context;
+        }
+
+        /**
+         * Set the initial route mode
+         *
+         * @param routeMode route mode, {@link AudioRouteMode#NO_ROUTING} by default
+         * @return this builder
+         */
+        public Builder setRouteMode(@NonNull AudioRouteMode routeMode) {
+            this.routeMode = routeMode;
+            return this;
+        }
+
+        /**
+         * Set the executor to run the routing
+         *
+         * @param routingExecutor the executor, null to use the dedicated routing thread
+         * @return this builder
+         */
+        public Builder setRoutingExecutor(@Nullable Executor routingExecutor) {
+            this.routingExecutor = routingExecutor;
+            return this;
+        }
+
+        /**
+         * Set the journal to record the events, from the initialization
+         *
+         * @param eventJournal the journal, null to disable
+         * @return this builder
+         */
+        public Builder setEventJournal(@Nullable EventJournal eventJournal) {
+            this.eventJournal = eventJournal;
+            return this;
         }
+
+        /**
+         * Set the backend to apply the route, instead of the hidden API.<br />
+         * e.g. {@link AudioPolicySimulator} to exercise the routing without the device.
+         *
+         * @param audioBackend the backend, null to use the hidden API
+         * @return this builder
+         */
+        public Builder setAudioBackend(@Nullable AudioBackend audioBackend) {
+            this.audioBackend = audioBackend;
+            return this;
+        }
+
+        /**
+         * Creates the router, the initialization runs in the background
+         *
+         * @return the router, use {@link AudioRouter#getReadyFuture()} to wait for the initialization
+         */
+        public AudioRouter build() {
+            return new AudioRouter(context, routeMode, routingExecutor, eventJournal, audioBackend);
+        }
+    }
+
+    /**
+     * Constructor, initialize and attach this BroadcastReceiver to the specified context.<br />
+     * Same as {@link #AudioRouter(Context, AudioRouteMode)}, the routing runs on the calling threads.
+     *
+     * @param context the context
+     */
+    public AudioRouter(@NonNull Context context) {
+        this(context, AudioRouteMode.NO_ROUTING);
+    }
+
+    /**
+     * Constructor, initialize and attach this BroadcastReceiver to the specified context.<br />
+     * The router has been initialized and the initial route has been applied when this returns.
+     * The routing runs on the calling threads, e.g. the main thread for the broadcasts, without the dedicated routing thread.
+     * The routing is serialized: the request made while another thread is routing is run by that thread, and the method returns without waiting for it.
+     * Use {@link Builder} to run the routing on the routing thread.
+     *
+     * @param context   the context
+     * @param routeMode route mode
+     */
+    public AudioRouter(@NonNull Context context, AudioRouteMode routeMode) {
+        this(context, routeMode, CALLING_THREAD_EXECUTOR);
     }
 
     /**
-     * Sets up headphone routing
+     * Constructor, initialize and attach this BroadcastReceiver to the specified context.<br />
+     * The initialization runs on the routing thread, and the methods called before the initialization are queued.
      *
-     * @param enabled headphone status
+     * @param context   the context
+     * @param routeMode route mode
+     * @param routingExecutor the executor to run the routing, null to use the dedicated routing thread
      */
-    private void setupHeadphone(boolean enabled) {
-        if (enabled) {
-            AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_HEADPHONES);
-            if (connectedHeadsets.isEmpty()) {
-                AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_WIRED_HEADPHONE, AudioSystem.DEVICE_STATE_AVAILABLE, "");
-            } else {
-                for (Headset headset : connectedHeadsets) {
-                    int deviceOut = (headset.getMicrophone() == 0) ? AudioSystem.DEVICE_OUT_WIRED_HEADPHONE : AudioSystem.DEVICE_OUT_WIRED_HEADSET;
+    public AudioRouter(@NonNull Context context, AudioRouteMode routeMode, @Nullable Executor routingExecutor) {
+        this(context, routeMode, routingExecutor, null, null);
+    }
+
+    private AudioRouter(@NonNull Context context, AudioRouteMode routeMode, @Nullable Executor routingExecutor, @Nullable EventJournal eventJournal, @Nullable AudioBackend audioBackend) {
+        this.context = context;
+        this.routeMode = routeMode;
+        this.eventJournal = eventJournal;
+        this.audioBackend = audioBackend;
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            publishedForceUse[usage] = RouteState.FORCE_UNSPECIFIED;
+        }
+        statePublisher = new AudioRouterStatePublisher(routeMode);
 
-                    AudioSystem.setDeviceConnectionState(deviceOut, AudioSystem.DEVICE_STATE_AVAILABLE, headset.getAddress(), headset.getPortName());
+        if (routingExecutor == null) {
+            ownedExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    return new Thread(runnable, "AudioRouter");
                 }
-            }
+            });
+            routingExecutor = ownedExecutorService;
         } else {
-            if (connectedHeadsets.isEmpty()) {
-                AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_WIRED_HEADPHONE, AudioSystem.DEVICE_STATE_UNAVAILABLE, "");
-            } else {
-                for (Headset headset : connectedHeadsets) {
-                    int deviceOut = (headset.getMicrophone() == 0) ? AudioSystem.DEVICE_OUT_WIRED_HEADPHONE : AudioSystem.DEVICE_OUT_WIRED_HEADSET;
+            ownedExecutorService = null;
+        }
+        routeExecutor = new RouteExecutor(routingExecutor);
+        handler = new Handler(context.getMainLooper());
 
-                    AudioSystem.setDeviceConnectionState(deviceOut, AudioSystem.DEVICE_STATE_UNAVAILABLE, headset.getAddress(), headset.getPortName());
-                }
+        readyFuture = routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                initialize();
+                return null;
             }
-        }
+        });
     }
 
     /**
-     * Sets up speaker routing
+     * Obtains the future completes when the router has been initialized, and the initial route has been applied.<br />
+     * While Bluetooth A2DP is subscribed, the initial route is applied after the profile proxy reports the connected devices, or after 1 second, that may be after the completion.
      *
-     * @param enabled speaker status
+     * @return the future
      */
-    private void setupSpeaker(boolean enabled) {
-        if (enabled) {
-            AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_SPEAKER);
-            AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_SPEAKER, AudioSystem.DEVICE_STATE_AVAILABLE, "", "");
-        } else {
-            AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_SPEAKER, AudioSystem.DEVICE_STATE_UNAVAILABLE, "", "");
-        }
+    public Future<Void> getReadyFuture() {
+        return readyFuture;
     }
 
     /**
-     * Sets up Bluetooth A2DP routing
+     * Obtains the latest routing state, never blocks.<br />
+     * The state is published after the route has been applied, or the connected devices have been changed.
+     * The snapshot is built on the first read after each publication, and shared by the following reads.
      *
-     * @param enabled Bluetooth A2DP status
+     * @return the immutable snapshot
      */
-    private void setupBluetoothA2DP(boolean enabled) {
-        int status;
-        if (enabled) {
-            AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_BT_A2DP);
-            audioManager.setParameters("A2dpSuspended=false");
-            status = AudioSystem.DEVICE_STATE_AVAILABLE;
-        } else {
-            AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_NO_BT_A2DP);
-            audioManager.setParameters("A2dpSuspended=true");
-            status = AudioSystem.DEVICE_STATE_UNAVAILABLE;
-        }
+    @NonNull
+    public AudioRouterState getState() {
+        return statePublisher.get();
+    }
+
+    /**
+     * Obtains the route mode requested, never blocks
+     *
+     * @return the route mode
+     */
+    @NonNull
+    public AudioRouteMode getRouteMode() {
+        return getState().getRouteMode();
+    }
 
-        for (BluetoothDevice bluetoothDevice : connectedBluetoothDevices) {
-            AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP, status, bluetoothDevice.getAddress(), bluetoothDevice.getName());
+    /**
+     * Obtains the route mode applied, never blocks
+     *
+     * @return the route mode, {@link AudioRouteMode#AUTO} mode is resolved with the policy
+     */
+    @NonNull
+    public AudioRouteMode getEffectiveRouteMode() {
+        return getState().getEffectiveRouteMode();
+    }
 
-            switch (bluetoothDevice.getBluetoothClass().getDeviceClass()) {
-                case BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES:
-                case BluetoothClass.Device.AUDIO_VIDEO_WEARABLE_HEADSET:
-                    AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES, status, bluetoothDevice.getAddress(), bluetoothDevice.getName());
-                    break;
-                case BluetoothClass.Device.AUDIO_VIDEO_CAR_AUDIO:
-                case BluetoothClass.Device.AUDIO_VIDEO_HANDSFREE:
-                case BluetoothClass.Device.AUDIO_VIDEO_HIFI_AUDIO:
-                case BluetoothClass.Device.AUDIO_VIDEO_LOUDSPEAKER:
-                case BluetoothClass.Device.AUDIO_VIDEO_PORTABLE_AUDIO:
-                case BluetoothClass.Device.AUDIO_VIDEO_SET_TOP_BOX:
-                    AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER, status, bluetoothDevice.getAddress(), bluetoothDevice.getName());
-                    break;
-            }
-        }
+    /**
+     * Obtains the force-use config applied by this router, never blocks and calls no hidden API
+     *
+     * @param usage audio usage, e.g. AudioSystem.FOR_MEDIA
+     * @return device categories config, or {@link RouteState#FORCE_UNSPECIFIED} if not applied
+     */
+    public int getForceUse(int usage) {
+        return getState().getForceUse(usage);
     }
 
     /**
-     * Sets up USB Audio routing
+     * Obtains the connected wired headsets and headphones, never blocks
      *
-     * @param enabled USB Audio status
+     * @return the unmodifiable list
      */
-    private void setupUsbAudio(boolean enabled) {
-        if (enabled) {
-            AudioSystem.setForceUse(AudioSystem.FOR_MEDIA, AudioSystem.FORCE_ANALOG_DOCK);
-        }
+    @NonNull
+    public List<ConnectedDevice> getConnectedHeadsets() {
+        return getState().getConnectedHeadsets();
+    }
 
-        for (UsbAudio usbAudio : connectedUsbAudios) {
-            if (enabled) {
-                AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_ANLG_DOCK_HEADSET, AudioSystem.DEVICE_STATE_AVAILABLE, usbAudio.getAddress(), usbAudio.getPortName());
-            } else {
-                AudioSystem.setDeviceConnectionState(AudioSystem.DEVICE_OUT_ANLG_DOCK_HEADSET, AudioSystem.DEVICE_STATE_UNAVAILABLE, usbAudio.getAddress(), usbAudio.getPortName());
-            }
+    /**
+     * Obtains the connected USB Audio devices, never blocks
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedUsbAudios() {
+        return getState().getConnectedUsbAudios();
+    }
+
+    /**
+     * Obtains the connected Bluetooth A2DP devices, never blocks
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedBluetoothA2dpDevices() {
+        return getState().getConnectedBluetoothA2dpDevices();
+    }
+
+    /**
+     * Obtains the properties of the output in use, from the latest state
+     *
+     * @return the properties, null on {@link AudioRouteMode#NO_ROUTING} mode
+     */
+    @Nullable
+    public OutputProfile getOutputProfile() {
+        return getState().getOutputProfile();
+    }
+
+    /**
+     * Listens the routing state changes
+     */
+    public interface OnStateChangedListener {
+        /**
+         * Called on the main thread, when the routing state has been changed.<br />
+         * The bursts of the changes are notified once, with the latest state.
+         *
+         * @param state the latest state
+         */
+        void onStateChanged(@NonNull AudioRouterState state);
+    }
+
+    /**
+     * Set the listener of the routing state changes.<br />
+     * While the listener is set, all the devices are tracked, regardless of the route mode.
+     *
+     * @param listener the listener, null to remove
+     */
+    public void setOnStateChangedListener(@Nullable OnStateChangedListener listener) {
+        stateChangedListener = listener;
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                int modificationCount = deviceRegistry.getModificationCount();
+                updateSubscription();
+                if (modificationCount != deviceRegistry.getModificationCount()) {
+                    if (routeMode != AudioRouteMode.NO_ROUTING) {
+                        requestRoute();
+                    }
+                    publishState();
+                }
+                clearUnsubscribedDevices();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Resolves the hidden API, attaches this BroadcastReceiver, and applies the initial route. Called on the routing thread.
+     */
+    private void initialize() {
+        audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        AudioBackend backend = audioBackend;
+        if (backend == null) {
+            AudioSystem.warmUp();
+            backend = new HiddenApiAudioBackend(audioManager);
+        }
+        journalingBackend = new JournalingAudioBackend(backend);
+        journalingBackend.setEventJournal(eventJournal);
+        routeReconciler = new RouteReconciler(journalingBackend);
+        recordRouteMode();
+
+        int addedTypes = subscribe(getRequiredTypes());
+
+        loadSnapshot();
+
+        // the wired devices and USB Audio are seeded even if not subscribed, the state is correct until the next change
+        seedStickyDevices(ALL_TYPES);
+
+        // the A2DP devices of the snapshot are trusted only if the profile proxy reports them, the route pass is deferred until then
+        if ((addedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) != 0) {
+            requestBluetoothA2dpDevices();
+        }
+
+        // apply the route only once, with all the seeded devices
+        routePolicy.evaluate(deviceRegistry);
+        setupRoute();
+        clearUnsubscribedDevices();
+    }
+
+    /**
+     * Obtains the device types to be tracked: the types used by the route mode, or all the types while the state listener is set.<br />
+     * The pinned route modes suspend Bluetooth A2DP, so the A2DP devices are not needed, only their connections are received to suspend A2DP again.
+     * {@link AudioRouteMode#NO_ROUTING} mode needs no devices.
+     *
+     * @return bitmask of DeviceRegistry.TYPE_* values
+     */
+    private int getRequiredTypes() {
+        if (stateChangedListener != null) {
+            return ALL_TYPES;
+        }
+
+        switch (routeMode) {
+            case NO_ROUTING:
+                return 0;
+            case WIRED_HEADPHONE:
+            case SPEAKER:
+            case USB_AUDIO:
+                return DeviceRegistry.TYPE_WIRED_HEADSET | DeviceRegistry.TYPE_USB_AUDIO;
+            default:
+                return ALL_TYPES;
+        }
+    }
+
+    /**
+     * Obtains the device type of the action
+     *
+     * @param action the intent action
+     * @return one of DeviceRegistry.TYPE_* values
+     */
+    private static int getType(String action) {
+        switch (action) {
+            case INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG:
+            case MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG:
+                return DeviceRegistry.TYPE_USB_AUDIO;
+            case BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED:
+                return DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+            default:
+                return DeviceRegistry.TYPE_WIRED_HEADSET;
+        }
+    }
+
+    /**
+     * Registers this receiver for the actions of the device types. The receiver is re-registered only if the types have been changed. Called on the routing thread.
+     *
+     * @param types bitmask of DeviceRegistry.TYPE_* values, 0 to unregister
+     * @return the types newly subscribed
+     */
+    private int subscribe(int types) {
+        if (types == subscribedTypes) {
+            return 0;
+        }
+
+        // the filter of the registered receiver can not be modified
+        if (receiverRegistered) {
+            context.unregisterReceiver(this);
+            receiverRegistered = false;
+        }
+        int addedTypes = types & ~subscribedTypes;
+        subscribedTypes = types;
+        if (types == 0) {
+            return addedTypes;
+        }
+
+        // the route modes not tracking A2DP suspend it, and receive the A2DP connections to suspend it again
+        int actionTypes = types | DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+        IntentFilter filter = new IntentFilter();
+        for (String action : ACTIONS) {
+            if ((actionTypes & getType(action)) != 0) {
+                filter.addAction(action);
+            }
+        }
+        context.registerReceiver(this, filter);
+        receiverRegistered = true;
+        return addedTypes;
+    }
+
+    /**
+     * Updates the subscription for the route mode and the state listener, and synchronizes the devices newly subscribed, changed while not subscribed. Called on the routing thread.<br />
+     * When Bluetooth A2DP is newly subscribed, the route pass is deferred until the devices have been obtained from the profile proxy.
+     */
+    private void updateSubscription() {
+        int previousTypes = subscribedTypes;
+        int addedTypes = subscribe(getRequiredTypes());
+        if ((previousTypes & ~subscribedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) != 0) {
+            cancelBluetoothSync();
+        }
+        if (addedTypes == 0) {
+            return;
+        }
+
+        seedStickyDevices(addedTypes);
+        if ((addedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) != 0) {
+            requestBluetoothA2dpDevices();
+        }
+    }
+
+    /**
+     * Seeds the connected devices from the sticky broadcasts, without routing. Called on the routing thread.
+     *
+     * @param types bitmask of DeviceRegistry.TYPE_* values
+     */
+    private void seedStickyDevices(int types) {
+        // registerReceiver returns only the first sticky intent, so peek each action after the registration.
+        // The initial sticky broadcasts delivered to onReceive are older than these, and will be ignored.
+        for (String action : STICKY_ACTIONS) {
+            if ((types & getType(action)) == 0) {
+                continue;
+            }
+
+            Intent stickyIntent = context.registerReceiver(null, new IntentFilter(action));
+            ConnectionEvent stickyEvent = stickyIntent == null ? null : obtainEvent(stickyIntent);
+            if (stickyEvent != null) {
+                recordBroadcast(stickyEvent, true);
+                if (!heldEvents.isEmpty()) {
+                    // the sticky broadcast is newer than the held event
+                    ConnectionEvent heldEvent = heldEvents.remove(deviceRegistry.intern(stickyEvent.type, stickyEvent.address, stickyEvent.port));
+                    if (heldEvent != null) {
+                        heldEvent.recycle();
+                    }
+                }
+                updateDevices(stickyEvent);
+                stickyEvent.recycle();
+            }
+        }
+    }
+
+    /**
+     * Obtains the connected Bluetooth A2DP devices asynchronously, A2DP broadcasts are not sticky. Called on the routing thread.<br />
+     * The route pass is deferred until the devices have been synchronized, or {@link #BLUETOOTH_SYNC_TIMEOUT_MILLIS} has elapsed.
+     */
+    private void requestBluetoothA2dpDevices() {
+        final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // no Bluetooth, or no profile proxy: the devices will be added on their next broadcasts
+            return;
+        }
+
+        // the listener may be called before getProfileProxy returns
+        bluetoothSyncPending = true;
+        boolean requested = bluetoothAdapter.getProfileProxy(context, new BluetoothProfile.ServiceListener() {
+            @Override
+            public void onServiceConnected(final int profile, final BluetoothProfile proxy) {
+                routeExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // will be synchronized again when subscribed
+                        if ((subscribedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) == 0) {
+                            bluetoothAdapter.closeProfileProxy(profile, proxy);
+                            return null;
+                        }
+
+                        // read after the broadcasts queued before, so the list is not older than them
+                        List<BluetoothDevice> connectedDevices;
+                        try {
+                            connectedDevices = proxy.getConnectedDevices();
+                        } finally {
+                            bluetoothAdapter.closeProfileProxy(profile, proxy);
+                        }
+                        boolean changed = syncBluetoothA2dpDevices(bluetoothAdapter, connectedDevices);
+                        if (bluetoothSyncPending) {
+                            finishBluetoothSync();
+                        } else if (changed) {
+                            // arrived after the timeout
+                            if (routeMode != AudioRouteMode.NO_ROUTING) {
+                                requestRoute();
+                            }
+                            publishState();
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            @Override
+            public void onServiceDisconnected(int profile) {
+            }
+        }, BluetoothProfile.A2DP);
+        if (!requested) {
+            bluetoothSyncPending = false;
+            return;
+        }
+        handler.removeCallbacks(bluetoothSyncTimeoutRunnable);
+        handler.postDelayed(bluetoothSyncTimeoutRunnable, BLUETOOTH_SYNC_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Ends the wait for the profile proxy, and applies the deferred route in a single pass. Called on the routing thread.
+     */
+    private void finishBluetoothSync() {
+        bluetoothSyncPending = false;
+        handler.removeCallbacks(bluetoothSyncTimeoutRunnable);
+        setupRoute();
+    }
+
+    /**
+     * Ends the wait for the profile proxy without routing, Bluetooth A2DP has been unsubscribed. Called on the routing thread.
+     */
+    private void cancelBluetoothSync() {
+        bluetoothSyncPending = false;
+        handler.removeCallbacks(bluetoothSyncTimeoutRunnable);
+    }
+
+    /**
+     * Forgets the Bluetooth A2DP devices while not subscribed, their connection changes will not be received.<br />
+     * The devices are obtained from the profile proxy when subscribed again.
+     * Called on the routing thread, after the route pass of the subscription change: the pinned route modes mark the devices unavailable on that pass.
+     */
+    private void clearUnsubscribedDevices() {
+        if ((subscribedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) != 0) {
+            return;
+        }
+
+        if (!heldEvents.isEmpty()) {
+            Iterator<ConnectionEvent> iterator = heldEvents.values().iterator();
+            while (iterator.hasNext()) {
+                ConnectionEvent heldEvent = iterator.next();
+                if (heldEvent.type == DeviceRegistry.TYPE_BLUETOOTH_A2DP) {
+                    iterator.remove();
+                    heldEvent.recycle();
+                }
+            }
+        }
+        if (!deviceRegistry.isConnected(DeviceRegistry.TYPE_BLUETOOTH_A2DP)) {
+            return;
+        }
+
+        int size = deviceRegistry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.getType() == DeviceRegistry.TYPE_BLUETOOTH_A2DP && entry.isConnected()) {
+                bluetoothMetadataCache.remove(entry.getAddress());
+                deviceRegistry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, entry.getAddress(), "");
+            }
+        }
+        routePolicy.update(deviceRegistry, DeviceRegistry.TYPE_BLUETOOTH_A2DP);
+        saveSnapshot();
+        publishState();
+    }
+
+    /**
+     * Applies the Bluetooth A2DP connection changes missed while not subscribed, as the broadcasts, without routing. Called on the routing thread.
+     *
+     * @param bluetoothAdapter the adapter
+     * @param connectedDevices the connected devices
+     * @return true if the devices have been changed
+     */
+    private boolean syncBluetoothA2dpDevices(BluetoothAdapter bluetoothAdapter, List<BluetoothDevice> connectedDevices) {
+        int modificationCount = deviceRegistry.getModificationCount();
+        ArrayList<String> connectedAddresses = new ArrayList<>(connectedDevices.size());
+        for (BluetoothDevice bluetoothDevice : connectedDevices) {
+            connectedAddresses.add(bluetoothDevice.getAddress());
+        }
+
+        ArrayList<String> disconnectedAddresses = new ArrayList<>();
+        int size = deviceRegistry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.getType() == DeviceRegistry.TYPE_BLUETOOTH_A2DP && entry.isConnected()) {
+                if (!connectedAddresses.remove(entry.getAddress())) {
+                    disconnectedAddresses.add(entry.getAddress());
+                }
+            }
+        }
+
+        // recorded as the sticky broadcasts, to be replayed in order
+        for (String address : disconnectedAddresses) {
+            syncBluetoothA2dpDevice(bluetoothAdapter.getRemoteDevice(address), BluetoothProfile.STATE_DISCONNECTED);
+        }
+        for (BluetoothDevice bluetoothDevice : connectedDevices) {
+            if (connectedAddresses.contains(bluetoothDevice.getAddress())) {
+                syncBluetoothA2dpDevice(bluetoothDevice, BluetoothProfile.STATE_CONNECTED);
+            }
+        }
+        return modificationCount != deviceRegistry.getModificationCount();
+    }
+
+    /**
+     * Applies the Bluetooth A2DP connection change, without routing
+     *
+     * @param bluetoothDevice the device
+     * @param state BluetoothProfile.STATE_CONNECTED or BluetoothProfile.STATE_DISCONNECTED
+     */
+    private void syncBluetoothA2dpDevice(BluetoothDevice bluetoothDevice, int state) {
+        ConnectionEvent event = ConnectionEvent.obtain();
+        event.type = DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+        event.state = state;
+        event.bluetoothDevice = bluetoothDevice;
+        event.receivedNanos = 0;
+        recordBroadcast(event, true);
+        if (!heldEvents.isEmpty()) {
+            // the proxy is newer than the held event
+            ConnectionEvent heldEvent = heldEvents.remove(deviceRegistry.intern(event.type, bluetoothDevice.getAddress(), ""));
+            if (heldEvent != null) {
+                heldEvent.recycle();
+            }
+        }
+        updateDevices(event);
+        event.recycle();
+    }
+
+    /**
+     * Reset the route to initial route.<br />
+     * On the router created with {@link #AudioRouter(Context, AudioRouteMode)}, the route has been reset when this returns,
+     * unless another thread is routing at the same time: then the route will be reset by that thread after its routing, and this returns without waiting.
+     * Otherwise the route will be reset on the routing thread. Use {@link #resetToInitialRouteAsync()} to wait for it.
+     */
+    public void resetToInitialRoute() {
+        resetToInitialRouteAsync();
+    }
+
+    /**
+     * Reset the route to initial route.<br />
+     * The force-use configs of all the usages changed by this router are restored in a single pass.
+     *
+     * @return the future completes when the route has been reset
+     */
+    public Future<Void> resetToInitialRouteAsync() {
+        return routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                routeReconciler.restoreForceUse();
+                saveSnapshot();
+                publishState();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Obtains the operations supported by the audio backend, to choose the fallback strategy on the devices without the hidden API
+     *
+     * @return bitmask of (1 &lt;&lt; MetricsListener.OPERATION_*) values, all the operations for the backend set with {@link Builder#setAudioBackend(AudioBackend)}
+     */
+    public int getBackendCapabilities() {
+        if (audioBackend != null) {
+            return (1 << MetricsListener.OPERATION_COUNT) - 1;
+        }
+        return AudioSystem.getCapabilities();
+    }
+
+    /**
+     * Obtains the number of the hidden API calls skipped, because the same value has been already applied
+     *
+     * @return the count
+     */
+    public long getSkippedCallCount() {
+        RouteReconciler routeReconciler = this.routeReconciler;
+        return routeReconciler == null ? 0 : routeReconciler.getSkippedCallCount();
+    }
+
+    /**
+     * Must be called on Activity.onDestroy()
+     */
+    public void terminate() {
+        handler.removeCallbacks(coalescedRouteRunnable);
+        handler.removeCallbacks(driftProbeRunnable);
+        handler.removeCallbacks(stateChangedRunnable);
+        handler.removeCallbacks(flapReleaseRunnable);
+        handler.removeCallbacks(routeRetryRunnable);
+        handler.removeCallbacks(bluetoothSyncTimeoutRunnable);
+        stateChangedListener = null;
+        routeExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                // runs after the initialization
+                if (receiverRegistered) {
+                    context.unregisterReceiver(AudioRouter.this);
+                    receiverRegistered = false;
+                }
+                subscribedTypes = 0;
+                cancelBluetoothSync();
+                cancelCoalescedRoute();
+                discardHeldEvents();
+                flapDamper = null;
+                bluetoothMetadataCache.clear();
+                outputProfileCache.clear();
+                driftMonitor = null;
+                handler.removeCallbacks(driftProbeRunnable);
+                cancelRouteRetry();
+                return null;
+            }
+        });
+        routeExecutor.shutdown();
+        if (ownedExecutorService != null) {
+            ownedExecutorService.shutdown();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (isInitialStickyBroadcast()) {
+            return;
+        }
+
+        ConnectionEvent event = obtainEvent(intent);
+        if (event == null) {
+            return;
+        }
+
+        event.receivedNanos = metricsListener == null ? 0 : System.nanoTime();
+        recordBroadcast(event, false);
+        if (!routeExecutor.execute(event)) {
+            event.recycle();
+        }
+    }
+
+    /**
+     * Obtains the connection event from the broadcast
+     *
+     * @param intent the broadcast
+     * @return the pooled event, null if the broadcast is not a connection change
+     */
+    @Nullable
+    private ConnectionEvent obtainEvent(@NonNull Intent intent) {
+        String action = intent.getAction();
+        if (action == null) {
+            return null;
+        }
+
+        // read the extras directly, Intent.getExtras() copies the bundle
+        ConnectionEvent event;
+        switch (action) {
+            case INTENT_ACTION_ANALOG_AUDIO_DOCK_PLUG:
+            case MEDIA_ACTION_ANALOG_AUDIO_DOCK_PLUG:
+                String name = intent.getStringExtra("name");
+                if (!"usb_audio".equals(name)) {
+                    return null;
+                }
+                event = ConnectionEvent.obtain();
+                event.type = DeviceRegistry.TYPE_USB_AUDIO;
+                event.state = intent.getIntExtra("state", 0);
+                event.address = intent.getStringExtra("address");
+                event.port = name;
+                break;
+            case Intent.ACTION_HEADSET_PLUG:
+                event = ConnectionEvent.obtain();
+                event.type = DeviceRegistry.TYPE_WIRED_HEADSET;
+                event.state = intent.getIntExtra("state", 0);
+                event.address = intent.getStringExtra("address");
+                event.port = intent.getStringExtra("portName");
+                event.microphone = intent.getIntExtra("microphone", 0);
+                break;
+            case BLUETOOTH_A2DP_CONNECTION_STATE_CHANGED:
+                event = ConnectionEvent.obtain();
+                event.type = DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+                event.state = intent.getIntExtra("android.bluetooth.profile.extra.STATE", 0);
+                event.bluetoothDevice = intent.getParcelableExtra("android.bluetooth.device.extra.DEVICE");
+                break;
+            default:
+                return null;
+        }
+
+        event.audioRouter = this;
+        event.receivedNanos = 0;
+        return event;
+    }
+
+    /**
+     * Records the broadcast to the journal
+     *
+     * @param event the connection event
+     * @param sticky true if the event has been seeded from the sticky broadcast
+     */
+    private void recordBroadcast(ConnectionEvent event, boolean sticky) {
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            String address = event.bluetoothDevice == null ? event.address : event.bluetoothDevice.getAddress();
+            journal.record(EventJournal.KIND_BROADCAST, event.type, event.state, event.microphone, sticky ? 1 : 0, address, event.port);
+        }
+    }
+
+    /**
+     * Records the current route mode to the journal
+     */
+    private void recordRouteMode() {
+        EventJournal journal = eventJournal;
+        if (journal != null) {
+            journal.record(EventJournal.KIND_ROUTE_MODE, routeMode.ordinal(), 0, 0, 0, null, null);
+        }
+    }
+
+    /**
+     * Updates the connecting devices, and requests the routing. Called on the routing thread.
+     *
+     * @param event the connection event
+     */
+    private void handleConnectionChanged(ConnectionEvent event) {
+        boolean a2dpConnected = event.type == DeviceRegistry.TYPE_BLUETOOTH_A2DP && event.state == 2;
+        if (a2dpConnected) {
+            // the audio service resumes A2DP on a new connection, the next route pass suspends it again if A2DP is not selected
+            routeReconciler.invalidateA2dpSuspended();
+        }
+        boolean untracked = event.type == DeviceRegistry.TYPE_BLUETOOTH_A2DP && (subscribedTypes & DeviceRegistry.TYPE_BLUETOOTH_A2DP) == 0;
+        if (untracked || (flapDamper != null && !updateFlapDamper(event))) {
+            // the A2DP devices are not tracked on the pinned route modes, and the held devices are not applied yet, but A2DP must be suspended now
+            if (a2dpConnected && routeMode != AudioRouteMode.NO_ROUTING) {
+                requestRoute();
+            }
+            return;
+        }
+
+        // the devices are tracked on NO_ROUTING mode too, to route correctly after the mode changed
+        updateDevices(event);
+        if (routeMode != AudioRouteMode.NO_ROUTING) {
+            if (pendingEventNanos == 0) {
+                pendingEventNanos = event.receivedNanos;
+            }
+            requestRoute();
+        }
+        // publishes the devices, if the route has been deferred or not changed
+        publishState();
+    }
+
+    /**
+     * Records the connection state change to the flap damper. Called on the routing thread.
+     *
+     * @param event the connection event
+     * @return true if the event should be applied, false if the device is held
+     */
+    private boolean updateFlapDamper(ConnectionEvent event) {
+        DeviceRegistry.Entry entry;
+        boolean connected;
+        switch (event.type) {
+            case DeviceRegistry.TYPE_BLUETOOTH_A2DP:
+                // the connecting and the disconnecting states are not the changes
+                if (event.bluetoothDevice == null || (event.state != 0 && event.state != 2)) {
+                    return true;
+                }
+                entry = deviceRegistry.intern(event.type, event.bluetoothDevice.getAddress(), "");
+                connected = event.state == 2;
+                break;
+            default:
+                if (event.state != 0 && event.state != 1) {
+                    return true;
+                }
+                entry = deviceRegistry.intern(event.type, event.address, event.port);
+                connected = event.state == 1;
+                break;
+        }
+
+        if (flapDamper.update(entry, connected, entry.isConnected())) {
+            // applied, the held event is superseded
+            ConnectionEvent heldEvent = heldEvents.remove(entry);
+            if (heldEvent != null) {
+                heldEvent.recycle();
+            }
+            return true;
+        }
+
+        // the latest event will be applied when the device settles
+        ConnectionEvent heldEvent = heldEvents.get(entry);
+        if (heldEvent == null) {
+            heldEvent = ConnectionEvent.obtain();
+            heldEvents.put(entry, heldEvent);
+        }
+        heldEvent.copyFrom(event);
+        handler.removeCallbacks(flapReleaseRunnable);
+        handler.postDelayed(flapReleaseRunnable, flapDamper.getNextReleaseDelay());
+        return false;
+    }
+
+    /**
+     * Applies the held events, when the flap damping mode is changed
+     */
+    private void releaseHeldEvents() {
+        handler.removeCallbacks(flapReleaseRunnable);
+        if (heldEvents.isEmpty()) {
+            return;
+        }
+
+        for (ConnectionEvent event : heldEvents.values()) {
+            updateDevices(event);
+            event.recycle();
+        }
+        heldEvents.clear();
+        if (routeMode != AudioRouteMode.NO_ROUTING) {
+            requestRoute();
+        }
+        publishState();
+    }
+
+    /**
+     * Discards the held events, on terminate
+     */
+    private void discardHeldEvents() {
+        handler.removeCallbacks(flapReleaseRunnable);
+        for (ConnectionEvent event : heldEvents.values()) {
+            event.recycle();
+        }
+        heldEvents.clear();
+    }
+
+    /**
+     * Updates the connecting devices, without routing. Called on the routing thread.
+     *
+     * @param event the connection event
+     */
+    private void updateDevices(ConnectionEvent event) {
+        switch (event.type) {
+            case DeviceRegistry.TYPE_USB_AUDIO:
+                if (event.state == 1) {
+                    deviceRegistry.connect(DeviceRegistry.TYPE_USB_AUDIO, event.address, event.port, null, AudioSystem.DEVICE_OUT_ANLG_DOCK_HEADSET);
+                } else if (event.state == 0) {
+                    deviceRegistry.disconnect(DeviceRegistry.TYPE_USB_AUDIO, event.address, event.port);
+                }
+                break;
+            case DeviceRegistry.TYPE_WIRED_HEADSET:
+                if (event.state == 1) {
+                    int deviceOut = (event.microphone == 0) ? AudioSystem.DEVICE_OUT_WIRED_HEADPHONE : AudioSystem.DEVICE_OUT_WIRED_HEADSET;
+                    deviceRegistry.connect(DeviceRegistry.TYPE_WIRED_HEADSET, event.address, event.port, null, deviceOut);
+                } else if (event.state == 0) {
+                    deviceRegistry.disconnect(DeviceRegistry.TYPE_WIRED_HEADSET, event.address, event.port);
+                }
+                break;
+            case DeviceRegistry.TYPE_BLUETOOTH_A2DP:
+                BluetoothDevice bluetoothDevice = event.bluetoothDevice;
+                if (bluetoothDevice != null) {
+                    String address = bluetoothDevice.getAddress();
+                    if (event.state == 2) {
+                        BluetoothMetadataCache.Metadata metadata = bluetoothMetadataCache.get(address);
+                        if (metadata == null) {
+                            // binder calls into the Bluetooth service, only once while connected
+                            BluetoothClass bluetoothClass = bluetoothDevice.getBluetoothClass();
+                            int deviceClass = bluetoothClass == null ? DeviceRegistry.DEVICE_CLASS_UNKNOWN : bluetoothClass.getDeviceClass();
+                            metadata = bluetoothMetadataCache.put(address, bluetoothDevice.getName(), deviceClass, getBluetoothA2dpDevices(deviceClass));
+                        }
+                        DeviceRegistry.Entry entry = deviceRegistry.connect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, address, "", metadata.getName(), metadata.getDevices(), metadata.getDeviceClass());
+                        EventJournal journal = eventJournal;
+                        if (journal != null) {
+                            journal.record(EventJournal.KIND_DEVICE, entry.getType(), entry.getDevices(), entry.getDeviceClass(), 0, entry.getAddress(), entry.getName());
+                        }
+                    } else if (event.state == 0) {
+                        bluetoothMetadataCache.remove(address);
+                        deviceRegistry.disconnect(DeviceRegistry.TYPE_BLUETOOTH_A2DP, address, "");
+                    }
+                }
+                break;
+        }
+        routePolicy.update(deviceRegistry, event.type);
+    }
+
+    /**
+     * Seeds the devices and the force-use configs to be restored, from the snapshot saved by the previous process.<br />
+     * The wired devices and USB Audio are seeded from the sticky broadcasts, and Bluetooth A2DP devices are seeded only if A2DP is still connected.
+     */
+    private void loadSnapshot() {
+        // the snapshot is meaningless on the other devices, so exclude it from the backup
+        File directory = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? context.getNoBackupFilesDir() : context.getFilesDir();
+        if (directory == null) {
+            return;
+        }
+        snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+
+        if (snapshotFile.exists()) {
+            DataInputStream input = null;
+            try {
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+                RouteSnapshot.read(input, getBootTimeMillis(), deviceRegistry, isBluetoothA2dpConnected() ? DeviceRegistry.TYPE_BLUETOOTH_A2DP : 0, routeReconciler);
+            } catch (IOException ignored) {
+                // broken snapshot, will be overwritten
+            } finally {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        // the Bluetooth devices restored need no binder calls on the following connect broadcasts
+        int size = deviceRegistry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.getType() == DeviceRegistry.TYPE_BLUETOOTH_A2DP && entry.isConnected()) {
+                bluetoothMetadataCache.put(entry.getAddress(), entry.getName(), entry.getDeviceClass(), entry.getDevices());
+            }
+        }
+
+        savedModificationCount = deviceRegistry.getModificationCount();
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            savedOriginalForceUse[usage] = routeReconciler.getOriginalForceUse(usage);
+        }
+    }
+
+    /**
+     * Saves the snapshot if the connected devices or the force-use configs to be restored have been changed
+     */
+    private void saveSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        boolean changed = savedModificationCount != deviceRegistry.getModificationCount();
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            if (savedOriginalForceUse[usage] != routeReconciler.getOriginalForceUse(usage)) {
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+
+        // write to the temporary file, and replace atomically
+        File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            RouteSnapshot.write(output, getBootTimeMillis(), deviceRegistry, routeReconciler);
+            output.close();
+            output = null;
+            if (!temporaryFile.renameTo(snapshotFile)) {
+                return;
+            }
+        } catch (IOException ignored) {
+            return;
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        savedModificationCount = deviceRegistry.getModificationCount();
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            savedOriginalForceUse[usage] = routeReconciler.getOriginalForceUse(usage);
+        }
+    }
+
+    /**
+     * Obtains the boot time, to identify the current boot
+     *
+     * @return the wall clock time on boot, in milliseconds
+     */
+    private static long getBootTimeMillis() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Checks if any Bluetooth A2DP device is connected
+     *
+     * @return true if connected
+     */
+    private boolean isBluetoothA2dpConnected() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+            return bluetoothAdapter != null && bluetoothAdapter.getProfileConnectionState(BluetoothProfile.A2DP) == BluetoothProfile.STATE_CONNECTED;
+        }
+        //noinspection deprecation
+        return audioManager.isBluetoothA2dpOn();
+    }
+
+    /**
+     * Obtains the A2DP output devices for the Bluetooth device class
+     *
+     * @param deviceClass the Bluetooth device class
+     * @return bitmask of DEVICE_OUT_BLUETOOTH_A2DP* values
+     */
+    private static int getBluetoothA2dpDevices(int deviceClass) {
+        switch (deviceClass) {
+            case BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES:
+            case BluetoothClass.Device.AUDIO_VIDEO_WEARABLE_HEADSET:
+                return AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP | AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES;
+            case BluetoothClass.Device.AUDIO_VIDEO_CAR_AUDIO:
+            case BluetoothClass.Device.AUDIO_VIDEO_HANDSFREE:
+            case BluetoothClass.Device.AUDIO_VIDEO_HIFI_AUDIO:
+            case BluetoothClass.Device.AUDIO_VIDEO_LOUDSPEAKER:
+            case BluetoothClass.Device.AUDIO_VIDEO_PORTABLE_AUDIO:
+            case BluetoothClass.Device.AUDIO_VIDEO_SET_TOP_BOX:
+                return AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP | AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER;
+            default:
+                return AudioSystem.DEVICE_OUT_BLUETOOTH_A2DP;
+        }
+    }
+
+    /**
+     * Requests the routing for the device updates, coalesced if the coalescing mode enabled
+     */
+    private void requestRoute() {
+        if (routeCoalescer == null) {
+            setupRoute();
+            return;
+        }
+
+        if (routeCoalescer.update()) {
+            handler.postDelayed(coalescedRouteRunnable, routeCoalescer.getQuietWindowMillis());
+        }
+    }
+
+    /**
+     * Schedules the route pass to retry the calls rejected by the backend, the backoff is doubled on each failed pass
+     */
+    private void scheduleRouteRetry() {
+        routeRetryDelayMillis = routeRetryDelayMillis == 0 ? ROUTE_RETRY_INITIAL_MILLIS : Math.min(routeRetryDelayMillis * 2, ROUTE_RETRY_MAX_MILLIS);
+        handler.removeCallbacks(routeRetryRunnable);
+        handler.postDelayed(routeRetryRunnable, routeRetryDelayMillis);
+    }
+
+    /**
+     * Discards the pending route retry, and resets the backoff
+     */
+    private void cancelRouteRetry() {
+        if (routeRetryDelayMillis != 0) {
+            routeRetryDelayMillis = 0;
+            handler.removeCallbacks(routeRetryRunnable);
+        }
+    }
+
+    /**
+     * Discards the pending coalesced routing
+     */
+    private void cancelCoalescedRoute() {
+        if (routeCoalescer != null) {
+            routeCoalescer.cancel();
+        }
+        handler.removeCallbacks(coalescedRouteRunnable);
+    }
+
+    /**
+     * Set the audio output to the specified route.<br />
+     * Only the changes from the last applied route will be issued.
+     */
+    private void setupRoute() {
+        if (bluetoothSyncPending) {
+            // routed once with the Bluetooth A2DP devices synchronized, on finishBluetoothSync
+            return;
+        }
+
+        AudioRouteMode routeMode = resolveRouteMode();
+        if (routeMode == AudioRouteMode.NO_ROUTING) {
+            // the route may be changed by others until the next routing
+            routeReconciler.invalidate();
+            cancelRouteRetry();
+            if (routeTable.isEmpty()) {
+                outputProfile = null;
+                pendingEventNanos = 0;
+                saveSnapshot();
+                publishState();
+                return;
+            }
+        }
+
+        MetricsListener listener = metricsListener;
+        long start = 0;
+        long skippedCallCount = 0;
+        if (listener != null) {
+            start = System.nanoTime();
+            skippedCallCount = routeReconciler.getSkippedCallCount();
+        }
+        long issuedCallCount = routeReconciler.getIssuedCallCount();
+
+        desiredRoute.clear();
+        RoutePlanner.plan(getRouteType(routeMode), deviceRegistry, desiredRoute);
+        desiredRoute.merge(routeTable);
+        routeReconciler.apply(desiredRoute);
+        if (routeReconciler.hasFailedCalls()) {
+            // the failed values have been forgotten, the next pass issues them again
+            scheduleRouteRetry();
+        } else {
+            cancelRouteRetry();
+        }
+        updateOutputProfile(routeMode);
+        if (driftMonitor != null && routeReconciler.getIssuedCallCount() != issuedCallCount) {
+            // the route has been changed, probe sooner
+            handler.removeCallbacks(driftProbeRunnable);
+            handler.postDelayed(driftProbeRunnable, driftMonitor.onRouteChanged());
+        }
+
+        if (listener != null) {
+            long end = System.nanoTime();
+            listener.onRoutePass(end - start,
+                    (int) (routeReconciler.getIssuedCallCount() - issuedCallCount),
+                    (int) (routeReconciler.getSkippedCallCount() - skippedCallCount));
+            if (pendingEventNanos != 0) {
+                listener.onRouteLatency(end - pendingEventNanos);
+            }
+        }
+        pendingEventNanos = 0;
+        saveSnapshot();
+        publishState();
+    }
+
+    /**
+     * Publishes the routing state, if changed since the last publication. Called on the routing thread.
+     */
+    private void publishState() {
+        AudioRouteMode effectiveRouteMode = resolveRouteMode();
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            publishedForceUse[usage] = routeReconciler.getAppliedForceUse(usage);
+        }
+        int modificationCount = deviceRegistry.getModificationCount();
+        if (modificationCount == publishedModificationCount && statePublisher.hasSameRoute(routeMode, effectiveRouteMode, publishedForceUse, outputProfile)) {
+            return;
+        }
+
+        // the snapshot is built on the first read, not on each publication
+        publishedModificationCount = modificationCount;
+        statePublisher.publish(routeMode, effectiveRouteMode, publishedForceUse, deviceRegistry, outputProfile);
+        if (stateChangedListener != null && !stateChangedPosted.getAndSet(true)) {
+            handler.post(stateChangedRunnable);
+        }
+    }
+
+    /**
+     * Updates the properties of the output, queried only if not cached. Called on the routing thread, after the route has been applied.
+     *
+     * @param routeMode the route mode applied, other than {@link AudioRouteMode#AUTO}
+     */
+    private void updateOutputProfile(AudioRouteMode routeMode) {
+        int type = getRouteType(routeMode);
+        if (type == RoutePolicy.TYPE_NONE) {
+            outputProfile = null;
+            return;
+        }
+
+        // the first connected device of the type, the speaker and the default headphone have no address
+        String address = "";
+        String name = null;
+        int devices = 0;
+        int size = deviceRegistry.size();
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.getType() == type && entry.isConnected()) {
+                address = entry.getAddress();
+                name = entry.getName();
+                devices = entry.getDevices();
+                break;
+            }
+        }
+
+        OutputProfile profile = outputProfileCache.get(type, address, name, devices);
+        if (profile == null) {
+            profile = queryOutputProfile(type, address, name, devices);
+        }
+        outputProfile = profile;
+    }
+
+    /**
+     * Queries the properties of the current output, and caches them.<br />
+     * The sample rate and the buffer size describe the primary output, and the audio server may not have switched the output yet.
+     *
+     * @param type one of DeviceRegistry.TYPE_* values, or RoutePolicy.TYPE_SPEAKER
+     * @param address the device address
+     * @param name the device name
+     * @param devices bitmask of the DEVICE_OUT_* variants
+     * @return the cached properties
+     */
+    private OutputProfile queryOutputProfile(int type, String address, String name, int devices) {
+        int sampleRate = 0;
+        int framesPerBuffer = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            sampleRate = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE));
+            framesPerBuffer = parseProperty(audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER));
+        }
+        // the hidden API is used only without the custom backend
+        int latencyMillis = audioBackend == null ? AudioSystem.getOutputLatency(AudioManager.STREAM_MUSIC) : 0;
+        return outputProfileCache.put(type, address, name, devices, sampleRate, framesPerBuffer, latencyMillis);
+    }
+
+    /**
+     * Parses the AudioManager property
+     *
+     * @param value the property value
+     * @return the value, 0 if unknown
+     */
+    private static int parseProperty(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ignored) {
+        }
+        return 0;
+    }
+
+    /**
+     * Obtains the output of the route mode
+     *
+     * @param routeMode the route mode, other than {@link AudioRouteMode#AUTO}
+     * @return DeviceRegistry.TYPE_*, RoutePolicy.TYPE_SPEAKER, or RoutePolicy.TYPE_NONE
+     */
+    private static int getRouteType(AudioRouteMode routeMode) {
+        switch (routeMode) {
+            case WIRED_HEADPHONE:
+                return DeviceRegistry.TYPE_WIRED_HEADSET;
+            case SPEAKER:
+                return RoutePolicy.TYPE_SPEAKER;
+            case USB_AUDIO:
+                return DeviceRegistry.TYPE_USB_AUDIO;
+            case BLUETOOTH_A2DP:
+                return DeviceRegistry.TYPE_BLUETOOTH_A2DP;
+            default:
+                return RoutePolicy.TYPE_NONE;
+        }
+    }
+
+    /**
+     * Obtains the route mode to apply, resolves {@link AudioRouteMode#AUTO} mode with the policy
+     *
+     * @return the route mode, other than {@link AudioRouteMode#AUTO}
+     */
+    private AudioRouteMode resolveRouteMode() {
+        if (routeMode != AudioRouteMode.AUTO) {
+            return routeMode;
+        }
+
+        switch (routePolicy.getSelectedType()) {
+            case DeviceRegistry.TYPE_USB_AUDIO:
+                return AudioRouteMode.USB_AUDIO;
+            case DeviceRegistry.TYPE_BLUETOOTH_A2DP:
+                return AudioRouteMode.BLUETOOTH_A2DP;
+            case DeviceRegistry.TYPE_WIRED_HEADSET:
+                return AudioRouteMode.WIRED_HEADPHONE;
+            case RoutePolicy.TYPE_SPEAKER:
+                return AudioRouteMode.SPEAKER;
+            default:
+                return AudioRouteMode.NO_ROUTING;
         }
     }
 }
@@ -0,0 +1,165 @@
+package jp.kshoji.audio.receiver;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.RouteArbiter;
+
+/**
+ * <h2>Process-wide shared routing</h2>
+ * Shares one {@link AudioRouter}, one BroadcastReceiver and one device registry among the clients in the process.<br />
+ * Each client holds its own route request, and only the winning request is applied:
+ * the request of the client with the highest priority wins, and on the same priority, the most recent request wins.<br />
+ * The router is created with the first client, and terminated with the last client, after the route before the first client has been restored.
+ *
+ * @author K.Shoji
+ */
+public final class AudioRouterHub {
+    private static final Object lock = new Object();
+    private static final RouteArbiter<AudioRouteMode> routeArbiter = new RouteArbiter<>();
+    private static AudioRouter audioRouter;
+
+    private static final Callable<Void> NOTHING = new Callable<Void>() {
+        @Override
+        public Void call() {
+            return null;
+        }
+    };
+
+    private AudioRouterHub() {
+    }
+
+    /**
+     * The client of the shared router. Must be terminated when no longer used.
+     */
+    public static final class Client {
+        private final RouteArbiter<AudioRouteMode>.Client arbiterClient;
+        private final AudioRouter audioRouter;
+        private boolean terminated;
+
+        private Client(RouteArbiter<AudioRouteMode>.Client arbiterClient, AudioRouter audioRouter) {
+            this.arbiterClient = arbiterClient;
+            this.audioRouter = audioRouter;
+        }
+
+        /**
+         * Set the route mode requested by this client.<br />
+         * The route will be changed only if the winning request has been changed.
+         *
+         * @param routeMode route mode, {@link AudioRouteMode#NO_ROUTING} to withdraw the request
+         * @return the future completes when the winning route has been applied, or cancelled if superseded by the newer winning request
+         */
+        public Future<Void> setRouteMode(@NonNull AudioRouteMode routeMode) {
+            synchronized (lock) {
+                if (terminated) {
+                    throw new IllegalStateException("The client has been terminated.");
+                }
+
+                if (routeArbiter.setRequest(arbiterClient, routeMode == AudioRouteMode.NO_ROUTING ? null : routeMode)) {
+                    return applyWinner();
+                }
+                return completedFuture();
+            }
+        }
+
+        /**
+         * Obtains the route mode requested by this client
+         *
+         * @return route mode, {@link AudioRouteMode#NO_ROUTING} if not requested
+         */
+        @NonNull
+        public AudioRouteMode getRouteMode() {
+            synchronized (lock) {
+                AudioRouteMode routeMode = arbiterClient.getRequest();
+                return routeMode == null ? AudioRouteMode.NO_ROUTING : routeMode;
+            }
+        }
+
+        /**
+         * Obtains the future completes when the shared router has been initialized
+         *
+         * @return the future
+         */
+        public Future<Void> getReadyFuture() {
+            return audioRouter.getReadyFuture();
+        }
+
+        /**
+         * Withdraws the request and releases the shared router, must be called on Activity.onDestroy() or Service.onDestroy().<br />
+         * When the last client has been terminated, the route before the first client is restored, and the router is terminated.
+         *
+         * @return the future completes when the winning route or the restored route has been applied
+         */
+        public Future<Void> terminate() {
+            synchronized (lock) {
+                if (terminated) {
+                    return completedFuture();
+                }
+                terminated = true;
+
+                boolean changed = routeArbiter.removeClient(arbiterClient);
+                if (routeArbiter.getClientCount() == 0) {
+                    // stop routing, and restore the force-use configs changed by the clients
+                    AudioRouter lastAudioRouter = AudioRouterHub.audioRouter;
+                    AudioRouterHub.audioRouter = null;
+                    lastAudioRouter.setRouteModeAsync(AudioRouteMode.NO_ROUTING);
+                    Future<Void> future = lastAudioRouter.resetToInitialRouteAsync();
+                    lastAudioRouter.terminate();
+                    return future;
+                }
+                if (changed) {
+                    return applyWinner();
+                }
+                return completedFuture();
+            }
+        }
+    }
+
+    /**
+     * Acquires the client of the shared router, the router will be created on the first call
+     *
+     * @param context the context, the application context will be used for the shared router
+     * @param priority the priority of the client's request, the higher wins
+     * @return the client
+     */
+    public static Client acquire(@NonNull Context context, int priority) {
+        synchronized (lock) {
+            if (audioRouter == null) {
+                audioRouter = new AudioRouter(context.getApplicationContext(), AudioRouteMode.NO_ROUTING, null);
+            }
+            return new Client(routeArbiter.addClient(priority), audioRouter);
+        }
+    }
+
+    /**
+     * Obtains the number of the clients
+     *
+     * @return the count
+     */
+    public static int getClientCount() {
+        synchronized (lock) {
+            return routeArbiter.getClientCount();
+        }
+    }
+
+    /**
+     * Applies the winning request, must be called with the lock
+     *
+     * @return the future completes when the route has been applied
+     */
+    private static Future<Void> applyWinner() {
+        AudioRouteMode routeMode = routeArbiter.getWinner();
+        return audioRouter.setRouteModeAsync(routeMode == null ? AudioRouteMode.NO_ROUTING : routeMode);
+    }
+
+    private static Future<Void> completedFuture() {
+        FutureTask<Void> future = new FutureTask<>(NOTHING);
+        future.run();
+        return future;
+    }
+}
@@ -0,0 +1,190 @@
+package jp.kshoji.audio.receiver;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.ConnectedDevice;
+import jp.kshoji.audio.route.DeviceRegistry;
+import jp.kshoji.audio.route.OutputProfile;
+import jp.kshoji.audio.route.RouteState;
+
+/**
+ * Immutable snapshot of the routing state, published by {@link AudioRouter} after each change.<br />
+ * The snapshot is built on the first read of each published version, and can be read from any thread without blocking.
+ * All the queries are answered from the snapshot, without the hidden API calls.
+ *
+ * @author K.Shoji
+ */
+public final class AudioRouterState {
+    private final long version;
+    private final AudioRouteMode routeMode;
+    private final AudioRouteMode effectiveRouteMode;
+    private final int[] forceUse;
+    private final List<ConnectedDevice> connectedDevices;
+    private final List<ConnectedDevice> connectedHeadsets;
+    private final List<ConnectedDevice> connectedUsbAudios;
+    private final List<ConnectedDevice> connectedBluetoothA2dpDevices;
+    private final OutputProfile outputProfile;
+
+    /**
+     * Constructor
+     *
+     * @param version the version, increases on each publication
+     * @param routeMode the route mode
+     * @param effectiveRouteMode the route mode applied
+     * @param forceUse the force-use configs, will be copied
+     * @param connectedDevices the connected devices, will be copied
+     * @param outputProfile the properties of the output, null if not routed
+     */
+    AudioRouterState(long version, @NonNull AudioRouteMode routeMode, @NonNull AudioRouteMode effectiveRouteMode, @NonNull int[] forceUse, @NonNull List<ConnectedDevice> connectedDevices, @Nullable OutputProfile outputProfile) {
+        this.version = version;
+        this.routeMode = routeMode;
+        this.effectiveRouteMode = effectiveRouteMode;
+        this.forceUse = forceUse.clone();
+        this.connectedDevices = copyOf(connectedDevices, 0);
+        connectedHeadsets = copyOf(connectedDevices, DeviceRegistry.TYPE_WIRED_HEADSET);
+        connectedUsbAudios = copyOf(connectedDevices, DeviceRegistry.TYPE_USB_AUDIO);
+        connectedBluetoothA2dpDevices = copyOf(connectedDevices, DeviceRegistry.TYPE_BLUETOOTH_A2DP);
+        this.outputProfile = outputProfile;
+    }
+
+    /**
+     * Copies the devices of the type
+     *
+     * @param devices the devices
+     * @param type one of DeviceRegistry.TYPE_* values, 0 to copy all
+     * @return the unmodifiable list
+     */
+    private static List<ConnectedDevice> copyOf(List<ConnectedDevice> devices, int type) {
+        ArrayList<ConnectedDevice> result = null;
+        for (ConnectedDevice device : devices) {
+            if (type == 0 || device.getType() == type) {
+                if (result == null) {
+                    result = new ArrayList<>(devices.size());
+                }
+                result.add(device);
+            }
+        }
+        return result == null ? Collections.<ConnectedDevice>emptyList() : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Obtains the version, the later snapshot has the larger version
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Obtains the route mode requested
+     *
+     * @return the route mode
+     */
+    @NonNull
+    public AudioRouteMode getRouteMode() {
+        return routeMode;
+    }
+
+    /**
+     * Obtains the route mode applied, {@link AudioRouteMode#AUTO} mode is resolved with the policy
+     *
+     * @return the route mode, other than {@link AudioRouteMode#AUTO}
+     */
+    @NonNull
+    public AudioRouteMode getEffectiveRouteMode() {
+        return effectiveRouteMode;
+    }
+
+    /**
+     * Obtains the force-use config applied by the router
+     *
+     * @param usage audio usage
+     * @return device categories config, or {@link RouteState#FORCE_UNSPECIFIED} if not applied
+     */
+    public int getForceUse(int usage) {
+        return forceUse[usage];
+    }
+
+    /**
+     * Obtains the connected devices, in the connected order
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedDevices() {
+        return connectedDevices;
+    }
+
+    /**
+     * Obtains the connected devices of the type, in the connected order
+     *
+     * @param type one of DeviceRegistry.TYPE_* values
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedDevices(int type) {
+        switch (type) {
+            case DeviceRegistry.TYPE_WIRED_HEADSET:
+                return connectedHeadsets;
+            case DeviceRegistry.TYPE_USB_AUDIO:
+                return connectedUsbAudios;
+            case DeviceRegistry.TYPE_BLUETOOTH_A2DP:
+                return connectedBluetoothA2dpDevices;
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Obtains the connected wired headsets and headphones
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedHeadsets() {
+        return connectedHeadsets;
+    }
+
+    /**
+     * Obtains the connected USB Audio devices
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedUsbAudios() {
+        return connectedUsbAudios;
+    }
+
+    /**
+     * Obtains the connected Bluetooth A2DP devices
+     *
+     * @return the unmodifiable list
+     */
+    @NonNull
+    public List<ConnectedDevice> getConnectedBluetoothA2dpDevices() {
+        return connectedBluetoothA2dpDevices;
+    }
+
+    /**
+     * Obtains the properties of the output in use: the sample rate, the buffer size and the latency.<br />
+     * The properties are queried once per output and cached, so reading them costs no queries to the audio service.
+     *
+     * @return the properties, null on {@link AudioRouteMode#NO_ROUTING} mode
+     */
+    @Nullable
+    public OutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+
+    @Override
+    public String toString() {
+        return "AudioRouterState{version=" + version + ", routeMode=" + routeMode + ", effectiveRouteMode=" + effectiveRouteMode + ", connectedDevices=" + connectedDevices + ", outputProfile=" + outputProfile + "}";
+    }
+}
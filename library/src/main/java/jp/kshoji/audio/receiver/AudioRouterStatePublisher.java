@@ -0,0 +1,158 @@
+package jp.kshoji.audio.receiver;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jp.kshoji.audio.receiver.AudioRouter.AudioRouteMode;
+import jp.kshoji.audio.route.ConnectedDevice;
+import jp.kshoji.audio.route.DeviceRegistry;
+import jp.kshoji.audio.route.OutputProfile;
+import jp.kshoji.audio.route.RouteState;
+
+/**
+ * Publishes the routing state without allocating on the routing thread, the {@link AudioRouterState} snapshot is built on the first read of each version.<br />
+ * The values are written to the reused buffers, guarded with a sequence number: odd while writing, and incremented twice per publication.
+ * The readers copy the values, and retry if the sequence number has changed during the copy.
+ * The readers never block: the snapshot of the last complete publication is returned while the next one is being written.<br />
+ * {@link #publish(AudioRouteMode, AudioRouteMode, int[], DeviceRegistry, OutputProfile)} must be called from the routing thread, the only writer.
+ *
+ * @author K.Shoji
+ */
+final class AudioRouterStatePublisher {
+    private volatile long sequence;
+    private volatile AudioRouteMode routeMode;
+    private volatile AudioRouteMode effectiveRouteMode;
+    private volatile OutputProfile outputProfile;
+    private final AtomicIntegerArray forceUse = new AtomicIntegerArray(RouteState.USAGE_COUNT);
+    private volatile AtomicReferenceArray<ConnectedDevice> devices = new AtomicReferenceArray<>(8);
+    private volatile int deviceCount;
+    // the snapshot built by the last read
+    private volatile AudioRouterState snapshot;
+
+    /**
+     * Constructor, publishes the version 0 state: not routed, and no devices are connected
+     *
+     * @param routeMode the route mode
+     */
+    AudioRouterStatePublisher(@NonNull AudioRouteMode routeMode) {
+        this.routeMode = routeMode;
+        effectiveRouteMode = AudioRouteMode.NO_ROUTING;
+        int[] initialForceUse = new int[RouteState.USAGE_COUNT];
+        for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+            forceUse.set(usage, RouteState.FORCE_UNSPECIFIED);
+            initialForceUse[usage] = RouteState.FORCE_UNSPECIFIED;
+        }
+        snapshot = new AudioRouterState(0, routeMode, effectiveRouteMode, initialForceUse, new ArrayList<ConnectedDevice>(0), null);
+    }
+
+    /**
+     * Checks if the last publication has the same values, called on the routing thread
+     *
+     * @param routeMode the route mode
+     * @param effectiveRouteMode the route mode applied
+     * @param forceUse the force-use configs
+     * @param outputProfile the properties of the output
+     * @return true if the same
+     */
+    boolean hasSameRoute(AudioRouteMode routeMode, AudioRouteMode effectiveRouteMode, int[] forceUse, OutputProfile outputProfile) {
+        if (this.routeMode != routeMode || this.effectiveRouteMode != effectiveRouteMode || this.outputProfile != outputProfile) {
+            return false;
+        }
+        for (int usage = 0; usage < forceUse.length; usage++) {
+            if (this.forceUse.get(usage) != forceUse[usage]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the values as the next version, called on the routing thread
+     *
+     * @param routeMode the route mode
+     * @param effectiveRouteMode the route mode applied
+     * @param forceUse the force-use configs
+     * @param deviceRegistry the registry, the connected entries will be published
+     * @param outputProfile the properties of the output, null if not routed
+     */
+    void publish(@NonNull AudioRouteMode routeMode, @NonNull AudioRouteMode effectiveRouteMode, @NonNull int[] forceUse, @NonNull DeviceRegistry deviceRegistry, @Nullable OutputProfile outputProfile) {
+        AtomicReferenceArray<ConnectedDevice> devices = this.devices;
+        int size = deviceRegistry.size();
+        if (size > devices.length()) {
+            // the readers see the new buffer with the changed sequence number
+            devices = new AtomicReferenceArray<>(Math.max(size, devices.length() * 2));
+        }
+
+        sequence++;
+        this.routeMode = routeMode;
+        this.effectiveRouteMode = effectiveRouteMode;
+        this.outputProfile = outputProfile;
+        for (int usage = 0; usage < forceUse.length; usage++) {
+            this.forceUse.set(usage, forceUse[usage]);
+        }
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            DeviceRegistry.Entry entry = deviceRegistry.get(i);
+            if (entry.isConnected()) {
+                devices.set(count++, entry.toConnectedDevice());
+            }
+        }
+        for (int i = count; i < deviceCount; i++) {
+            // not to retain the disconnected devices
+            devices.set(i, null);
+        }
+        this.devices = devices;
+        deviceCount = count;
+        sequence++;
+    }
+
+    /**
+     * Obtains the snapshot of the last publication, built on the first read
+     *
+     * @return the immutable snapshot
+     */
+    @NonNull
+    AudioRouterState get() {
+        while (true) {
+            long sequence = this.sequence;
+            AudioRouterState snapshot = this.snapshot;
+            long version = sequence >> 1;
+            if (snapshot.getVersion() == version) {
+                // also while the next version is being written
+                return snapshot;
+            }
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+
+            AudioRouteMode routeMode = this.routeMode;
+            AudioRouteMode effectiveRouteMode = this.effectiveRouteMode;
+            OutputProfile outputProfile = this.outputProfile;
+            int[] forceUse = new int[RouteState.USAGE_COUNT];
+            for (int usage = 0; usage < RouteState.USAGE_COUNT; usage++) {
+                forceUse[usage] = this.forceUse.get(usage);
+            }
+            AtomicReferenceArray<ConnectedDevice> devices = this.devices;
+            int count = Math.min(deviceCount, devices.length());
+            ArrayList<ConnectedDevice> connectedDevices = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                connectedDevices.add(devices.get(i));
+            }
+            if (this.sequence != sequence) {
+                // published during the copy
+                continue;
+            }
+
+            snapshot = new AudioRouterState(version, routeMode, effectiveRouteMode, forceUse, connectedDevices, outputProfile);
+            if (this.snapshot.getVersion() < version) {
+                this.snapshot = snapshot;
+            }
+            return snapshot;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package jp.kshoji.audio.util;
 
-import android.os.Build;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -9,6 +8,12 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Method;
 
+import jp.kshoji.audio.route.AudioBackend;
+import jp.kshoji.audio.route.AudioConstants;
+import jp.kshoji.audio.route.CircuitBreaker;
+import jp.kshoji.audio.route.Clock;
+import jp.kshoji.audio.route.MetricsListener;
+
 /**
  *{@link android.media.AudioSystem} (hidden API) wrapper.
  *
@@ -16,17 +21,44 @@ import java.lang.reflect.Method;
  * <li>This class requires a permission 'android.permission.MODIFY_AUDIO_SETTINGS'.</li>
  * <li>This class uses the hidden API, so the function will be broken in the future Android updates.</li>
  * </ul>
+ * The supported operations are probed once, see {@link #getCapabilities()}.
+ * The operation failed repeatedly is not called until the backoff has elapsed, see {@link #isCircuitOpen(int)}.
+ * The hidden methods are called with the reflection, or directly with {@link #setDirectCallEnabled(boolean)}.
  *
  * @author K.Shoji
  */
 @SuppressWarnings("JavadocReference")
 public final class AudioSystem {
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000L;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000L;
+    // status of the hidden setters, must match AudioSystem.SUCCESS
+    private static final int SUCCESS = 0;
+    // the boxed single-bit values, the DEVICE_OUT_* values above 127 are not cached by Integer.valueOf
+    private static final Integer[] boxedBits = new Integer[Integer.SIZE];
+    // the reflection arguments indexed by the count, reused per thread not to allocate on each call
+    private static final ThreadLocal<Object[][]> invokeArguments = new ThreadLocal<Object[][]>() {
+        @Override
+        protected Object[][] initialValue() {
+            return new Object[][] { new Object[0], new Object[1], new Object[2], new Object[3], new Object[4] };
+        }
+    };
+    private static final CircuitBreaker[] circuitBreakers = new CircuitBreaker[MetricsListener.OPERATION_COUNT];
+
+    static {
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            boxedBits[bit] = 1 << bit;
+        }
+        for (int operation = 0; operation < MetricsListener.OPERATION_COUNT; operation++) {
+            circuitBreakers[operation] = new CircuitBreaker(FAILURE_THRESHOLD, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, Clock.SYSTEM);
+        }
+    }
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({ DEVICE_STATE_UNAVAILABLE, DEVICE_STATE_AVAILABLE})
     public @interface DeviceState{}
-    public static final int DEVICE_STATE_UNAVAILABLE = 0;
-    public static final int DEVICE_STATE_AVAILABLE = 1;
+    public static final int DEVICE_STATE_UNAVAILABLE = AudioConstants.DEVICE_STATE_UNAVAILABLE;
+    public static final int DEVICE_STATE_AVAILABLE = AudioConstants.DEVICE_STATE_AVAILABLE;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({
@@ -37,22 +69,22 @@ public final class AudioSystem {
             DEVICE_OUT_USB_ACCESSORY, DEVICE_OUT_USB_DEVICE, DEVICE_OUT_REMOTE_SUBMIX
     })
     public @interface DeviceOut{}
-    public static final int DEVICE_OUT_EARPIECE = 0x1;
-    public static final int DEVICE_OUT_SPEAKER = 0x2;
-    public static final int DEVICE_OUT_WIRED_HEADSET = 0x4;
-    public static final int DEVICE_OUT_WIRED_HEADPHONE = 0x8;
-    public static final int DEVICE_OUT_BLUETOOTH_SCO = 0x10;
-    public static final int DEVICE_OUT_BLUETOOTH_SCO_HEADSET = 0x20;
-    public static final int DEVICE_OUT_BLUETOOTH_SCO_CARKIT = 0x40;
-    public static final int DEVICE_OUT_BLUETOOTH_A2DP = 0x80;
-    public static final int DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES = 0x100;
-    public static final int DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER = 0x200;
-    public static final int DEVICE_OUT_AUX_DIGITAL = 0x400;
-    public static final int DEVICE_OUT_ANLG_DOCK_HEADSET = 0x800;
-    public static final int DEVICE_OUT_DGTL_DOCK_HEADSET = 0x1000;
-    public static final int DEVICE_OUT_USB_ACCESSORY = 0x2000;
-    public static final int DEVICE_OUT_USB_DEVICE = 0x4000;
-    public static final int DEVICE_OUT_REMOTE_SUBMIX = 0x8000;
+    public static final int DEVICE_OUT_EARPIECE = AudioConstants.DEVICE_OUT_EARPIECE;
+    public static final int DEVICE_OUT_SPEAKER = AudioConstants.DEVICE_OUT_SPEAKER;
+    public static final int DEVICE_OUT_WIRED_HEADSET = AudioConstants.DEVICE_OUT_WIRED_HEADSET;
+    public static final int DEVICE_OUT_WIRED_HEADPHONE = AudioConstants.DEVICE_OUT_WIRED_HEADPHONE;
+    public static final int DEVICE_OUT_BLUETOOTH_SCO = AudioConstants.DEVICE_OUT_BLUETOOTH_SCO;
+    public static final int DEVICE_OUT_BLUETOOTH_SCO_HEADSET = AudioConstants.DEVICE_OUT_BLUETOOTH_SCO_HEADSET;
+    public static final int DEVICE_OUT_BLUETOOTH_SCO_CARKIT = AudioConstants.DEVICE_OUT_BLUETOOTH_SCO_CARKIT;
+    public static final int DEVICE_OUT_BLUETOOTH_A2DP = AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP;
+    public static final int DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES = AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_HEADPHONES;
+    public static final int DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER = AudioConstants.DEVICE_OUT_BLUETOOTH_A2DP_SPEAKER;
+    public static final int DEVICE_OUT_AUX_DIGITAL = AudioConstants.DEVICE_OUT_AUX_DIGITAL;
+    public static final int DEVICE_OUT_ANLG_DOCK_HEADSET = AudioConstants.DEVICE_OUT_ANLG_DOCK_HEADSET;
+    public static final int DEVICE_OUT_DGTL_DOCK_HEADSET = AudioConstants.DEVICE_OUT_DGTL_DOCK_HEADSET;
+    public static final int DEVICE_OUT_USB_ACCESSORY = AudioConstants.DEVICE_OUT_USB_ACCESSORY;
+    public static final int DEVICE_OUT_USB_DEVICE = AudioConstants.DEVICE_OUT_USB_DEVICE;
+    public static final int DEVICE_OUT_REMOTE_SUBMIX = AudioConstants.DEVICE_OUT_REMOTE_SUBMIX;
 
     // device categories config for setForceUse, must match AudioSystem::forced_config
     @Retention(RetentionPolicy.SOURCE)
@@ -62,18 +94,18 @@ public final class AudioSystem {
             FORCE_DIGITAL_DOCK, FORCE_NO_BT_A2DP
     })
     public @interface CategoryConfig{}
-    public static final int FORCE_NONE = 0;
-    public static final int FORCE_SPEAKER = 1;
-    public static final int FORCE_HEADPHONES = 2;
-    public static final int FORCE_BT_SCO = 3;
-    public static final int FORCE_BT_A2DP = 4;
-    public static final int FORCE_WIRED_ACCESSORY = 5;
-    public static final int FORCE_BT_CAR_DOCK = 6;
-    public static final int FORCE_BT_DESK_DOCK = 7;
-    public static final int FORCE_ANALOG_DOCK = 8;
-    public static final int FORCE_DIGITAL_DOCK = 9;
-    public static final int FORCE_NO_BT_A2DP = 10;
-    public static final int FORCE_DEFAULT = FORCE_NONE;
+    public static final int FORCE_NONE = AudioConstants.FORCE_NONE;
+    public static final int FORCE_SPEAKER = AudioConstants.FORCE_SPEAKER;
+    public static final int FORCE_HEADPHONES = AudioConstants.FORCE_HEADPHONES;
+    public static final int FORCE_BT_SCO = AudioConstants.FORCE_BT_SCO;
+    public static final int FORCE_BT_A2DP = AudioConstants.FORCE_BT_A2DP;
+    public static final int FORCE_WIRED_ACCESSORY = AudioConstants.FORCE_WIRED_ACCESSORY;
+    public static final int FORCE_BT_CAR_DOCK = AudioConstants.FORCE_BT_CAR_DOCK;
+    public static final int FORCE_BT_DESK_DOCK = AudioConstants.FORCE_BT_DESK_DOCK;
+    public static final int FORCE_ANALOG_DOCK = AudioConstants.FORCE_ANALOG_DOCK;
+    public static final int FORCE_DIGITAL_DOCK = AudioConstants.FORCE_DIGITAL_DOCK;
+    public static final int FORCE_NO_BT_A2DP = AudioConstants.FORCE_NO_BT_A2DP;
+    public static final int FORCE_DEFAULT = AudioConstants.FORCE_DEFAULT;
 
     // usage for setForceUse, must match AudioSystem::force_use
     @Retention(RetentionPolicy.SOURCE)
@@ -81,26 +113,121 @@ public final class AudioSystem {
             FOR_COMMUNICATION, FOR_MEDIA, FOR_RECORD, FOR_DOCK
     })
     public @interface Usage{}
-    public static final int FOR_COMMUNICATION = 0;
-    public static final int FOR_MEDIA = 1;
-    public static final int FOR_RECORD = 2;
-    public static final int FOR_DOCK = 3;
+    public static final int FOR_COMMUNICATION = AudioConstants.FOR_COMMUNICATION;
+    public static final int FOR_MEDIA = AudioConstants.FOR_MEDIA;
+    public static final int FOR_RECORD = AudioConstants.FOR_RECORD;
+    public static final int FOR_DOCK = AudioConstants.FOR_DOCK;
 
-    private static Class<?> audioSystem;
+    private static volatile MetricsListener metricsListener;
+    // bitmask of (1 << MetricsListener.OPERATION_*) values, called directly
+    private static volatile int directCallOperations;
 
     /**
-     * Obtains AudioSystem class
-     * @return class object
+     * Set the listener to measure the hidden API calls.<br />
+     * When no listener is set, the calls are not measured.
+     *
+     * @param listener the listener, null to disable
      */
-    private static Class<?> getAudioSystem() {
-        if (audioSystem == null) {
-            try {
-                audioSystem = Class.forName("android.media.AudioSystem");
-            } catch (ClassNotFoundException ignored) {
-            }
+    public static void setMetricsListener(@Nullable MetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * Obtains the listener to measure the hidden API calls
+     *
+     * @return the listener, null if disabled
+     */
+    @Nullable
+    public static MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Resolves the hidden methods in advance, so the first routing will not pay for the class loading and the reflection.<br />
+     * Calling this method is optional.
+     */
+    public static void warmUp() {
+        AudioSystemBinding.getInstance();
+    }
+
+    /**
+     * Obtains the operations supported on this device, probed once per process
+     *
+     * @return bitmask of (1 &lt;&lt; MetricsListener.OPERATION_*) values
+     */
+    public static int getCapabilities() {
+        return AudioSystemBinding.getInstance().capabilities;
+    }
+
+    /**
+     * Checks if the operation is supported on this device
+     *
+     * @param operation one of MetricsListener.OPERATION_* values
+     * @return true if supported
+     */
+    public static boolean isSupported(int operation) {
+        return (getCapabilities() & (1 << operation)) != 0;
+    }
+
+    /**
+     * Checks if the operation is suspended after the repeated failures.<br />
+     * The suspended operation fails immediately, and will be retried after the backoff.
+     *
+     * @param operation one of MetricsListener.OPERATION_* values
+     * @return true if suspended
+     */
+    public static boolean isCircuitOpen(int operation) {
+        return circuitBreakers[operation].isOpen();
+    }
+
+    /**
+     * Obtains the number of the calls failed immediately, because the operation has been suspended
+     *
+     * @param operation one of MetricsListener.OPERATION_* values
+     * @return the count
+     */
+    public static long getRejectedCallCount(int operation) {
+        return circuitBreakers[operation].getRejectedCount();
+    }
+
+    /**
+     * Resumes all the suspended operations, e.g. after the system update
+     */
+    public static void resetCircuits() {
+        for (CircuitBreaker circuitBreaker : circuitBreakers) {
+            circuitBreaker.reset();
         }
+    }
+
+    /**
+     * Enables or disables the direct call of the hidden methods.<br />
+     * The enabled operations call the hidden methods directly instead of the reflection, without the boxing and the access checks.
+     * If the method can not be linked on this device, the operation falls back to the reflection automatically.
+     * The direct call is disabled by default.
+     *
+     * @param enabled true to enable
+     */
+    public static synchronized void setDirectCallEnabled(boolean enabled) {
+        directCallOperations = enabled ? getCapabilities() & ~(1 << MetricsListener.OPERATION_SET_A2DP_SUSPENDED) : 0;
+    }
 
-        return audioSystem;
+    /**
+     * Checks if the operation calls the hidden method directly
+     *
+     * @param operation one of MetricsListener.OPERATION_* values
+     * @return true if called directly, false if called with the reflection
+     */
+    public static boolean isDirectCall(int operation) {
+        return (directCallOperations & (1 << operation)) != 0;
+    }
+
+    /**
+     * Falls back to the reflection, the hidden method could not be linked
+     *
+     * @param operation one of MetricsListener.OPERATION_* values
+     */
+    private static synchronized void disableDirectCall(int operation) {
+        directCallOperations &= ~(1 << operation);
     }
 
     /**
@@ -111,7 +238,7 @@ public final class AudioSystem {
      * @param deviceAddress device address
      */
     public static void setDeviceConnectionState(@DeviceOut int device, @DeviceState int state, @NonNull String deviceAddress) {
-        setDeviceConnectionState(device, state, deviceAddress, "");
+        trySetDeviceConnectionState(device, state, deviceAddress, "");
     }
 
     /**
@@ -123,23 +250,75 @@ public final class AudioSystem {
      * @param deviceName device name(required on Android version >= 6)
      */
     public static void setDeviceConnectionState(@DeviceOut int device, @DeviceState int state, @NonNull String deviceAddress, @Nullable String deviceName) {
-        Class<?> audioSystem = getAudioSystem();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR &&
-                Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP_MR1) {
-            // Android 2.0 to 5.1
-            try {
-                Method method = audioSystem.getMethod("setDeviceConnectionState", Integer.TYPE, Integer.TYPE, String.class);
-                method.invoke(null, device, state, deviceAddress);
-            } catch (Exception ignored) {
-            }
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            // Android version >= 6
-            try {
-                Method method = audioSystem.getMethod("setDeviceConnectionState", Integer.TYPE, Integer.TYPE, String.class, String.class);
-                method.invoke(null, device, state, deviceAddress, deviceName);
-            } catch (Exception ignored) {
-            }
+        trySetDeviceConnectionState(device, state, deviceAddress, deviceName);
+    }
+
+    /**
+     * Set the device connection state, and reports the result
+     *
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @return false if failed
+     */
+    public static boolean trySetDeviceConnectionState(@DeviceOut int device, @DeviceState int state, @NonNull String deviceAddress) {
+        return trySetDeviceConnectionState(device, state, deviceAddress, "");
+    }
+
+    /**
+     * Set the device connection state, and reports the result
+     *
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @param deviceName device name(required on Android version >= 6)
+     * @return false if failed, or rejected by the audio policy
+     */
+    public static boolean trySetDeviceConnectionState(@DeviceOut int device, @DeviceState int state, @NonNull String deviceAddress, @Nullable String deviceName) {
+        MetricsListener listener = metricsListener;
+        if (listener == null) {
+            return invokeSetDeviceConnectionState(device, state, deviceAddress, deviceName);
         }
+
+        long start = System.nanoTime();
+        boolean succeeded = invokeSetDeviceConnectionState(device, state, deviceAddress, deviceName);
+        listener.onBackendCall(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE, System.nanoTime() - start, succeeded);
+        return succeeded;
+    }
+
+    /**
+     * Obtains the device connection state
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE, DEVICE_STATE_UNAVAILABLE if failed
+     */
+    public static @DeviceState int getDeviceConnectionState(@DeviceOut int device, @NonNull String deviceAddress) {
+        return tryGetDeviceConnectionState(device, deviceAddress) == DEVICE_STATE_AVAILABLE ? DEVICE_STATE_AVAILABLE : DEVICE_STATE_UNAVAILABLE;
+    }
+
+    /**
+     * Obtains the device connection state, and reports the failure
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE, {@link AudioBackend#READ_FAILED} if failed
+     */
+    public static int tryGetDeviceConnectionState(@DeviceOut int device, @NonNull String deviceAddress) {
+        MetricsListener listener = metricsListener;
+        int result;
+        if (listener == null) {
+            result = invokeGetDeviceConnectionState(device, deviceAddress);
+        } else {
+            long start = System.nanoTime();
+            result = invokeGetDeviceConnectionState(device, deviceAddress);
+            listener.onBackendCall(MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE, System.nanoTime() - start, result >= 0);
+        }
+
+        if (result < 0) {
+            return AudioBackend.READ_FAILED;
+        }
+        return result == DEVICE_STATE_AVAILABLE ? DEVICE_STATE_AVAILABLE : DEVICE_STATE_UNAVAILABLE;
     }
 
     /**
@@ -149,13 +328,26 @@ public final class AudioSystem {
      * @param config device categories config
      */
     public static void setForceUse(@Usage int usage, @CategoryConfig int config) {
-        Class<?> audioSystem = getAudioSystem();
+        trySetForceUse(usage, config);
+    }
 
-        try {
-            Method method = audioSystem.getMethod("setForceUse", Integer.TYPE, Integer.TYPE);
-            method.invoke(null, usage, config);
-        } catch (Exception ignored) {
+    /**
+     * Forces audio source, and reports the result
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     * @return false if failed, or rejected by the audio policy
+     */
+    public static boolean trySetForceUse(@Usage int usage, @CategoryConfig int config) {
+        MetricsListener listener = metricsListener;
+        if (listener == null) {
+            return invokeSetForceUse(usage, config);
         }
+
+        long start = System.nanoTime();
+        boolean succeeded = invokeSetForceUse(usage, config);
+        listener.onBackendCall(MetricsListener.OPERATION_SET_FORCE_USE, System.nanoTime() - start, succeeded);
+        return succeeded;
     }
 
     /**
@@ -165,38 +357,278 @@ public final class AudioSystem {
      * @return device categories config
      */
     public static @CategoryConfig int getForceUse(@Usage int usage) {
-        Class<?> audioSystem = getAudioSystem();
+        switch (tryGetForceUse(usage)) {
+            case 0:
+                return FORCE_NONE;
+            case 1:
+                return FORCE_SPEAKER;
+            case 2:
+                return FORCE_HEADPHONES;
+            case 3:
+                return FORCE_BT_SCO;
+            case 4:
+                return FORCE_BT_A2DP;
+            case 5:
+                return FORCE_WIRED_ACCESSORY;
+            case 6:
+                return FORCE_BT_CAR_DOCK;
+            case 7:
+                return FORCE_BT_DESK_DOCK;
+            case 8:
+                return FORCE_ANALOG_DOCK;
+            case 9:
+                return FORCE_DIGITAL_DOCK;
+            case 10:
+                return FORCE_NO_BT_A2DP;
+        }
+
+        return FORCE_NONE;
+    }
+
+    /**
+     * Obtains current audio source, and reports the failure
+     *
+     * @param usage audio usage
+     * @return device categories config, {@link AudioBackend#READ_FAILED} if failed
+     */
+    public static int tryGetForceUse(@Usage int usage) {
+        MetricsListener listener = metricsListener;
+        int result;
+        if (listener == null) {
+            result = invokeGetForceUse(usage);
+        } else {
+            long start = System.nanoTime();
+            result = invokeGetForceUse(usage);
+            listener.onBackendCall(MetricsListener.OPERATION_GET_FORCE_USE, System.nanoTime() - start, result >= 0);
+        }
+
+        return result < 0 ? AudioBackend.READ_FAILED : result;
+    }
+
+    /**
+     * Obtains the output latency of the stream, queried from the audio policy.<br />
+     * This is not a routing operation, so it is not measured nor suspended after the failures.
+     *
+     * @param streamType stream type, e.g. AudioManager.STREAM_MUSIC
+     * @return the latency in milliseconds, 0 if failed
+     */
+    public static int getOutputLatency(int streamType) {
+        Method method = AudioSystemBinding.getInstance().getOutputLatency;
+        if (method == null) {
+            return 0;
+        }
 
         try {
-            Method method = audioSystem.getMethod("getForceUse", Integer.TYPE);
-            int result = (Integer) method.invoke(null, usage);
-            switch (result) {
-                case 0:
-                    return FORCE_NONE;
-                case 1:
-                    return FORCE_SPEAKER;
-                case 2:
-                    return FORCE_HEADPHONES;
-                case 3:
-                    return FORCE_BT_SCO;
-                case 4:
-                    return FORCE_BT_A2DP;
-                case 5:
-                    return FORCE_WIRED_ACCESSORY;
-                case 6:
-                    return FORCE_BT_CAR_DOCK;
-                case 7:
-                    return FORCE_BT_DESK_DOCK;
-                case 8:
-                    return FORCE_ANALOG_DOCK;
-                case 9:
-                    return FORCE_DIGITAL_DOCK;
-                case 10:
-                    return FORCE_NO_BT_A2DP;
+            int result = (Integer) method.invoke(null, streamType);
+            return result < 0 ? 0 : result;
+        } catch (Exception ignored) {
+        }
+        return 0;
+    }
+
+    /**
+     * Calls setDeviceConnectionState
+     *
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @param deviceName device name
+     * @return false if failed
+     */
+    private static boolean invokeSetDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        AudioSystemBinding binding = AudioSystemBinding.getInstance();
+        Method method = binding.setDeviceConnectionState;
+        CircuitBreaker circuitBreaker = circuitBreakers[MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE];
+        if (method == null || !circuitBreaker.allowRequest()) {
+            return false;
+        }
+
+        if (isDirectCall(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE)) {
+            try {
+                return onSetResult(circuitBreaker, AudioSystemDirectBinding.setDeviceConnectionState(binding.deviceConnectionStateSignature, device, state, deviceAddress, deviceName));
+            } catch (LinkageError e) {
+                // not linked on this device, falls back to the reflection
+                disableDirectCall(MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                return false;
             }
+        }
+
+        try {
+            Object[] arguments;
+            if (binding.deviceConnectionStateSignature == AudioSystemBinding.SIGNATURE_ADDRESS) {
+                // Android 2.0 to 5.1
+                arguments = getArguments(3);
+            } else {
+                // Android version >= 6
+                arguments = getArguments(4);
+                arguments[3] = deviceName;
+            }
+            arguments[0] = box(device);
+            arguments[1] = box(state);
+            arguments[2] = deviceAddress;
+            return onSetResult(circuitBreaker, (Integer) method.invoke(null, arguments));
         } catch (Exception ignored) {
         }
+        circuitBreaker.onFailure();
+        return false;
+    }
 
-        return FORCE_NONE;
+    /**
+     * Calls getDeviceConnectionState
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return the raw result, -1 if failed
+     */
+    private static int invokeGetDeviceConnectionState(int device, String deviceAddress) {
+        Method method = AudioSystemBinding.getInstance().getDeviceConnectionState;
+        CircuitBreaker circuitBreaker = circuitBreakers[MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE];
+        if (method == null || !circuitBreaker.allowRequest()) {
+            return -1;
+        }
+
+        if (isDirectCall(MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE)) {
+            try {
+                int result = AudioSystemDirectBinding.getDeviceConnectionState(device, deviceAddress);
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (LinkageError e) {
+                // not linked on this device, falls back to the reflection
+                disableDirectCall(MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                return -1;
+            }
+        }
+
+        try {
+            Object[] arguments = getArguments(2);
+            arguments[0] = box(device);
+            arguments[1] = deviceAddress;
+            int result = (Integer) method.invoke(null, arguments);
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (Exception ignored) {
+        }
+        circuitBreaker.onFailure();
+        return -1;
+    }
+
+    /**
+     * Calls setForceUse
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     * @return false if failed
+     */
+    private static boolean invokeSetForceUse(int usage, int config) {
+        Method method = AudioSystemBinding.getInstance().setForceUse;
+        CircuitBreaker circuitBreaker = circuitBreakers[MetricsListener.OPERATION_SET_FORCE_USE];
+        if (method == null || !circuitBreaker.allowRequest()) {
+            return false;
+        }
+
+        if (isDirectCall(MetricsListener.OPERATION_SET_FORCE_USE)) {
+            try {
+                return onSetResult(circuitBreaker, AudioSystemDirectBinding.setForceUse(usage, config));
+            } catch (LinkageError e) {
+                // not linked on this device, falls back to the reflection
+                disableDirectCall(MetricsListener.OPERATION_SET_FORCE_USE);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                return false;
+            }
+        }
+
+        try {
+            Object[] arguments = getArguments(2);
+            arguments[0] = box(usage);
+            arguments[1] = box(config);
+            return onSetResult(circuitBreaker, (Integer) method.invoke(null, arguments));
+        } catch (Exception ignored) {
+        }
+        circuitBreaker.onFailure();
+        return false;
+    }
+
+    /**
+     * Obtains the reflection arguments of the calling thread
+     *
+     * @param count the number of the arguments
+     * @return the array, the previous values remain
+     */
+    private static Object[] getArguments(int count) {
+        return invokeArguments.get()[count];
+    }
+
+    /**
+     * Boxes the reflection argument, without allocating for the small values and the single-bit values
+     *
+     * @param value the value
+     * @return the boxed value
+     */
+    private static Integer box(int value) {
+        if (value > 127 && (value & (value - 1)) == 0) {
+            return boxedBits[Integer.numberOfTrailingZeros(value)];
+        }
+        return value;
+    }
+
+    /**
+     * Records the status returned by the hidden setter.<br />
+     * The rejected call, e.g. BAD_VALUE or PERMISSION_DENIED, is counted as the failure.
+     *
+     * @param circuitBreaker the circuit breaker of the operation
+     * @param result the status
+     * @return true if succeeded
+     */
+    private static boolean onSetResult(CircuitBreaker circuitBreaker, int result) {
+        if (result != SUCCESS) {
+            circuitBreaker.onFailure();
+            return false;
+        }
+        circuitBreaker.onSuccess();
+        return true;
+    }
+
+    /**
+     * Calls getForceUse
+     *
+     * @param usage audio usage
+     * @return the raw result, -1 if failed
+     */
+    private static int invokeGetForceUse(int usage) {
+        Method method = AudioSystemBinding.getInstance().getForceUse;
+        CircuitBreaker circuitBreaker = circuitBreakers[MetricsListener.OPERATION_GET_FORCE_USE];
+        if (method == null || !circuitBreaker.allowRequest()) {
+            return -1;
+        }
+
+        if (isDirectCall(MetricsListener.OPERATION_GET_FORCE_USE)) {
+            try {
+                int result = AudioSystemDirectBinding.getForceUse(usage);
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (LinkageError e) {
+                // not linked on this device, falls back to the reflection
+                disableDirectCall(MetricsListener.OPERATION_GET_FORCE_USE);
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                return -1;
+            }
+        }
+
+        try {
+            Object[] arguments = getArguments(1);
+            arguments[0] = box(usage);
+            int result = (Integer) method.invoke(null, arguments);
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (Exception ignored) {
+        }
+        circuitBreaker.onFailure();
+        return -1;
     }
 }
@@ -0,0 +1,159 @@
+package jp.kshoji.audio.util;
+
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Method;
+
+import jp.kshoji.audio.route.MetricsListener;
+
+/**
+ * Holds the {@link android.media.AudioSystem} hidden methods, resolved only once per process.
+ *
+ * @author K.Shoji
+ */
+@SuppressWarnings("JavadocReference")
+final class AudioSystemBinding {
+    /**
+     * setDeviceConnectionState is not available
+     */
+    static final int SIGNATURE_NONE = 0;
+    /**
+     * setDeviceConnectionState(int, int, String): Android 2.0 to 5.1
+     */
+    static final int SIGNATURE_ADDRESS = 1;
+    /**
+     * setDeviceConnectionState(int, int, String, String): Android version >= 6
+     */
+    static final int SIGNATURE_ADDRESS_NAME = 2;
+
+    /**
+     * Lazy holder, the binding will be resolved on the first access
+     */
+    private static final class Holder {
+        static final AudioSystemBinding INSTANCE = new AudioSystemBinding();
+    }
+
+    @Nullable
+    final Class<?> audioSystem;
+    final int deviceConnectionStateSignature;
+    @Nullable
+    final Method setDeviceConnectionState;
+    @Nullable
+    final Method getDeviceConnectionState;
+    @Nullable
+    final Method setForceUse;
+    @Nullable
+    final Method getForceUse;
+    @Nullable
+    final Method getOutputLatency;
+    /**
+     * The supported operations probed, bitmask of (1 &lt;&lt; MetricsListener.OPERATION_*) values
+     */
+    final int capabilities;
+
+    /**
+     * Obtains the process-wide binding
+     *
+     * @return the binding
+     */
+    static AudioSystemBinding getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private AudioSystemBinding() {
+        Class<?> audioSystemClass = null;
+        try {
+            audioSystemClass = Class.forName("android.media.AudioSystem");
+        } catch (ClassNotFoundException ignored) {
+        }
+        audioSystem = audioSystemClass;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ECLAIR &&
+                Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP_MR1) {
+            // Android 2.0 to 5.1
+            deviceConnectionStateSignature = SIGNATURE_ADDRESS;
+            setDeviceConnectionState = findMethod(audioSystemClass, "setDeviceConnectionState", Integer.TYPE, Integer.TYPE, String.class);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Android version >= 6
+            deviceConnectionStateSignature = SIGNATURE_ADDRESS_NAME;
+            setDeviceConnectionState = findMethod(audioSystemClass, "setDeviceConnectionState", Integer.TYPE, Integer.TYPE, String.class, String.class);
+        } else {
+            deviceConnectionStateSignature = SIGNATURE_NONE;
+            setDeviceConnectionState = null;
+        }
+
+        getDeviceConnectionState = findMethod(audioSystemClass, "getDeviceConnectionState", Integer.TYPE, String.class);
+        setForceUse = findMethod(audioSystemClass, "setForceUse", Integer.TYPE, Integer.TYPE);
+        getForceUse = findMethod(audioSystemClass, "getForceUse", Integer.TYPE);
+        getOutputLatency = findMethod(audioSystemClass, "getOutputLatency", Integer.TYPE);
+
+        capabilities = probe();
+    }
+
+    /**
+     * Probes the supported operations once. The setters are supported if resolved, the getters are called to check they are not blocked.
+     *
+     * @return bitmask of (1 &lt;&lt; MetricsListener.OPERATION_*) values
+     */
+    private int probe() {
+        // AudioManager.setParameters is the public API
+        int result = 1 << MetricsListener.OPERATION_SET_A2DP_SUSPENDED;
+        if (setDeviceConnectionState != null) {
+            result |= 1 << MetricsListener.OPERATION_SET_DEVICE_CONNECTION_STATE;
+        }
+        if (setForceUse != null) {
+            result |= 1 << MetricsListener.OPERATION_SET_FORCE_USE;
+        }
+        if (getForceUse != null && canInvoke(getForceUse, AudioSystem.FOR_MEDIA)) {
+            result |= 1 << MetricsListener.OPERATION_GET_FORCE_USE;
+        }
+        if (getDeviceConnectionState != null && canInvoke(getDeviceConnectionState, AudioSystem.DEVICE_OUT_SPEAKER, "")) {
+            result |= 1 << MetricsListener.OPERATION_GET_DEVICE_CONNECTION_STATE;
+        }
+        return result;
+    }
+
+    /**
+     * Calls the getter method
+     *
+     * @param method the method without side effects
+     * @param args the arguments
+     * @return true if the method returned
+     */
+    private static boolean canInvoke(Method method, Object... args) {
+        try {
+            method.invoke(null, args);
+            return true;
+        } catch (Exception ignored) {
+        }
+        return false;
+    }
+
+    /**
+     * Finds the public method, and suppresses the access checks on the following invocations
+     *
+     * @param clazz the class, may be null
+     * @param name method name
+     * @param parameterTypes parameter types
+     * @return the method, null if not found
+     */
+    @Nullable
+    private static Method findMethod(@Nullable Class<?> clazz, String name, Class<?>... parameterTypes) {
+        if (clazz == null) {
+            return null;
+        }
+
+        try {
+            Method method = clazz.getMethod(name, parameterTypes);
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException ignored) {
+            }
+            return method;
+        } catch (Exception ignored) {
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package jp.kshoji.audio.util;
+
+/**
+ * Calls the {@link android.media.AudioSystem} hidden methods directly, compiled against the stub signatures.<br />
+ * The calls are the plain static invocations: no boxing, no varargs arrays and no access checks.
+ * The methods are linked on the first call, and throw {@link LinkageError} if the device has no such method.
+ * The calls are kept in this class, so the linking failure will not break {@link AudioSystem}.
+ *
+ * @author K.Shoji
+ */
+final class AudioSystemDirectBinding {
+
+    private AudioSystemDirectBinding() {
+    }
+
+    /**
+     * Calls setDeviceConnectionState
+     *
+     * @param signature AudioSystemBinding.SIGNATURE_ADDRESS or AudioSystemBinding.SIGNATURE_ADDRESS_NAME
+     * @param device device kind id
+     * @param state DEVICE_STATE_AVAILABLE or DEVICE_STATE_UNAVAILABLE
+     * @param deviceAddress device address
+     * @param deviceName device name
+     * @return the status, 0 if succeeded
+     */
+    static int setDeviceConnectionState(int signature, int device, int state, String deviceAddress, String deviceName) {
+        if (signature == AudioSystemBinding.SIGNATURE_ADDRESS) {
+            // Android 2.0 to 5.1
+            return android.media.AudioSystem.setDeviceConnectionState(device, state, deviceAddress);
+        }
+        // Android version >= 6
+        return android.media.AudioSystem.setDeviceConnectionState(device, state, deviceAddress, deviceName);
+    }
+
+    /**
+     * Calls getDeviceConnectionState
+     *
+     * @param device device kind id
+     * @param deviceAddress device address
+     * @return the raw result
+     */
+    static int getDeviceConnectionState(int device, String deviceAddress) {
+        return android.media.AudioSystem.getDeviceConnectionState(device, deviceAddress);
+    }
+
+    /**
+     * Calls setForceUse
+     *
+     * @param usage audio usage
+     * @param config device categories config
+     * @return the status, 0 if succeeded
+     */
+    static int setForceUse(int usage, int config) {
+        return android.media.AudioSystem.setForceUse(usage, config);
+    }
+
+    /**
+     * Calls getForceUse
+     *
+     * @param usage audio usage
+     * @return the raw result
+     */
+    static int getForceUse(int usage) {
+        return android.media.AudioSystem.getForceUse(usage);
+    }
+}
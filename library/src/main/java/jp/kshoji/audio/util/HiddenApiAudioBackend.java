@@ -0,0 +1,79 @@
+package jp.kshoji.audio.util;
+
+import android.media.AudioManager;
+import android.support.annotation.NonNull;
+
+import jp.kshoji.audio.route.AudioBackend;
+import jp.kshoji.audio.route.MetricsListener;
+
+/**
+ * {@link AudioBackend} implementation with the hidden API {@link AudioSystem}, and {@link AudioManager}.
+ *
+ * <ul>
+ * <li>This class requires a permission 'android.permission.MODIFY_AUDIO_SETTINGS'.</li>
+ * <li>This class uses the hidden API, so the function will be broken in the future Android updates.</li>
+ * </ul>
+ *
+ * @author K.Shoji
+ */
+@SuppressWarnings("WrongConstant")
+public final class HiddenApiAudioBackend implements AudioBackend {
+    private final AudioManager audioManager;
+
+    /**
+     * Constructor
+     *
+     * @param audioManager the AudioManager
+     */
+    public HiddenApiAudioBackend(@NonNull AudioManager audioManager) {
+        this.audioManager = audioManager;
+    }
+
+    @Override
+    public boolean setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        return AudioSystem.trySetDeviceConnectionState(device, state, deviceAddress, deviceName);
+    }
+
+    @Override
+    public int getDeviceConnectionState(int device, String deviceAddress) {
+        return AudioSystem.tryGetDeviceConnectionState(device, deviceAddress);
+    }
+
+    @Override
+    public boolean setForceUse(int usage, int config) {
+        return AudioSystem.trySetForceUse(usage, config);
+    }
+
+    @Override
+    public int getForceUse(int usage) {
+        return AudioSystem.tryGetForceUse(usage);
+    }
+
+    @Override
+    public boolean setA2dpSuspended(boolean suspended) {
+        MetricsListener listener = AudioSystem.getMetricsListener();
+        if (listener == null) {
+            return invokeSetA2dpSuspended(suspended);
+        }
+
+        long start = System.nanoTime();
+        boolean succeeded = invokeSetA2dpSuspended(suspended);
+        listener.onBackendCall(MetricsListener.OPERATION_SET_A2DP_SUSPENDED, System.nanoTime() - start, succeeded);
+        return succeeded;
+    }
+
+    /**
+     * Calls AudioManager.setParameters
+     *
+     * @param suspended true if suspended
+     * @return false if failed, e.g. the audio service is dead, or the permission is denied
+     */
+    private boolean invokeSetA2dpSuspended(boolean suspended) {
+        try {
+            audioManager.setParameters(suspended ? "A2dpSuspended=true" : "A2dpSuspended=false");
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
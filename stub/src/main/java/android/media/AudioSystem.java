@@ -0,0 +1,36 @@
+package android.media;
+
+/**
+ * Compile-only stub of the hidden Android class, holds the signatures called by the library.<br />
+ * The class is provided by the device at runtime, this stub is never packaged.
+ *
+ * @author K.Shoji
+ */
+public class AudioSystem {
+
+    /**
+     * Android 2.0 to 5.1
+     */
+    public static int setDeviceConnectionState(int device, int state, String deviceAddress) {
+        throw new RuntimeException("Stub!");
+    }
+
+    /**
+     * Android version &gt;= 6
+     */
+    public static int setDeviceConnectionState(int device, int state, String deviceAddress, String deviceName) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int getDeviceConnectionState(int device, String deviceAddress) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int setForceUse(int usage, int config) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int getForceUse(int usage) {
+        throw new RuntimeException("Stub!");
+    }
+}